@@ -1,20 +1,68 @@
 package me.chichikov.simplehttp;
 
+import me.chichikov.simplehttp.server.FastStart;
+import me.chichikov.simplehttp.server.LoadHarness;
 import me.chichikov.simplehttp.server.ServerFactory;
 import me.chichikov.simplehttp.server.SimpleHttpServer;
 
-import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Класс App - точка входа в программу, инициализация и запуск
- * сервера.
+ * сервера. Поддерживаемые команды:<br />
+ * - без аргументов - запуск сервера с настройками из settings.xml;<br />
+ * - run [settings.xml] - запуск сервера с настройками из указанного файла;<br />
+ * - cds [settings.xml] [simplehttp.jsa] - создание архива классов для быстрого запуска
+ * (java -XX:SharedArchiveFile=simplehttp.jsa -jar SimpleHttp.jar, см. FastStart);<br />
+ * - train [settings.xml] - тренировочный запуск, выполняемый при создании архива;<br />
+ * - pack [settings.xml] [settings.bundle] - упаковка настроек и файлов ответов в один файл;<br />
+ * - bundle [settings.bundle] - запуск сервера из упакованного файла;<br />
+ * - bench [сценарий] [параметры] - нагрузочный стенд (см. LoadHarness).
  *
  * @author Anatoly Chichikov (12.03.2013)
  * @since 1.7
  */
 public class App {
-    public static void main(String[] args) throws IOException {
-        SimpleHttpServer server = new ServerFactory().getServerByXML("settings.xml");
+    public static void main(String[] args) throws Exception {
+        String command = args.length > 0 ? args[0] : "";
+        SimpleHttpServer server;
+
+        switch (command) {
+            case "pack":
+                String settingsPath = args.length > 1 ? args[1] : "settings.xml";
+                String bundlePath = args.length > 2 ? args[2] : "settings.bundle";
+                if (new ServerFactory().packBundle(settingsPath, bundlePath)) {
+                    System.out.println("Bundle was written to \"" + bundlePath + "\".");
+                }
+                return;
+            case "cds":
+                String archivePath = args.length > 2 ? args[2] : "simplehttp.jsa";
+                if (FastStart.createArchive(args.length > 1 ? args[1] : "settings.xml", archivePath)) {
+                    System.out.println("Archive was written to \"" + archivePath + "\", start the server with " +
+                        "java -XX:SharedArchiveFile=" + archivePath + " -jar SimpleHttp.jar");
+                }
+                else {
+                    System.out.println("Can't create archive.");
+                }
+                return;
+            case "train":
+                int responses = FastStart.train(args.length > 1 ? args[1] : "settings.xml");
+                System.out.println(responses < 0 ? "Can't initialize server." : "Training run: " + responses + " responses.");
+                System.exit(responses < 0 ? 1 : 0);
+                return;
+            case "run":
+                server = new ServerFactory().getServerByXML(args.length > 1 ? args[1] : "settings.xml");
+                break;
+            case "bench":
+                LoadHarness.main(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            case "bundle":
+                server = new ServerFactory().getServerByBundle(args.length > 1 ? args[1] : "settings.bundle");
+                break;
+            default:
+                server = new ServerFactory().getServerByXML("settings.xml");
+        }
+
         if (server != null) {
             server.start();
             System.out.println(server);
@@ -0,0 +1,282 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * BatchRoute - ответ типа batch: несколько ответов сервера в одном http ответе. Запросы
+ * ответов передаются параметрами key строки GET запроса (/batch?key=%2Fa&amp;key=%2Fb) либо
+ * строками тела POST запроса. Тела ответов передаются друг за другом (chunked) по мере
+ * готовности, каждое со своим content-type и кодом. Файлы ответов binary открываются
+ * параллельно, а их содержимое передается из файла (FileChannel.transferTo()) без чтения
+ * в память целиком:<br />
+ * - format=multipart - multipart/mixed, у каждой части заголовки Content-Type,
+ * Content-Location (запрос), Content-Length и X-Status;<br />
+ * - format=frames - кадры "код длина content-type запрос\r\n" (content-type без пробелов),
+ * за которыми следуют тело и "\r\n" (FRAMES_CONTENT_TYPE).<br />
+ * Параметр max=N ограничивает число запросов в пакете (по умолчанию DEFAULT_MAX), пакет
+ * большего размера отклоняется кодом 413.
+ *
+ * @since 1.7
+ */
+class BatchRoute {
+
+    enum Format {
+        MULTIPART, FRAMES
+    }
+
+    static final int DEFAULT_MAX = 32;
+    static final String FRAMES_CONTENT_TYPE = "application/x-simplehttp-batch";
+
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private static final int MAX_KEYS_SIZE = 64 * 1024;
+
+    /**
+     * Часть пакета: код, content-type и тело ответа, либо ожидаемое открытие файла ответа.
+     */
+    static class Part {
+        final String key;
+        final int status;
+        final String contentType;
+        final ByteBuffer body;
+        final Future<OpenFileCache.OpenFile> pending;
+
+        Part(String key, int status, String contentType, ByteBuffer body) {
+            this.key = key;
+            this.status = status;
+            this.contentType = contentType == null ? DEFAULT_CONTENT_TYPE : contentType;
+            this.body = body;
+            this.pending = null;
+        }
+
+        Part(String key, String contentType, Future<OpenFileCache.OpenFile> pending) {
+            this.key = key;
+            this.status = 200;
+            this.contentType = contentType == null ? DEFAULT_CONTENT_TYPE : contentType;
+            this.body = null;
+            this.pending = pending;
+        }
+
+        static Part empty(String key, int status) {
+            return new Part(key, status, null, ByteBuffer.allocate(0));
+        }
+    }
+
+    private final int max;
+    private final Format format;
+    private final String boundary;
+
+    BatchRoute(int max, Format format) {
+        if (max < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.max = max;
+        this.format = format;
+        this.boundary = "simplehttp-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Разбирает значение ответа типа batch (см. описание класса).
+     *
+     * @throws IllegalArgumentException возбуждается при неизвестном либо некорректном параметре.
+     */
+    static BatchRoute parse(String value) {
+        int max = DEFAULT_MAX;
+        Format format = Format.MULTIPART;
+        for (String token : value.trim().split("[\\s;]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            int equals = token.indexOf('=');
+            String name = equals < 0 ? "" : token.substring(0, equals).toLowerCase(Locale.US);
+            String argument = token.substring(equals + 1);
+            switch (name) {
+                case "max":
+                    max = Integer.parseInt(argument);
+                    break;
+                case "format":
+                    format = Format.valueOf(argument.toUpperCase(Locale.US));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown batch parameter: \"" + token + "\".");
+            }
+        }
+        return new BatchRoute(max, format);
+    }
+
+    /**
+     * Извлекает запросы пакета из строки GET запроса либо тела POST запроса.
+     *
+     * @return возвращает список запросов; если их больше max - список из max + 1 запросов.
+     */
+    List<String> readKeys(HttpExchange exchange) throws IOException {
+        List<String> keys = new ArrayList<>();
+        if (exchange.getRequestMethod().equals("POST")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            try (InputStream in = exchange.getRequestBody()) {
+                int read;
+                while (((read = in.read(buffer)) != -1) && (body.size() <= MAX_KEYS_SIZE)) {
+                    body.write(buffer, 0, read);
+                }
+            }
+            for (String line : new String(body.toByteArray(), StandardCharsets.UTF_8).split("\r?\n")) {
+                if (!line.trim().isEmpty() && (keys.size() <= max)) {
+                    keys.add(clean(line.trim()));
+                }
+            }
+        }
+        else {
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if (rawQuery != null) {
+                for (String parameter : rawQuery.split("&")) {
+                    if (parameter.startsWith("key=") && (parameter.length() > 4) && (keys.size() <= max)) {
+                        keys.add(clean(URLDecoder.decode(parameter.substring(4), "UTF-8")));
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Заменяет управляющие символы запроса (запрос передается в заголовке части пакета).
+     */
+    private static String clean(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) < ' ') {
+                return key.replaceAll("\\p{Cntrl}", "?");
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Передает пакет: части в порядке запросов, каждая по готовности ее тела.
+     * Ошибка открытия файла передается кодом 500 соответствующей части.
+     *
+     * @param fileCache кэш, из которого получены файлы частей (файл освобождается после
+     *                  передачи части либо при отмене пакета).
+     */
+    void write(HttpExchange exchange, List<Part> parts, OpenFileCache fileCache) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", format == Format.MULTIPART ?
+            "multipart/mixed; boundary=" + boundary : FRAMES_CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        WritableByteChannel channel = Channels.newChannel(out);
+        StringBuilder head = new StringBuilder(256);
+        int written = 0;
+        try {
+            for (Part part : parts) {
+                OpenFileCache.OpenFile file = null;
+                if (part.pending != null) {
+                    file = open(part, fileCache);
+                    if (file == null) {
+                        part = Part.empty(part.key, 500);
+                    }
+                }
+                written++;
+                try {
+                    long length = file != null ? file.size : part.body.remaining();
+                    head.setLength(0);
+                    if (format == Format.MULTIPART) {
+                        head.append("--").append(boundary)
+                            .append("\r\nContent-Type: ").append(part.contentType)
+                            .append("\r\nContent-Location: ").append(part.key)
+                            .append("\r\nContent-Length: ").append(length)
+                            .append("\r\nX-Status: ").append(part.status).append("\r\n\r\n");
+                    }
+                    else {
+                        head.append(part.status).append(' ').append(length).append(' ')
+                            .append(part.contentType.replace(" ", "")).append(' ').append(part.key).append("\r\n");
+                    }
+                    out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+                    if (file != null) {
+                        file.transferTo(channel);
+                    }
+                    else {
+                        ByteBuffer body = part.body.duplicate();
+                        while (body.hasRemaining()) {
+                            channel.write(body);
+                        }
+                    }
+                }
+                finally {
+                    if (file != null) {
+                        fileCache.release(file);
+                    }
+                }
+                out.write('\r');
+                out.write('\n');
+            }
+        }
+        finally {
+            for (int i = written; i < parts.size(); i++) {
+                cancel(parts.get(i), fileCache);
+            }
+        }
+        if (format == Format.MULTIPART) {
+            out.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        }
+        out.close();
+        exchange.close();
+    }
+
+    /**
+     * Ожидает открытия файла части.
+     *
+     * @return возвращает открытый файл либо null при ошибке открытия.
+     */
+    private static OpenFileCache.OpenFile open(Part part, OpenFileCache fileCache) {
+        try {
+            return part.pending.get();
+        }
+        catch (ExecutionException e) {
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(part, fileCache);
+            return null;
+        }
+    }
+
+    /**
+     * Отменяет открытие файла непереданной части; уже открытый файл освобождается (файл,
+     * открытый после отмены, освобождает задача открытия, см. SimpleHttpHandler).
+     */
+    private static void cancel(Part part, OpenFileCache fileCache) {
+        if ((part.pending == null) || part.pending.cancel(false) || part.pending.isCancelled()) {
+            return;
+        }
+        try {
+            fileCache.release(part.pending.get());
+        }
+        catch (ExecutionException | InterruptedException ignored) {
+        }
+    }
+
+    int getMax() {
+        return max;
+    }
+
+    Format getFormat() {
+        return format;
+    }
+
+    String getBoundary() {
+        return boundary;
+    }
+}
@@ -2,7 +2,8 @@ package me.chichikov.simplehttp.server;
 
 /**
  * ConfigurationParameters - перечисление содержащее в себе названия всех настраиваемых
- * параметров SimpleHttpServer.
+ * параметров SimpleHttpServer. Параметры THREADS, SHARDS, WARMUP, FILE_CACHE_*, PROXY_* и UNIX_SOCKET_*
+ * необязательны.
  *
  * @author Anatoly Chichikov (12.03.2013)
  * @since 1.7
@@ -11,5 +12,18 @@ enum ConfigurationParameters {
     IS_ANY_HAS_ACCESS,
     PORT,
     USER,
-    PASSWORD
+    PASSWORD,
+    THREADS,
+    SHARDS,
+    WARMUP,
+    FILE_CACHE_ENTRIES,
+    FILE_CACHE_VALID,
+    PROXY_CONNECTIONS,
+    PROXY_CONNECT_TIMEOUT,
+    PROXY_READ_TIMEOUT,
+    PROXY_IDLE_TIMEOUT,
+    PROXY_CACHE_ENTRIES,
+    PROXY_CACHE_ENTRY_SIZE,
+    UNIX_SOCKET_PATH,
+    UNIX_SOCKET_MODE
 }
@@ -0,0 +1,537 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EventBroadcaster - рассылка событий ответа типа sse (Server-Sent Events). GET запрос ответа
+ * подписывает клиента на события: обработчик передает заголовки ответа и возвращает
+ * управление, не завершая обмен, поэтому подписчик не занимает поток обработки. Событие
+ * сериализуется один раз и помещается в ограниченные очереди всех подписчиков; очереди
+ * опустошает общий исполнитель writers. Подписчик, очередь которого переполнена (клиент не
+ * успевает читать), отключается; отключается и подписчик, запись которому длится дольше timeout.
+ * Отключение прерывает соединение: в режиме шардов - StreamHttpExchange.abort(), для HttpServer
+ * JDK - прерыванием потока, заблокированного в записи (запись в блокирующий SocketChannel
+ * при прерывании закрывает канал). Последние события хранятся в кольцевом буфере и передаются
+ * повторно клиенту, переподключившемуся с заголовком Last-Event-ID. Если событий не было
+ * дольше heartbeat, подписчикам передается комментарий, поддерживающий соединение.<br />
+ * Значение ответа - список параметров через пробел либо ';':<br />
+ * - replay=N - число хранимых событий (по умолчанию 256);<br />
+ * - queue=N - размер очереди подписчика (по умолчанию 64);<br />
+ * - heartbeat=N - интервал комментариев в миллисекундах (по умолчанию 15000, 0 - отключены);<br />
+ * - timeout=N - наибольшая длительность записи подписчику в миллисекундах (по умолчанию 10000).
+ *
+ * @since 1.7
+ */
+class EventBroadcaster {
+
+    static final int DEFAULT_REPLAY = 256;
+    static final int DEFAULT_QUEUE = 64;
+    static final int DEFAULT_HEARTBEAT = 15000;
+    static final int DEFAULT_TIMEOUT = 10000;
+
+    /**
+     * Наибольший размер тела POST запроса, публикующего событие.
+     */
+    static final int MAX_EVENT_SIZE = 64 * 1024;
+
+    static final String CONTENT_TYPE = "text/event-stream; charset=utf-8";
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final int queueSize;
+    private final long heartbeat;
+    private final long timeout;
+
+    /**
+     * Кольцевой буфер последних сериализованных событий (индекс - номер события по модулю
+     * размера буфера). Публикация событий и подписка выполняются под блокировкой буфера.
+     */
+    private final byte[][] replay;
+    private long lastId = 0;
+
+    /**
+     * Время последней передачи подписчикам (миллисекунды).
+     */
+    private volatile long lastBroadcast;
+
+    private final Set<Subscriber> subscribers = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+
+    /**
+     * Подписчики, запись которым выполняется в данный момент (в том числе завершение ответа
+     * отключенного подписчика).
+     */
+    private final Set<Subscriber> writing = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private volatile Executor writers;
+    private volatile TimerWheel wheel;
+    private volatile boolean isRunning = false;
+
+    /**
+     * Подписчик: обмен, ответ которого не завершается, и очередь событий для передачи.
+     */
+    private class Subscriber implements Runnable {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        private boolean isDraining = false;
+        private boolean isClosed = false;
+
+        /**
+         * Поток, выполняющий запись, и время ее начала (System.nanoTime()).
+         */
+        private Thread writer;
+        private long writeStart;
+
+        Subscriber(HttpExchange exchange, OutputStream out) {
+            this.exchange = exchange;
+            this.out = out;
+        }
+
+        /**
+         * Помещает событие в очередь и, если очередь не опустошается, планирует ее передачу.
+         *
+         * @return возвращает false, если очередь переполнена.
+         */
+        boolean offer(byte[] bytes, boolean isBounded) {
+            synchronized (this) {
+                if (isClosed) {
+                    return true;
+                }
+                if (isBounded && (queue.size() >= queueSize)) {
+                    return false;
+                }
+                queue.add(bytes);
+                if (isDraining) {
+                    return true;
+                }
+                isDraining = true;
+            }
+            try {
+                writers.execute(this);
+            }
+            catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    isDraining = false;
+                }
+                close(false);
+            }
+            return true;
+        }
+
+        /**
+         * Передает клиенту накопленные события (выполняется исполнителем writers). Ответ
+         * отключенного подписчика завершается здесь же, чтобы не писать в поток ответа
+         * одновременно из двух потоков.
+         */
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    byte[] bytes;
+                    synchronized (this) {
+                        bytes = queue.poll();
+                        if (bytes == null) {
+                            if (!isClosed) {
+                                isDraining = false;
+                                return;
+                            }
+                            break;
+                        }
+                    }
+                    startWrite();
+                    try {
+                        out.write(bytes);
+                        boolean isEmpty;
+                        synchronized (this) {
+                            isEmpty = queue.isEmpty();
+                        }
+                        if (isEmpty) {
+                            out.flush();
+                        }
+                    }
+                    finally {
+                        endWrite();
+                    }
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                close(false);
+            }
+            startWrite();
+            try {
+                exchange.close();
+            }
+            finally {
+                endWrite();
+            }
+        }
+
+        private void startWrite() {
+            synchronized (this) {
+                writer = Thread.currentThread();
+                writeStart = System.nanoTime();
+            }
+            writing.add(this);
+        }
+
+        /**
+         * Завершает запись и сбрасывает прерывание потока, которое могло прийти после ее
+         * окончания, чтобы оно не закрыло соединение следующего подписчика.
+         */
+        private void endWrite() {
+            writing.remove(this);
+            synchronized (this) {
+                writer = null;
+            }
+            Thread.interrupted();
+        }
+
+        /**
+         * Проверяет, длится ли текущая запись дольше timeout (наносекунды).
+         */
+        synchronized boolean isWriteExpired(long now, long timeoutNanos) {
+            return (writer != null) && (now - writeStart > timeoutNanos);
+        }
+
+        /**
+         * Прерывает соединение подписчика, освобождая заблокированную запись.
+         */
+        void abort() {
+            if (exchange instanceof StreamHttpExchange) {
+                ((StreamHttpExchange) exchange).abort();
+                return;
+            }
+            synchronized (this) {
+                if (writer != null) {
+                    writer.interrupt();
+                }
+            }
+        }
+
+        /**
+         * Отключает подписчика. Медленный клиент при вытеснении отключается прерыванием
+         * соединения (см. abort()), что освобождает заблокированную запись.
+         */
+        void close(boolean isEvicted) {
+            boolean isIdle;
+            synchronized (this) {
+                if (isClosed) {
+                    return;
+                }
+                isClosed = true;
+                queue.clear();
+                isIdle = !isDraining;
+                isDraining = true;
+            }
+            subscribers.remove(this);
+            if (isEvicted) {
+                evicted.incrementAndGet();
+                abort();
+            }
+            if (isIdle) {
+                try {
+                    writers.execute(this);
+                }
+                catch (RejectedExecutionException e) {
+                    exchange.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param replaySize число хранимых для повторной передачи событий.
+     * @param queueSize  размер очереди подписчика.
+     * @param heartbeat  интервал комментариев, поддерживающих соединение (миллисекунды), 0 - отключены.
+     * @param timeout    наибольшая длительность записи подписчику (миллисекунды).
+     */
+    EventBroadcaster(int replaySize, int queueSize, long heartbeat, long timeout) {
+        if ((replaySize < 1) || (queueSize < 1) || (heartbeat < 0) || (timeout < 1)) {
+            throw new IllegalArgumentException();
+        }
+        this.replay = new byte[replaySize][];
+        this.queueSize = queueSize;
+        this.heartbeat = heartbeat;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Разбирает значение ответа типа sse (см. описание класса).
+     *
+     * @throws IllegalArgumentException возбуждается при неизвестном либо некорректном параметре.
+     */
+    static EventBroadcaster parse(String value) {
+        int replaySize = DEFAULT_REPLAY;
+        int queueSize = DEFAULT_QUEUE;
+        long heartbeat = DEFAULT_HEARTBEAT;
+        long timeout = DEFAULT_TIMEOUT;
+        for (String token : value.trim().split("[\\s;]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            int equals = token.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Invalid sse parameter: \"" + token + "\".");
+            }
+            String argument = token.substring(equals + 1);
+            switch (token.substring(0, equals).toLowerCase(Locale.US)) {
+                case "replay":
+                    replaySize = Integer.parseInt(argument);
+                    break;
+                case "queue":
+                    queueSize = Integer.parseInt(argument);
+                    break;
+                case "heartbeat":
+                    heartbeat = Long.parseLong(argument);
+                    break;
+                case "timeout":
+                    timeout = Long.parseLong(argument);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown sse parameter: \"" + token + "\".");
+            }
+        }
+        return new EventBroadcaster(replaySize, queueSize, heartbeat, timeout);
+    }
+
+    /**
+     * Запускает рассылку.
+     *
+     * @param writers исполнитель, передающий события подписчикам.
+     * @param wheel   колесо таймеров, по которому планируются комментарии heartbeat и проверка
+     *                длительности записи.
+     */
+    void start(Executor writers, TimerWheel wheel) {
+        this.writers = writers;
+        this.wheel = wheel;
+        isRunning = true;
+        scheduleHeartbeat();
+        scheduleWriteCheck();
+    }
+
+    /**
+     * Останавливает рассылку и завершает ответы всех подписчиков.
+     */
+    void stop() {
+        isRunning = false;
+        for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+            subscriber.close(false);
+        }
+    }
+
+    private void scheduleHeartbeat() {
+        if (heartbeat == 0) {
+            return;
+        }
+        lastBroadcast = System.currentTimeMillis();
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!isRunning) {
+                    return;
+                }
+                long idle = System.currentTimeMillis() - lastBroadcast;
+                if (idle >= heartbeat) {
+                    broadcast(HEARTBEAT);
+                    idle = 0;
+                }
+                wheel.schedule(this, heartbeat - idle);
+            }
+        }, heartbeat);
+    }
+
+    /**
+     * Планирует проверку длительности записи: подписчик, запись которому длится дольше timeout,
+     * отключается (проверка повторяется с интервалом timeout / 2).
+     */
+    private void scheduleWriteCheck() {
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!isRunning) {
+                    return;
+                }
+                long now = System.nanoTime();
+                for (Subscriber subscriber : writing) {
+                    if (subscriber.isWriteExpired(now, timeoutNanos)) {
+                        subscriber.close(true);
+                        subscriber.abort();
+                    }
+                }
+                wheel.schedule(this, Math.max(1, timeout / 2));
+            }
+        }, Math.max(1, timeout / 2));
+    }
+
+    /**
+     * Подписывает клиента: передает заголовки ответа (Content-Type text/event-stream задается
+     * набором заголовков ответа, см. SimpleHttpServer) и события, пропущенные клиентом
+     * (номер последнего полученного события - заголовок Last-Event-ID). Обмен не завершается.
+     */
+    void subscribe(HttpExchange exchange) throws IOException {
+        if (!isRunning) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        long lastEventId = -1;
+        String lastEventHeader = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        if (lastEventHeader != null) {
+            try {
+                lastEventId = Long.parseLong(lastEventHeader.trim());
+            }
+            catch (NumberFormatException ignored) {
+            }
+        }
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        out.flush();
+
+        Subscriber subscriber = new Subscriber(exchange, out);
+        synchronized (replay) {
+            if (lastEventId >= 0) {
+                for (long id = Math.max(lastEventId + 1, lastId - replay.length + 1); id <= lastId; id++) {
+                    subscriber.offer(replay[(int) (id % replay.length)], false);
+                }
+            }
+            subscribers.add(subscriber);
+        }
+    }
+
+    /**
+     * Публикует событие: сериализует его один раз и передает всем подписчикам.
+     *
+     * @param event имя события (null - событие без имени, "message").
+     * @param data  данные события, строки передаются отдельными полями data.
+     * @return возвращает номер события.
+     * @throws IllegalArgumentException возбуждается, если имя события содержит перевод строки.
+     */
+    long publish(String event, String data) {
+        if ((event != null) && ((event.indexOf('\n') >= 0) || (event.indexOf('\r') >= 0))) {
+            throw new IllegalArgumentException("Invalid event name.");
+        }
+        synchronized (replay) {
+            long id = ++lastId;
+            byte[] bytes = serialize(id, event, data);
+            replay[(int) (id % replay.length)] = bytes;
+            published.incrementAndGet();
+            broadcast(bytes);
+            return id;
+        }
+    }
+
+    /**
+     * Публикует событие из тела POST запроса (имя события - параметр event строки запроса)
+     * и отвечает номером события.
+     */
+    void publish(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (body.size() + read > MAX_EVENT_SIZE) {
+                    exchange.sendResponseHeaders(413, -1);
+                    exchange.close();
+                    return;
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        String event = getQueryParameter(exchange.getRequestURI().getRawQuery(), "event");
+        long id;
+        try {
+            id = publish(event, new String(body.toByteArray(), StandardCharsets.UTF_8));
+        }
+        catch (IllegalArgumentException e) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+        }
+        byte[] response = String.valueOf(id).getBytes(StandardCharsets.US_ASCII);
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+        exchange.close();
+    }
+
+    /**
+     * Передает событие всем подписчикам; подписчики с переполненной очередью отключаются.
+     */
+    private void broadcast(byte[] bytes) {
+        lastBroadcast = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.offer(bytes, true)) {
+                subscriber.close(true);
+            }
+        }
+    }
+
+    /**
+     * Сериализует событие в формате text/event-stream.
+     */
+    static byte[] serialize(long id, String event, String data) {
+        StringBuilder text = new StringBuilder(data.length() + 32);
+        text.append("id: ").append(id).append('\n');
+        if (event != null) {
+            text.append("event: ").append(event).append('\n');
+        }
+        for (String line : data.split("\r\n|\r|\n", -1)) {
+            text.append("data: ").append(line).append('\n');
+        }
+        text.append('\n');
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String getQueryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                try {
+                    return URLDecoder.decode(parameter.substring(name.length() + 1), "UTF-8");
+                }
+                catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    long getEvictedCount() {
+        return evicted.get();
+    }
+
+    long getPublishedCount() {
+        return published.get();
+    }
+
+    long getLastId() {
+        synchronized (replay) {
+            return lastId;
+        }
+    }
+}
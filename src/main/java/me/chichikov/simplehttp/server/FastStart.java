@@ -0,0 +1,157 @@
+package me.chichikov.simplehttp.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FastStart - быстрый запуск сервера с архивом разделяемых данных классов (AppCDS).
+ * Архив создается тренировочным запуском сервера в отдельной JVM с параметром
+ * -XX:ArchiveClassesAtExit: сервер запускается с заданными настройками, на каждый ответ
+ * выполняется запрос через сокет, после остановки сервера JVM записывает в архив все
+ * загруженные классы (разбор xml и XPath, com.sun.net.httpserver, классы сервера).
+ * Запуск с параметром -XX:SharedArchiveFile получает эти классы уже разобранными и
+ * проверенными из отображенного в память архива.<br />
+ * Архив действителен только для той же сборки JDK и того же classpath; классы из каталогов
+ * в архив не попадают, поэтому сервер должен запускаться из jar файла.
+ *
+ * @since 1.7
+ */
+public class FastStart {
+
+    static final String MAIN_CLASS = "me.chichikov.simplehttp.App";
+    static final String DEFAULT_ARCHIVE = "simplehttp.jsa";
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Создает архив тренировочным запуском сервера в отдельной JVM (команда train класса App).
+     *
+     * @param settings путь к xml файлу настроек.
+     * @param archive  путь к создаваемому архиву.
+     * @return возвращает true в случае успеха.
+     */
+    public static boolean createArchive(String settings, String archive) throws IOException, InterruptedException {
+        String classPath = System.getProperty("java.class.path");
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (new File(entry).isDirectory()) {
+                System.out.println("Class data sharing requires the server to be started from a jar file: \"" +
+                    entry + "\" is a directory.");
+                return false;
+            }
+        }
+        Files.deleteIfExists(Paths.get(archive));
+        Process process = new ProcessBuilder(getJava(), "-XX:ArchiveClassesAtExit=" + archive, "-cp", classPath,
+            MAIN_CLASS, "train", settings).inheritIO().start();
+        return (process.waitFor() == 0) && Files.exists(Paths.get(archive));
+    }
+
+    /**
+     * Тренировочный запуск: запускает сервер по файлу настроек, выполняет через сокет запрос
+     * к каждому ответу, который можно получить без побочных эффектов (см. ServerWarmUp), и
+     * останавливает сервер.
+     *
+     * @return возвращает число полученных ответов, либо -1 если сервер не инициализирован.
+     */
+    public static int train(String settings) throws IOException {
+        SimpleHttpServer server = new ServerFactory().getServerByXML(settings);
+        if (server == null) {
+            return -1;
+        }
+        server.start();
+        int responses = 0;
+        byte[] buffer = new byte[16384];
+        try {
+            for (String query : server.getTrainingQueries()) {
+                if (request(server.getPort(), query, buffer) > 0) {
+                    responses++;
+                }
+            }
+        }
+        finally {
+            server.stop();
+        }
+        return responses;
+    }
+
+    /**
+     * Измеряет время от запуска JVM с сервером (команда run класса App) до первого ответа с
+     * кодом 200 на запрос path. По окончании измерения сервер останавливается закрытием
+     * стандартного ввода.
+     *
+     * @param jvmOptions параметры JVM (например -XX:SharedArchiveFile=simplehttp.jsa).
+     * @return возвращает время в наносекундах.
+     * @throws IOException возбуждается если сервер не ответил за CONNECT_TIMEOUT.
+     */
+    static long measureStartup(List<String> jvmOptions, String settings, int port, String path)
+        throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(getJava());
+        command.addAll(jvmOptions);
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), MAIN_CLASS, "run", settings));
+        byte[] buffer = new byte[16384];
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            while (process.isAlive()) {
+                try {
+                    if (request(port, path, buffer) == 200) {
+                        return System.nanoTime() - start;
+                    }
+                }
+                catch (IOException ignored) {
+                }
+                if (System.nanoTime() - start > CONNECT_TIMEOUT * 1000000L) {
+                    break;
+                }
+                Thread.sleep(1);
+            }
+            throw new IOException("Server has not responded: " + command + ".");
+        }
+        finally {
+            process.getOutputStream().close();
+            if (!process.waitFor(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * Выполняет GET запрос без keep-alive.
+     *
+     * @return возвращает код ответа.
+     */
+    private static int request(int port, String query, byte[] buffer) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setSoTimeout(CONNECT_TIMEOUT);
+            socket.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + query + " HTTP/1.1\r\nHost: localhost:" + port + "\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            int total = 0;
+            int read;
+            while ((read = in.read(buffer, Math.min(total, 12), buffer.length - Math.min(total, 12))) > 0) {
+                total += read;
+            }
+            String status = new String(buffer, 0, Math.min(total, 12), StandardCharsets.ISO_8859_1);
+            return status.matches("HTTP/1\\.\\d \\d{3}") ? Integer.parseInt(status.substring(9)) : 0;
+        }
+    }
+
+    private static String getJava() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+}
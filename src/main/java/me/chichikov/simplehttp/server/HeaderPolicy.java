@@ -0,0 +1,223 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * HeaderPolicy - набор http заголовков ответа, задаваемый в settings.xml для типа ответа либо
+ * для отдельного запроса (Cache-Control, Expires, произвольные заголовки). Набор собирается и
+ * сериализуется один раз при загрузке настроек: обработчик запроса лишь добавляет к ответу
+ * готовый блок заголовков. Единственное вычисляемое значение - относительный Expires
+ * (текущее время плюс заданное число секунд), оно форматируется не чаще раза в секунду.
+ *
+ * @since 1.7
+ */
+class HeaderPolicy {
+
+    static final HeaderPolicy EMPTY = new HeaderPolicy(new LinkedHashMap<String, String>(), -1);
+
+    /**
+     * Заголовки, которые формирует сам сервер и которые нельзя переопределить в настройках.
+     */
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+        "content-length", "transfer-encoding", "connection", "date"));
+
+    /**
+     * Заголовки в порядке объявления, ключ - имя заголовка в нижнем регистре,
+     * значение - пара имя-значение.
+     */
+    private final Map<String, String[]> headers;
+
+    /**
+     * Время жизни ответа для заголовка Expires в секундах, -1 если заголовок не вычисляется.
+     */
+    private final long expiresSeconds;
+
+    /**
+     * Заголовки в виде пар имя-значение (для com.sun.net.httpserver.Headers).
+     */
+    private final String[] pairs;
+
+    /**
+     * Заголовки в виде готового блока строк "Имя: значение\r\n" (для StreamHttpExchange).
+     */
+    private final byte[] block;
+
+    /**
+     * Последнее отформатированное значение Expires.
+     */
+    private volatile Expires expires = new Expires(-1, null);
+
+    /**
+     * Значение заголовка Expires и секунда, для которой оно вычислено.
+     */
+    private static class Expires {
+        final long second;
+        final String value;
+
+        Expires(long second, String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+
+    /**
+     * @param headers        заголовки в порядке объявления (имя - значение).
+     * @param expiresSeconds время жизни ответа для заголовка Expires, -1 если не задано.
+     * @throws IllegalArgumentException возбуждается при попытке задать заголовок, формируемый
+     *                                  сервером, либо при недопустимых символах в заголовке.
+     */
+    HeaderPolicy(Map<String, String> headers, long expiresSeconds) {
+        this.headers = new LinkedHashMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey().trim();
+            String lowerName = name.toLowerCase(Locale.US);
+            if (name.isEmpty() || RESERVED.contains(lowerName) || !isValid(name) || !isValid(header.getValue())) {
+                throw new IllegalArgumentException("Invalid response header: \"" + name + "\".");
+            }
+            this.headers.put(lowerName, new String[]{name, header.getValue().trim()});
+        }
+        this.expiresSeconds = expiresSeconds;
+
+        pairs = new String[this.headers.size() * 2];
+        StringBuilder lines = new StringBuilder();
+        int i = 0;
+        for (String[] pair : this.headers.values()) {
+            pairs[i++] = pair[0];
+            pairs[i++] = pair[1];
+            lines.append(pair[0]).append(": ").append(pair[1]).append("\r\n");
+        }
+        block = lines.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isValid(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c == '\r') || (c == '\n') || (c > 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Восстанавливает набор из блока строк "Имя: значение\r\n" (см. getBlock()).
+     */
+    static HeaderPolicy parse(String block, long expiresSeconds) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String line : block.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon), line.substring(colon + 1).trim());
+            }
+        }
+        return new HeaderPolicy(headers, expiresSeconds);
+    }
+
+    /**
+     * Возвращает новый набор, в котором заголовки override заменяют одноименные заголовки
+     * этого набора (например, заголовки запроса поверх заголовков типа ответа). Вычисляемый
+     * и заданный датой Expires также заменяют друг друга.
+     */
+    HeaderPolicy merge(HeaderPolicy override) {
+        Map<String, String> merged = new LinkedHashMap<>();
+        for (String[] pair : headers.values()) {
+            merged.put(pair[0], pair[1]);
+        }
+        for (Map.Entry<String, String[]> header : override.headers.entrySet()) {
+            String[] own = headers.get(header.getKey());
+            if (own != null) {
+                merged.remove(own[0]);
+            }
+            merged.put(header.getValue()[0], header.getValue()[1]);
+        }
+        long mergedExpires = expiresSeconds;
+        if (override.expiresSeconds >= 0) {
+            String[] own = headers.get("expires");
+            if (own != null) {
+                merged.remove(own[0]);
+            }
+            mergedExpires = override.expiresSeconds;
+        }
+        else if (override.headers.containsKey("expires")) {
+            mergedExpires = -1;
+        }
+        return new HeaderPolicy(merged, mergedExpires);
+    }
+
+    /**
+     * Возвращает набор, дополненный заголовком Content-Type, если он не задан явно.
+     */
+    HeaderPolicy withContentType(String contentType) {
+        if ((contentType == null) || headers.containsKey("content-type")) {
+            return this;
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        result.put("Content-Type", contentType);
+        for (String[] pair : headers.values()) {
+            result.put(pair[0], pair[1]);
+        }
+        return new HeaderPolicy(result, expiresSeconds);
+    }
+
+    /**
+     * Добавляет заголовки к ответу. Для StreamHttpExchange передается готовый блок байт,
+     * для остальных реализаций HttpExchange - пары имя-значение.
+     */
+    void apply(HttpExchange exchange) {
+        if (exchange instanceof StreamHttpExchange) {
+            if (block.length > 0) {
+                ((StreamHttpExchange) exchange).appendHeaderBlock(block);
+            }
+        }
+        else {
+            Headers responseHeaders = exchange.getResponseHeaders();
+            for (int i = 0; i < pairs.length; i += 2) {
+                responseHeaders.add(pairs[i], pairs[i + 1]);
+            }
+        }
+        if (expiresSeconds >= 0) {
+            exchange.getResponseHeaders().set("Expires", getExpires(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Возвращает значение заголовка Expires для момента now (миллисекунды).
+     */
+    String getExpires(long now) {
+        long second = now / 1000;
+        Expires cached = expires;
+        if (cached.second != second) {
+            cached = new Expires(second, StreamHttpExchange.formatDate(new Date((second + expiresSeconds) * 1000)));
+            expires = cached;
+        }
+        return cached.value;
+    }
+
+    /**
+     * Возвращает значение заголовка по имени (без учета регистра), либо null.
+     */
+    String get(String name) {
+        String[] pair = headers.get(name.toLowerCase(Locale.US));
+        return pair == null ? null : pair[1];
+    }
+
+    boolean isEmpty() {
+        return headers.isEmpty() && (expiresSeconds < 0);
+    }
+
+    String[] getPairs() {
+        return pairs;
+    }
+
+    byte[] getBlock() {
+        return block;
+    }
+
+    long getExpiresSeconds() {
+        return expiresSeconds;
+    }
+}
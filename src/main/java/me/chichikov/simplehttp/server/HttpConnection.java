@@ -0,0 +1,176 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Set;
+
+/**
+ * HttpConnection - цикл обработки запросов одного HTTP/1.1 соединения вне
+ * com.sun.net.httpserver.HttpServer. Запросы соединения обрабатываются последовательно
+ * (keep-alive), каждый запрос передается обработчику в виде StreamHttpExchange. Если
+ * обработчик вернул управление, не завершив обмен (ответ будет передан из другого потока),
+ * соединение отсоединяется от цикла и возобновляется по завершении обмена. Если задан
+ * Parking, соединение без данных очередного запроса возвращается ему, освобождая поток.
+ *
+ * @since 1.7
+ */
+class HttpConnection implements Runnable, Closeable {
+
+    /**
+     * Получатель соединений, ожидающих очередного запроса. Соединение передается ему
+     * вместо блокирующего ожидания в потоке обработки; повторный запуск run() выполняет
+     * получатель, когда в соединении появятся данные.
+     */
+    interface Parking {
+        void park(HttpConnection connection);
+    }
+
+    private final Closeable channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private final InetSocketAddress localAddress;
+    private final InetSocketAddress remoteAddress;
+    private final HttpHandler handler;
+    private final Authenticator authenticator;
+
+    /**
+     * Множество открытых соединений слушателя (для их закрытия при остановке сервера).
+     */
+    private final Set<HttpConnection> connections;
+    private Parking parking;
+    private volatile long idleSince;
+
+    HttpConnection(Closeable channel, InputStream in, OutputStream out, InetSocketAddress localAddress,
+                   InetSocketAddress remoteAddress, HttpHandler handler, Authenticator authenticator,
+                   Set<HttpConnection> connections) {
+        this.channel = channel;
+        this.in = in;
+        this.out = out;
+        this.localAddress = localAddress;
+        this.remoteAddress = remoteAddress;
+        this.handler = handler;
+        this.authenticator = authenticator;
+        this.connections = connections;
+        connections.add(this);
+    }
+
+    @Override
+    public void run() {
+        boolean isDetached = false;
+        try {
+            while (true) {
+                StreamHttpExchange exchange;
+                try {
+                    exchange = StreamHttpExchange.read(in, out, localAddress, remoteAddress);
+                }
+                catch (StreamHttpExchange.BadRequestException e) {
+                    StreamHttpExchange.writeError(out, 400);
+                    break;
+                }
+                if (exchange == null) {
+                    break;
+                }
+
+                if (authenticate(exchange)) {
+                    try {
+                        handler.handle(exchange);
+                    }
+                    catch (IOException | RuntimeException e) {
+                        if (!exchange.isResponseSent()) {
+                            StreamHttpExchange.writeError(out,
+                                e instanceof StreamHttpExchange.BadRequestException ? 400 : 500);
+                        }
+                        exchange.close();
+                        break;
+                    }
+                    if (exchange.detach(this)) {
+                        isDetached = true;
+                        return;
+                    }
+                }
+                if (!exchange.isKeepAlive()) {
+                    break;
+                }
+                if ((parking != null) && (in.available() == 0)) {
+                    isDetached = true;
+                    parking.park(this);
+                    return;
+                }
+            }
+        }
+        catch (IOException ignored) {
+        }
+        finally {
+            if (!isDetached) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Выполняет аутентификацию запроса (если authenticator задан). В случае неудачи клиенту
+     * передается ответ с кодом, определенным аутентификатором.
+     *
+     * @return возвращает true, если запрос может быть передан обработчику.
+     */
+    private boolean authenticate(StreamHttpExchange exchange) throws IOException {
+        if (authenticator == null) {
+            return true;
+        }
+        Authenticator.Result result = authenticator.authenticate(exchange);
+        if (result instanceof Authenticator.Success) {
+            exchange.setPrincipal(((Authenticator.Success) result).getPrincipal());
+            return true;
+        }
+        int code = result instanceof Authenticator.Retry ?
+            ((Authenticator.Retry) result).getResponseCode() : ((Authenticator.Failure) result).getResponseCode();
+        exchange.sendResponseHeaders(code, -1);
+        exchange.close();
+        return false;
+    }
+
+    /**
+     * Возобновляет соединение после завершения отсоединенного обмена: соединение передается
+     * Parking в ожидании следующего запроса, либо закрывается если keep-alive невозможен.
+     */
+    void resume(boolean isKeepAlive) {
+        if (isKeepAlive && (parking != null)) {
+            parking.park(this);
+        }
+        else {
+            close();
+        }
+    }
+
+    void setParking(Parking parking) {
+        this.parking = parking;
+    }
+
+    Closeable getChannel() {
+        return channel;
+    }
+
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    void setIdleSince(long idleSince) {
+        this.idleSince = idleSince;
+    }
+
+    @Override
+    public void close() {
+        connections.remove(this);
+        try {
+            channel.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+}
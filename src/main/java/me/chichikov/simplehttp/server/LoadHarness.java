@@ -0,0 +1,749 @@
+package me.chichikov.simplehttp.server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * LoadHarness - нагрузочный стенд. Запускается командой "bench" класса App:<br />
+ * bench shards [settings=settings.xml] [path=/] [seconds=5] [clients=...] [counts=0,1,2,4]<br />
+ * - сравнение пропускной способности сервера при различном числе шардов SO_REUSEPORT
+ * (0 - единственный HttpServer) на запросах без keep-alive.<br />
+ * bench routes [count=1000000] [lookups=1000000] [offheap=false]<br />
+ * - сравнение объема кучи на один ответ и времени поиска ответа для пары HashMap и RouteIndex.<br />
+ * bench sse [subscribers=10000] [events=20] [interval=100] [shards=2] [threads=4]<br />
+ * - задержка доставки событий sse подписчикам и число потоков сервера; подписчики читают
+ * события через единственный Selector.<br />
+ * bench unix [settings=settings.xml] [path=/] [seconds=5] [clients=...] [shards=1] [socket=...]<br />
+ * - сравнение пропускной способности и задержки через TCP loopback и Unix domain сокет
+ * (оба слушателя обслуживает один сервер) на запросах без keep-alive и с keep-alive.<br />
+ * bench startup [settings=settings.xml] [path=/] [runs=5] [archive=simplehttp.jsa]<br />
+ * - время от запуска JVM с сервером до первого ответа без CDS, с архивом классов JDK по
+ * умолчанию и с архивом классов приложения (см. FastStart; архив создается при отсутствии).<br />
+ * Сервер и клиенты запускаются в одном процессе, каждый клиентский поток выполняет запросы
+ * последовательно, открывая новое соединение на каждый запрос (если не указано иное).
+ *
+ * @since 1.7
+ */
+public class LoadHarness {
+
+    /**
+     * Результат одного прогона нагрузки.
+     */
+    static class Result {
+        long requests;
+        long errors;
+        double seconds;
+        long[] latencies = new long[1024];
+        int latencyCount;
+
+        synchronized void merge(Result other) {
+            requests += other.requests;
+            errors += other.errors;
+            for (int i = 0; i < other.latencyCount; i++) {
+                addLatency(other.latencies[i]);
+            }
+        }
+
+        void addLatency(long nanos) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[latencyCount++] = nanos;
+        }
+
+        double getThroughput() {
+            return requests / seconds;
+        }
+
+        /**
+         * Возвращает перцентиль задержки в миллисекундах.
+         */
+        double getPercentile(double percentile) {
+            if (latencyCount == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            return sorted[Math.min(latencyCount - 1, (int) (latencyCount * percentile / 100))] / 1e6;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String scenario = args.length > 0 ? args[0] : "";
+        Map<String, String> options = parseOptions(Arrays.copyOfRange(args, Math.min(1, args.length), args.length));
+        switch (scenario) {
+            case "shards":
+                benchmarkShards(options);
+                break;
+            case "routes":
+                benchmarkRoutes(options);
+                break;
+            case "sse":
+                benchmarkEvents(options);
+                break;
+            case "unix":
+                benchmarkUnixSocket(options);
+                break;
+            case "startup":
+                benchmarkStartup(options);
+                break;
+            default:
+                System.out.println("Usage: bench shards [settings=settings.xml] [path=/] [seconds=5] " +
+                    "[clients=N] [counts=0,1,2,4]");
+                System.out.println("       bench routes [count=1000000] [lookups=1000000] [offheap=false]");
+                System.out.println("       bench sse [subscribers=10000] [events=20] [interval=100] [shards=2] [threads=4]");
+                System.out.println("       bench unix [settings=settings.xml] [path=/] [seconds=5] [clients=N] [shards=1] " +
+                    "[socket=/tmp/simplehttp-bench.sock]");
+                System.out.println("       bench startup [settings=settings.xml] [path=/] [runs=5] [archive=simplehttp.jsa]");
+        }
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals > 0) {
+                options.put(arg.substring(0, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+    private static int getInt(Map<String, String> options, String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    /**
+     * Сравнение пропускной способности при различном числе шардов.
+     */
+    private static void benchmarkShards(Map<String, String> options) throws Exception {
+        String settings = options.containsKey("settings") ? options.get("settings") : "settings.xml";
+        String path = options.containsKey("path") ? options.get("path") : "/";
+        int seconds = getInt(options, "seconds", 5);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int clients = getInt(options, "clients", cores * 2);
+        String counts = options.containsKey("counts") ? options.get("counts") : defaultShardCounts(cores);
+
+        System.out.println("Keep-alive-less GET " + path + ", " + clients + " clients, " + seconds + " s per run, " +
+            cores + " cores.");
+        System.out.println(String.format("%-8s %12s %12s %10s %10s %8s", "shards", "requests", "req/s", "p50 ms", "p99 ms", "errors"));
+        for (String count : counts.split(",")) {
+            int shardCount = Integer.parseInt(count.trim());
+            SimpleHttpServer server = createServer(settings, shardCount);
+            server.start();
+            try {
+                load("127.0.0.1", server.getPort(), path, clients, 1);
+                Result result = load("127.0.0.1", server.getPort(), path, clients, seconds);
+                System.out.println(String.format("%-8s %12d %12.0f %10.3f %10.3f %8d",
+                    shardCount == 0 ? "0 (jdk)" : String.valueOf(shardCount), result.requests,
+                    result.getThroughput(), result.getPercentile(50), result.getPercentile(99), result.errors));
+            }
+            finally {
+                server.stop();
+            }
+        }
+    }
+
+    private static String defaultShardCounts(int cores) {
+        StringBuilder counts = new StringBuilder("0");
+        for (int count = 1; count <= cores; count *= 2) {
+            counts.append(',').append(count);
+        }
+        return counts.toString();
+    }
+
+    /**
+     * Сравнение объема кучи на один ответ и времени поиска для пары HashMap (значения и типы
+     * ответов, как в ServerFactory) и RouteIndex. Ответы вида /items/N, половина из них - inplace,
+     * половина - binary. Поиск выполняется по случайным запросам, десятая часть которых отсутствует.
+     */
+    private static void benchmarkRoutes(Map<String, String> options) {
+        int count = getInt(options, "count", 1000000);
+        int lookups = getInt(options, "lookups", 1000000);
+        boolean isOffHeap = Boolean.parseBoolean(options.get("offheap"));
+
+        Random random = new Random(42);
+        String[] queries = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            queries[i] = "/items/" + (random.nextInt(count + count / 10) + (i % 10 == 0 ? count : 0));
+        }
+
+        long base = usedHeap();
+        Map<String, String> values = new HashMap<>();
+        Map<String, String> types = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String query = "/items/" + i;
+            if (i % 2 == 0) {
+                values.put(query, "<item id=\"" + i + "\"/>");
+                types.put(query, "inplace");
+            }
+            else {
+                values.put(query, "data/item" + i + ".png");
+                types.put(query, "binary");
+            }
+        }
+        long mapHeap = usedHeap() - base;
+
+        long buildStart = System.nanoTime();
+        RouteIndex index = RouteIndex.build(values, types, isOffHeap);
+        long buildNanos = System.nanoTime() - buildStart;
+        long indexHeap = usedHeap() - base - mapHeap;
+
+        System.out.println(count + " routes, " + lookups + " lookups, index " + (isOffHeap ? "off heap" : "on heap") +
+            ", built in " + buildNanos / 1000000 + " ms.");
+        System.out.println(String.format("%-10s %14s %14s %14s", "storage", "heap bytes", "bytes/route", "ns/lookup"));
+        for (int run = 0; run < 3; run++) {
+            long mapNanos = lookupMap(values, types, queries);
+            long indexNanos = lookupIndex(index, queries);
+            if (run == 2) {
+                System.out.println(String.format("%-10s %14d %14.1f %14.1f", "HashMap", mapHeap,
+                    (double) mapHeap / count, (double) mapNanos / lookups));
+                System.out.println(String.format("%-10s %14d %14.1f %14.1f", "RouteIndex", indexHeap,
+                    (double) indexHeap / count, (double) indexNanos / lookups));
+            }
+        }
+        if (isOffHeap) {
+            System.out.println("RouteIndex off-heap buffers: " + index.getFootprint() + " bytes including offset arrays.");
+        }
+    }
+
+    private static long lookupMap(Map<String, String> values, Map<String, String> types, String[] queries) {
+        long found = 0;
+        long start = System.nanoTime();
+        for (String query : queries) {
+            if (values.containsKey(query) && types.get(query).equals("inplace")) {
+                found++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        return found < 0 ? 0 : nanos;
+    }
+
+    private static long lookupIndex(RouteIndex index, String[] queries) {
+        long found = 0;
+        long start = System.nanoTime();
+        for (String query : queries) {
+            int route = index.find(query);
+            if ((route >= 0) && index.getType(route).equals("inplace")) {
+                found++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        return found < 0 ? 0 : nanos;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Задержка доставки событий sse. Сервер с единственным ответом /events запускается в том же
+     * процессе; подписчики - неблокирующие сокеты, обслуживаемые одним потоком с Selector.
+     * Событие считается доставленным подписчику, когда из сокета прочитан конец события
+     * (пустая строка). Каждому процессу нужно два файловых дескриптора на подписчика.
+     */
+    private static void benchmarkEvents(Map<String, String> options) throws Exception {
+        int subscribers = getInt(options, "subscribers", 10000);
+        final int events = getInt(options, "events", 20);
+        int interval = getInt(options, "interval", 100);
+        Map<ConfigurationParameters, Object> parameters = new HashMap<>();
+        parameters.put(ConfigurationParameters.PORT, getInt(options, "port", 5003));
+        parameters.put(ConfigurationParameters.IS_ANY_HAS_ACCESS, true);
+        parameters.put(ConfigurationParameters.USER, "");
+        parameters.put(ConfigurationParameters.PASSWORD, "");
+        parameters.put(ConfigurationParameters.THREADS, getInt(options, "threads", 4));
+        if (getInt(options, "shards", 2) > 0) {
+            parameters.put(ConfigurationParameters.SHARDS, getInt(options, "shards", 2));
+        }
+        List<Map<String, String>> responses = new ArrayList<>();
+        responses.add(new HashMap<String, String>());
+        responses.add(new HashMap<String, String>());
+        responses.get(0).put("/events", "replay=" + events + "; queue=" + events + "; heartbeat=0");
+        responses.get(1).put("/events", "sse");
+        SimpleHttpServer server = new SimpleHttpServer();
+        server.initialize(parameters, responses);
+        int threadsBefore = Thread.activeCount();
+        server.start();
+
+        final Selector selector = Selector.open();
+        final long[] published = new long[events + 1];
+        final int[][] received = new int[subscribers][];
+        final Result result = new Result();
+        final long[] completed = new long[events + 1];
+        final int[] delivered = new int[events + 1];
+        try {
+            byte[] request = ("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            for (int i = 0; i < subscribers; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+                channel.write(ByteBuffer.wrap(request));
+                channel.configureBlocking(false);
+                received[i] = new int[2];
+                channel.register(selector, SelectionKey.OP_READ, received[i]);
+            }
+            EventBroadcaster broadcaster = server.getBroadcaster("/events");
+            long waitStart = System.nanoTime();
+            while ((broadcaster.getSubscriberCount() < subscribers) && (System.nanoTime() - waitStart < 30000000000L)) {
+                Thread.sleep(10);
+            }
+            System.out.println(broadcaster.getSubscriberCount() + " subscribers, " + events + " events every " +
+                interval + " ms, " + (Thread.activeCount() - threadsBefore) + " server threads.");
+
+            final int subscriberCount = subscribers;
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readEvents(selector, subscriberCount, events, published, result, completed, delivered);
+                }
+            }, "sse-bench-reader");
+            reader.start();
+            for (int i = 1; i <= events; i++) {
+                synchronized (published) {
+                    published[i] = System.nanoTime();
+                }
+                server.publish("/events", null, "event " + i);
+                Thread.sleep(interval);
+            }
+            reader.join(30000);
+            reader.interrupt();
+            selector.wakeup();
+
+            double slowest = 0;
+            int lost = 0;
+            for (int i = 1; i <= events; i++) {
+                slowest = Math.max(slowest, completed[i] == 0 ? 0 : (completed[i] - published[i]) / 1e6);
+                lost += subscribers - delivered[i];
+            }
+            System.out.println(String.format("%-12s %10s %10s %10s %14s %8s", "deliveries", "p50 ms", "p99 ms", "max ms",
+                "fan-out ms", "lost"));
+            System.out.println(String.format("%-12d %10.3f %10.3f %10.3f %14.3f %8d", result.latencyCount,
+                result.getPercentile(50), result.getPercentile(99), result.getPercentile(100), slowest, lost));
+        }
+        finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * Читает события всех подписчиков до получения events событий каждым из них. Для каждого
+     * подписчика хранится число полученных событий и признак перевода строки в конце
+     * прочитанного фрагмента.
+     */
+    private static void readEvents(Selector selector, int subscribers, int events, long[] published, Result result,
+                                   long[] completed, int[] delivered) {
+        ByteBuffer buffer = ByteBuffer.allocate(16384);
+        int finished = 0;
+        try {
+            while ((finished < subscribers) && !Thread.currentThread().isInterrupted()) {
+                selector.select(1000);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    int[] state = (int[]) key.attachment();
+                    buffer.clear();
+                    int read = ((SocketChannel) key.channel()).read(buffer);
+                    if (read < 0) {
+                        key.cancel();
+                        finished++;
+                        continue;
+                    }
+                    long now = System.nanoTime();
+                    for (int i = 0; i < read; i++) {
+                        byte b = buffer.get(i);
+                        if ((b == '\n') && (state[1] == '\n')) {
+                            int event = ++state[0];
+                            if (event <= events) {
+                                long start;
+                                synchronized (published) {
+                                    start = published[event];
+                                }
+                                result.addLatency(now - start);
+                                delivered[event]++;
+                                completed[event] = Math.max(completed[event], now);
+                                if (event == events) {
+                                    finished++;
+                                }
+                            }
+                        }
+                        state[1] = b;
+                    }
+                }
+            }
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Сравнение TCP loopback и Unix domain сокета. Сервер открывает оба слушателя, TCP порт
+     * обслуживается шардами (по умолчанию одним), поэтому запросы обоих транспортов проходят
+     * один и тот же цикл обработки соединения.
+     */
+    private static void benchmarkUnixSocket(Map<String, String> options) throws Exception {
+        String settings = options.containsKey("settings") ? options.get("settings") : "settings.xml";
+        String path = options.containsKey("path") ? options.get("path") : "/";
+        String socket = options.containsKey("socket") ? options.get("socket") :
+            System.getProperty("java.io.tmpdir") + "/simplehttp-bench.sock";
+        int seconds = getInt(options, "seconds", 5);
+        int clients = getInt(options, "clients", Runtime.getRuntime().availableProcessors() * 2);
+        SimpleHttpServer server = createServer(settings, getInt(options, "shards", 1), socket);
+        server.start();
+        try {
+            SocketAddress[] addresses = {new InetSocketAddress("127.0.0.1", server.getPort()), UnixDomainSocketAddress.of(socket)};
+            System.out.println("GET " + path + ", " + clients + " clients, " + seconds + " s per run, unix socket " + socket + ".");
+            System.out.println(String.format("%-6s %-12s %12s %12s %10s %10s %8s", "socket", "connections", "requests",
+                "req/s", "p50 ms", "p99 ms", "errors"));
+            for (boolean isKeepAlive : new boolean[]{false, true}) {
+                for (SocketAddress address : addresses) {
+                    loadChannels(address, path, clients, 1, isKeepAlive);
+                    Result result = loadChannels(address, path, clients, seconds, isKeepAlive);
+                    System.out.println(String.format("%-6s %-12s %12d %12.0f %10.3f %10.3f %8d",
+                        address instanceof UnixDomainSocketAddress ? "unix" : "tcp", isKeepAlive ? "keep-alive" : "per request",
+                        result.requests, result.getThroughput(), result.getPercentile(50), result.getPercentile(99),
+                        result.errors));
+                }
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Выполняет запросы через SocketChannel (TCP либо Unix domain сокет) в clients потоков в
+     * течение seconds секунд. Если isKeepAlive равно true, каждый поток передает запросы через
+     * одно соединение (при ошибке соединение открывается заново).
+     */
+    static Result loadChannels(final SocketAddress address, String path, int clients, int seconds,
+                               final boolean isKeepAlive) throws Exception {
+        final byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" +
+            (isKeepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<Result>> futures = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            futures.add(pool.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    Result result = new Result();
+                    ResponseReader reader = null;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            if (reader == null) {
+                                reader = new ResponseReader(openChannel(address));
+                            }
+                            reader.channel.write(ByteBuffer.wrap(request));
+                            int status = reader.read(!isKeepAlive);
+                            if (!isKeepAlive) {
+                                reader.close();
+                                reader = null;
+                            }
+                            if (status == 200) {
+                                result.requests++;
+                                result.addLatency(System.nanoTime() - start);
+                            }
+                            else {
+                                result.errors++;
+                            }
+                        }
+                        catch (IOException | RuntimeException e) {
+                            result.errors++;
+                            if (reader != null) {
+                                reader.close();
+                                reader = null;
+                            }
+                        }
+                    }
+                    if (reader != null) {
+                        reader.close();
+                    }
+                    return result;
+                }
+            }));
+        }
+        Result total = new Result();
+        for (Future<Result> future : futures) {
+            total.merge(future.get());
+        }
+        total.seconds = (System.nanoTime() - started) / 1e9;
+        pool.shutdown();
+        return total;
+    }
+
+    private static SocketChannel openChannel(SocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        if (address instanceof InetSocketAddress) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        return channel;
+    }
+
+    /**
+     * Читает ответы из блокирующего SocketChannel: строку статуса, заголовки и тело по
+     * Content-Length либо chunked.
+     */
+    static class ResponseReader {
+        final SocketChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(16384);
+
+        ResponseReader(SocketChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        /**
+         * Читает очередной ответ.
+         *
+         * @param isUntilClose если true, тело без Content-Length и chunked читается до закрытия соединения.
+         * @return возвращает код ответа.
+         */
+        int read(boolean isUntilClose) throws IOException {
+            String status = readLine();
+            long length = -1;
+            boolean isChunked = false;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                String header = line.toLowerCase(Locale.US);
+                if (header.startsWith("content-length:")) {
+                    length = Long.parseLong(header.substring(15).trim());
+                }
+                else if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+                    isChunked = true;
+                }
+            }
+            if (isChunked) {
+                long size;
+                while ((size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0) {
+                    skip(size);
+                    readLine();
+                }
+                while (!readLine().isEmpty()) {
+                }
+            }
+            else if (length >= 0) {
+                skip(length);
+            }
+            else if (isUntilClose) {
+                skip(Long.MAX_VALUE);
+            }
+            return Integer.parseInt(status.substring(9, 12));
+        }
+
+        void close() {
+            try {
+                channel.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder(64);
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    fill();
+                }
+                char c = (char) (buffer.get() & 0xFF);
+                if (c == '\n') {
+                    int end = line.length();
+                    return ((end > 0) && (line.charAt(end - 1) == '\r')) ? line.substring(0, end - 1) : line.toString();
+                }
+                line.append(c);
+            }
+        }
+
+        /**
+         * Пропускает count байт тела (Long.MAX_VALUE - до закрытия соединения).
+         */
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                if (!buffer.hasRemaining()) {
+                    try {
+                        fill();
+                    }
+                    catch (EOFException e) {
+                        if (count == Long.MAX_VALUE) {
+                            return;
+                        }
+                        throw e;
+                    }
+                }
+                int skipped = (int) Math.min(count, buffer.remaining());
+                buffer.position(buffer.position() + skipped);
+                if (count != Long.MAX_VALUE) {
+                    count -= skipped;
+                }
+            }
+        }
+
+        private void fill() throws IOException {
+            buffer.clear();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Время до первого ответа при запуске сервера в отдельной JVM. Запуски разных режимов
+     * чередуются, чтобы кеш страниц одинаково влиял на все режимы.
+     */
+    private static void benchmarkStartup(Map<String, String> options) throws Exception {
+        String settings = options.containsKey("settings") ? options.get("settings") : "settings.xml";
+        String path = options.containsKey("path") ? options.get("path") : "/";
+        String archive = options.containsKey("archive") ? options.get("archive") : FastStart.DEFAULT_ARCHIVE;
+        int runs = getInt(options, "runs", 5);
+        ServerFactory factory = new ServerFactory();
+        factory.parseXML(settings);
+        int port = (Integer) factory.getParameters().get(ConfigurationParameters.PORT);
+        if (!new File(archive).exists() && !FastStart.createArchive(settings, archive)) {
+            return;
+        }
+
+        String[] modes = {"no CDS", "JDK CDS", "AppCDS"};
+        List<List<String>> jvmOptions = Arrays.asList(Collections.singletonList("-Xshare:off"),
+            Collections.<String>emptyList(), Collections.singletonList("-XX:SharedArchiveFile=" + archive));
+        Result[] results = new Result[modes.length];
+        for (int mode = 0; mode < modes.length; mode++) {
+            results[mode] = new Result();
+            FastStart.measureStartup(jvmOptions.get(mode), settings, port, path);
+        }
+        for (int run = 0; run < runs; run++) {
+            for (int mode = 0; mode < modes.length; mode++) {
+                results[mode].addLatency(FastStart.measureStartup(jvmOptions.get(mode), settings, port, path));
+                results[mode].requests++;
+            }
+        }
+        System.out.println("Time to first response GET " + path + ", " + runs + " runs per mode, archive " + archive + ".");
+        System.out.println(String.format("%-10s %10s %10s %10s", "mode", "min ms", "p50 ms", "max ms"));
+        for (int mode = 0; mode < modes.length; mode++) {
+            System.out.println(String.format("%-10s %10.1f %10.1f %10.1f", modes[mode], results[mode].getPercentile(0),
+                results[mode].getPercentile(50), results[mode].getPercentile(100)));
+        }
+    }
+
+    /**
+     * Создает сервер по файлу настроек, переопределяя число шардов.
+     */
+    static SimpleHttpServer createServer(String settings, int shardCount) throws Exception {
+        return createServer(settings, shardCount, null);
+    }
+
+    /**
+     * Создает сервер по файлу настроек, переопределяя число шардов и путь к Unix domain сокету
+     * (null - как в файле настроек).
+     */
+    static SimpleHttpServer createServer(String settings, int shardCount, String unixSocketPath) throws Exception {
+        ServerFactory factory = new ServerFactory();
+        factory.parseXML(settings);
+        Map<ConfigurationParameters, Object> parameters = new HashMap<>(factory.getParameters());
+        parameters.put(ConfigurationParameters.IS_ANY_HAS_ACCESS, true);
+        if (shardCount > 0) {
+            parameters.put(ConfigurationParameters.SHARDS, shardCount);
+        }
+        else {
+            parameters.remove(ConfigurationParameters.SHARDS);
+        }
+        if (unixSocketPath != null) {
+            parameters.put(ConfigurationParameters.UNIX_SOCKET_PATH, unixSocketPath);
+        }
+        SimpleHttpServer server = new SimpleHttpServer();
+        server.initialize(parameters, new ArrayList<>(factory.getResponses()), factory.getHeaders(), factory.getShaping(),
+            factory.getLanes());
+        return server;
+    }
+
+    /**
+     * Выполняет запросы без keep-alive в clients потоков в течение seconds секунд.
+     */
+    static Result load(final String host, final int port, String path, int clients, int seconds) throws Exception {
+        final byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + ":" + port +
+            "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<Result>> futures = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            futures.add(pool.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    Result result = new Result();
+                    byte[] buffer = new byte[16384];
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        if (requestOnce(host, port, request, buffer)) {
+                            result.requests++;
+                            result.addLatency(System.nanoTime() - start);
+                        }
+                        else {
+                            result.errors++;
+                        }
+                    }
+                    return result;
+                }
+            }));
+        }
+        Result total = new Result();
+        for (Future<Result> future : futures) {
+            total.merge(future.get());
+        }
+        total.seconds = (System.nanoTime() - started) / 1e9;
+        pool.shutdown();
+        return total;
+    }
+
+    /**
+     * Открывает соединение, передает запрос и читает ответ до закрытия соединения сервером.
+     *
+     * @return возвращает true, если получен ответ с кодом 200.
+     */
+    private static boolean requestOnce(String host, int port, byte[] request, byte[] buffer) {
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10000);
+            socket.connect(new InetSocketAddress(host, port), 10000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            int total = 0;
+            int read;
+            while ((read = in.read(buffer, Math.min(total, 12), buffer.length - Math.min(total, 12))) > 0) {
+                total += read;
+            }
+            return (total >= 12) && new String(buffer, 0, 12, StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1 200");
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package me.chichikov.simplehttp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenFileCache - кэш открытых файлов ответов типа binary (аналог open_file_cache nginx).
+ * Запись хранит открытый FileChannel, размер, время изменения и content-type файла, поэтому
+ * запрос к горячему файлу обходится без открытия, stat и закрытия. Актуальность записи
+ * проверяется (stat без открытия) не чаще одного раза в validMillis, а не при каждом запросе:
+ * измененный либо удаленный файл обнаруживается с задержкой до validMillis.<br />
+ * Размер кэша ограничен числом записей, вытесняются давно не использованные записи. Запись
+ * выдается с подсчетом ссылок (acquire()/release()): канал вытесненной записи закрывается,
+ * когда завершится последняя использующая его передача. Чтение канала выполняется
+ * позиционно, поэтому один канал разделяется одновременными передачами.<br />
+ * Открытие файла и проверка актуальности выполняются вне блокировки кэша, поэтому медленный
+ * диск задерживает только запросы к своим файлам; запись публикуется в кэше под блокировкой
+ * с повторной проверкой (если запись уже опубликована другим потоком, используется она).
+ *
+ * @since 1.7
+ */
+class OpenFileCache {
+
+    static final int DEFAULT_ENTRIES = 256;
+    static final int DEFAULT_VALID_MILLIS = 1000;
+
+    /**
+     * Наибольший размер файла, читаемого в память целиком (см. OpenFile.read()).
+     */
+    static final long MAX_READ_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Открытый файл.
+     */
+    static class OpenFile {
+        final String path;
+        final FileChannel channel;
+        final long size;
+        final long modified;
+        final String contentType;
+
+        private int references;
+        private boolean isEvicted;
+        private long validated;
+
+        private OpenFile(String path, FileChannel channel, long size, long modified, long validated) {
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+            this.modified = modified;
+            this.contentType = SimpleHttpHandler.extractContentTypeByExtension(path);
+            this.validated = validated;
+        }
+
+        /**
+         * Передает содержимое файла в канал, не изменяя позицию FileChannel.
+         */
+        void transferTo(WritableByteChannel target) throws IOException {
+            long position = 0;
+            while (position < size) {
+                long transferred = channel.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("File is truncated: \"" + path + "\".");
+                }
+                position += transferred;
+            }
+        }
+
+        /**
+         * Читает содержимое файла целиком (позиционно).
+         *
+         * @throws IOException возбуждается также если размер файла больше MAX_READ_SIZE.
+         */
+        ByteBuffer read() throws IOException {
+            if (size > MAX_READ_SIZE) {
+                throw new IOException("File is too large to read into memory: \"" + path + "\".");
+            }
+            ByteBuffer body = ByteBuffer.allocate((int) size);
+            while (body.hasRemaining()) {
+                if (channel.read(body, body.position()) < 0) {
+                    throw new IOException("File is truncated: \"" + path + "\".");
+                }
+            }
+            body.flip();
+            return body;
+        }
+    }
+
+    private final int maxEntries;
+    private final long validNanos;
+    private final Map<String, OpenFile> entries;
+
+    private long hits;
+    private long misses;
+    private long revalidations;
+    private long evictions;
+
+    /**
+     * @param maxEntries  наибольшее число открытых файлов (0 - файлы не кэшируются: каждый
+     *                    запрос открывает файл, а release() его закрывает).
+     * @param validMillis интервал проверки актуальности записи.
+     */
+    OpenFileCache(final int maxEntries, int validMillis) {
+        if ((maxEntries < 0) || (validMillis < 0)) {
+            throw new IllegalArgumentException();
+        }
+        this.maxEntries = maxEntries;
+        this.validNanos = TimeUnit.MILLISECONDS.toNanos(validMillis);
+        entries = new LinkedHashMap<String, OpenFile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, OpenFile> eldest) {
+                if (size() > maxEntries) {
+                    evict(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Возвращает открытый файл, увеличивая число его ссылок. По окончании передачи
+     * необходимо вызвать release().
+     *
+     * @throws IOException возбуждается если файл недоступен.
+     */
+    OpenFile acquire(String path) throws IOException {
+        long now = System.nanoTime();
+        OpenFile entry;
+        synchronized (this) {
+            entry = entries.get(path);
+            if ((entry != null) && (now - entry.validated <= validNanos)) {
+                hits++;
+                entry.references++;
+                return entry;
+            }
+            if (entry != null) {
+                revalidations++;
+            }
+        }
+
+        if ((entry != null) && isUnchanged(entry)) {
+            synchronized (this) {
+                if (!entry.isEvicted) {
+                    entry.validated = Math.max(entry.validated, now);
+                    hits++;
+                    entry.references++;
+                    return entry;
+                }
+            }
+        }
+
+        OpenFile opened = open(path, now);
+        OpenFile current;
+        synchronized (this) {
+            misses++;
+            current = entries.get(path);
+            if ((current != null) && (current == entry)) {
+                entries.remove(path);
+                evict(current);
+                current = null;
+            }
+            if (current == null) {
+                if (maxEntries > 0) {
+                    entries.put(path, opened);
+                }
+                else {
+                    opened.isEvicted = true;
+                }
+                opened.references++;
+                return opened;
+            }
+            current.references++;
+        }
+        close(opened);
+        return current;
+    }
+
+    /**
+     * Освобождает файл, полученный методом acquire().
+     */
+    synchronized void release(OpenFile entry) {
+        if ((--entry.references == 0) && entry.isEvicted) {
+            close(entry);
+        }
+    }
+
+    /**
+     * Вытесняет все записи (каналы используемых записей закрываются по их освобождении).
+     */
+    synchronized void clear() {
+        for (OpenFile entry : new ArrayList<>(entries.values())) {
+            evict(entry);
+        }
+        entries.clear();
+    }
+
+    private void evict(OpenFile entry) {
+        evictions++;
+        entry.isEvicted = true;
+        if (entry.references == 0) {
+            close(entry);
+        }
+    }
+
+    private static OpenFile open(String path, long now) throws IOException {
+        Path file = Paths.get(path);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new OpenFile(path, channel, channel.size(), Files.getLastModifiedTime(file).toMillis(), now);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static boolean isUnchanged(OpenFile entry) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(entry.path), BasicFileAttributes.class);
+            return (attributes.size() == entry.size) && (attributes.lastModifiedTime().toMillis() == entry.modified);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void close(OpenFile entry) {
+        try {
+            entry.channel.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getRevalidations() {
+        return revalidations;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+}
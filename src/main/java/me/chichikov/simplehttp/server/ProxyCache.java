@@ -0,0 +1,141 @@
+package me.chichikov.simplehttp.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProxyCache - кэш ответов вышестоящих серверов. Время жизни записи определяется
+ * заголовком Cache-Control ответа (max-age либо s-maxage), по истечении которого запись
+ * еще stale-while-revalidate секунд может отдаваться клиентам, пока она обновляется в фоне.
+ * Одновременные промахи по одному ключу объединяются: запрос к вышестоящему серверу
+ * выполняет только первый из них ("ведущий"), остальные ожидают его результата.
+ * Размер кэша ограничен числом записей, вытесняются давно не использованные записи.
+ *
+ * @since 1.7
+ */
+class ProxyCache {
+
+    /**
+     * Сохраненный ответ вышестоящего сервера.
+     */
+    static class CachedResponse {
+        final int status;
+
+        /**
+         * Заголовки ответа в виде пар имя-значение.
+         */
+        final String[] headers;
+        final byte[] body;
+        final long storedAt;
+        final long freshUntil;
+        final long staleUntil;
+
+        CachedResponse(int status, String[] headers, byte[] body, long storedAt, long maxAgeMillis, long staleMillis) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+            this.storedAt = storedAt;
+            this.freshUntil = storedAt + TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+            this.staleUntil = freshUntil + TimeUnit.MILLISECONDS.toNanos(staleMillis);
+        }
+
+        boolean isFresh(long now) {
+            return now - freshUntil < 0;
+        }
+
+        boolean isRevalidatable(long now) {
+            return now - staleUntil < 0;
+        }
+
+        long getAgeSeconds(long now) {
+            return TimeUnit.NANOSECONDS.toSeconds(now - storedAt);
+        }
+    }
+
+    /**
+     * Выполняющийся запрос к вышестоящему серверу, результата которого ожидают остальные запросы.
+     */
+    static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile CachedResponse result;
+
+        /**
+         * Ожидает завершения запроса.
+         *
+         * @return возвращает полученную запись, либо null если ответ не может быть
+         *         закэширован или время ожидания истекло.
+         */
+        CachedResponse await(long timeoutMillis) {
+            try {
+                if (done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return result;
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+
+    private final Map<String, CachedResponse> entries;
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    ProxyCache(final int maxEntries) {
+        entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    CachedResponse get(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Пытается стать ведущим запросом для ключа.
+     *
+     * @return возвращает новый Flight, если запрос по ключу еще не выполняется,
+     *         либо null если ведущий запрос уже существует.
+     */
+    Flight lead(String key) {
+        Flight flight = new Flight();
+        return flights.putIfAbsent(key, flight) == null ? flight : null;
+    }
+
+    /**
+     * Возвращает выполняющийся запрос по ключу, либо null.
+     */
+    Flight getFlight(String key) {
+        return flights.get(key);
+    }
+
+    /**
+     * Завершает ведущий запрос: сохраняет полученную запись (если она не null) и
+     * оповещает ожидающие запросы.
+     */
+    void complete(String key, Flight flight, CachedResponse entry) {
+        if (entry != null) {
+            synchronized (entries) {
+                entries.put(key, entry);
+            }
+        }
+        flights.remove(key, flight);
+        flight.result = entry;
+        flight.done.countDown();
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
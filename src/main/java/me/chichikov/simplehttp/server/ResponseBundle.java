@@ -0,0 +1,396 @@
+package me.chichikov.simplehttp.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * ResponseBundle - упакованный в один файл набор ответов сервера. Файл содержит заголовок
+ * с параметрами сервера, отсортированный индекс запросов, заранее сформированные http
+ * заголовки и выровненные тела ответов. При запуске файл отображается в память целиком,
+ * поэтому время старта не зависит от числа запросов, а тела ответов отдаются прямо из
+ * отображения.<br />
+ * Формат файла (все числа big-endian):<br />
+ * - заголовок фиксированной длины HEADER_SIZE;<br />
+ * - индекс из routeCount записей по ENTRY_SIZE байт, отсортированный по байтам запроса в UTF-8;<br />
+ * - строки: запросы, http заголовки (см. HeaderPolicy), имя пользователя и пароль;<br />
+ * - тела ответов, выровненные на ALIGNMENT (или PAGE_ALIGNMENT для крупных тел).
+ *
+ * @since 1.7
+ */
+class ResponseBundle {
+
+    static final int MAGIC = 0x53485242;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int ENTRY_SIZE = 32;
+    static final int ALIGNMENT = 8;
+    static final int PAGE_ALIGNMENT = 4096;
+
+    static final int TYPE_INPLACE = 1;
+    static final int TYPE_BINARY = 2;
+
+    private static final int FLAG_ANY_HAS_ACCESS = 1;
+
+    private final MappedByteBuffer buffer;
+    private final int routeCount;
+    private final int indexOffset;
+
+    /**
+     * Наборы http заголовков, декодированные при первом обращении к запросу. Массив заполняется
+     * лениво, чтобы не разбирать весь файл при старте.
+     */
+    private final HeaderPolicy[] headerPolicies;
+
+    private ResponseBundle(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+            throw new IllegalArgumentException();
+        }
+        routeCount = buffer.getInt(16);
+        indexOffset = buffer.getInt(20);
+        if ((routeCount < 0) || ((long) indexOffset + (long) routeCount * ENTRY_SIZE > buffer.capacity())) {
+            throw new IllegalArgumentException();
+        }
+        headerPolicies = new HeaderPolicy[routeCount];
+    }
+
+    /**
+     * Отображает в память файл, созданный методом write().
+     *
+     * @param path путь к файлу.
+     * @return возвращает открытый набор ответов.
+     * @throws IllegalArgumentException возбуждается если файл не является набором ответов.
+     */
+    static ResponseBundle open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return new ResponseBundle(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Упаковывает параметры сервера и все ответы (включая файлы, на которые ссылаются ответы
+     * типа binary) в файл path.
+     *
+     * @param parameters параметры сервера, полученные ServerFactory.
+     * @param responses  список из двух отображений: значения и типы ответов.
+     * @param headers    заданные в настройках наборы http заголовков ответов (ключ - запрос).
+     * @param path       путь к создаваемому файлу.
+     * @throws IllegalArgumentException возбуждается при неизвестном типе ответа либо
+     *                                  при превышении допустимого размера файла.
+     */
+    static void write(Map<ConfigurationParameters, Object> parameters, List<Map<String, String>> responses,
+                      Map<String, HeaderPolicy> headers, String path) throws IOException {
+        Map<String, String> values = responses.get(0);
+        Map<String, String> types = responses.get(1);
+
+        List<byte[]> keys = new ArrayList<>(values.size());
+        Map<byte[], String> queries = new IdentityHashMap<>(values.size());
+        for (String query : values.keySet()) {
+            byte[] key = query.getBytes(StandardCharsets.UTF_8);
+            keys.add(key);
+            queries.put(key, query);
+        }
+        Collections.sort(keys, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                return compareBytes(a, b);
+            }
+        });
+
+        int count = keys.size();
+        int[] typeCodes = new int[count];
+        HeaderPolicy[] policies = new HeaderPolicy[count];
+        long[] bodyLengths = new long[count];
+        for (int i = 0; i < count; i++) {
+            String query = queries.get(keys.get(i));
+            String value = values.get(query);
+            String contentType = null;
+            switch (types.get(query)) {
+                case "inplace":
+                    typeCodes[i] = TYPE_INPLACE;
+                    bodyLengths[i] = value.getBytes(StandardCharsets.UTF_8).length;
+                    break;
+                case "binary":
+                    typeCodes[i] = TYPE_BINARY;
+                    File file = new File(value);
+                    if (!file.isFile()) {
+                        throw new IOException("Can't read file: \"" + value + "\".");
+                    }
+                    bodyLengths[i] = file.length();
+                    contentType = SimpleHttpHandler.extractContentTypeByExtension(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Response type \"" + types.get(query) + "\" can't be packed.");
+            }
+            policies[i] = (headers.containsKey(query) ? headers.get(query) : HeaderPolicy.EMPTY).withContentType(contentType);
+        }
+
+        byte[] user = bytesOf((String) parameters.get(ConfigurationParameters.USER));
+        byte[] password = bytesOf((String) parameters.get(ConfigurationParameters.PASSWORD));
+
+        long stringsOffset = HEADER_SIZE + (long) count * ENTRY_SIZE;
+        long stringsLength = user.length + password.length;
+        for (int i = 0; i < count; i++) {
+            stringsLength += keys.get(i).length + policies[i].getBlock().length;
+        }
+        long[] bodyOffsets = new long[count];
+        long end = stringsOffset + stringsLength;
+        for (int i = 0; i < count; i++) {
+            end = align(end, bodyLengths[i] >= PAGE_ALIGNMENT ? PAGE_ALIGNMENT : ALIGNMENT);
+            bodyOffsets[i] = end;
+            end += bodyLengths[i];
+        }
+        if (end > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bundle is larger than 2GB.");
+        }
+
+        ByteBuffer head = ByteBuffer.allocate((int) (stringsOffset + stringsLength));
+        int stringPosition = (int) stringsOffset;
+        head.putInt(0, MAGIC);
+        head.putInt(4, VERSION);
+        head.putInt(8, Boolean.TRUE.equals(parameters.get(ConfigurationParameters.IS_ANY_HAS_ACCESS)) ? FLAG_ANY_HAS_ACCESS : 0);
+        head.putInt(12, (Integer) parameters.get(ConfigurationParameters.PORT));
+        head.putInt(16, count);
+        head.putInt(20, HEADER_SIZE);
+        head.putInt(24, stringPosition);
+        head.putInt(28, user.length);
+        stringPosition = putBytes(head, stringPosition, user);
+        head.putInt(32, stringPosition);
+        head.putInt(36, password.length);
+        stringPosition = putBytes(head, stringPosition, password);
+        head.putInt(40, parameters.containsKey(ConfigurationParameters.THREADS) ?
+            (Integer) parameters.get(ConfigurationParameters.THREADS) : 0);
+        head.putInt(44, parameters.containsKey(ConfigurationParameters.SHARDS) ?
+            (Integer) parameters.get(ConfigurationParameters.SHARDS) : 0);
+        head.putInt(48, parameters.containsKey(ConfigurationParameters.WARMUP) ?
+            (Integer) parameters.get(ConfigurationParameters.WARMUP) : 0);
+
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_SIZE + i * ENTRY_SIZE;
+            head.putInt(entry, stringPosition);
+            head.putInt(entry + 4, keys.get(i).length);
+            stringPosition = putBytes(head, stringPosition, keys.get(i));
+            head.putInt(entry + 8, stringPosition);
+            head.putInt(entry + 12, policies[i].getBlock().length);
+            stringPosition = putBytes(head, stringPosition, policies[i].getBlock());
+            head.putInt(entry + 16, (int) bodyOffsets[i]);
+            head.putInt(entry + 20, (int) bodyLengths[i]);
+            head.putInt(entry + 24, typeCodes[i]);
+            head.putInt(entry + 28, (int) Math.min(policies[i].getExpiresSeconds(), Integer.MAX_VALUE));
+        }
+
+        try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (head.hasRemaining()) {
+                out.write(head);
+            }
+            for (int i = 0; i < count; i++) {
+                String query = queries.get(keys.get(i));
+                if (typeCodes[i] == TYPE_INPLACE) {
+                    out.write(ByteBuffer.wrap(values.get(query).getBytes(StandardCharsets.UTF_8)), bodyOffsets[i]);
+                }
+                else {
+                    try (FileChannel in = new RandomAccessFile(values.get(query), "r").getChannel()) {
+                        long transferred = 0;
+                        while (transferred < bodyLengths[i]) {
+                            transferred += in.transferTo(transferred, bodyLengths[i] - transferred,
+                                out.position(bodyOffsets[i] + transferred));
+                        }
+                    }
+                }
+            }
+            if (out.size() < end) {
+                out.write(ByteBuffer.allocate(1), end - 1);
+            }
+        }
+    }
+
+    /**
+     * Двоичный поиск запроса в индексе. Запрос сравнивается с ключами индекса побайтно
+     * в кодировке UTF-8 без создания промежуточных массивов.
+     *
+     * @param query строка запроса пользователя.
+     * @return возвращает номер записи в индексе, либо -1 если запрос не найден.
+     */
+    int find(String query) {
+        int low = 0;
+        int high = routeCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = indexOffset + middle * ENTRY_SIZE;
+            int result = compareUtf8(buffer, buffer.getInt(entry), buffer.getInt(entry + 4), query);
+            if (result < 0) {
+                low = middle + 1;
+            }
+            else if (result > 0) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Возвращает запрос записи индекса.
+     */
+    String getQuery(int route) {
+        int entry = indexOffset + route * ENTRY_SIZE;
+        return getString(buffer.getInt(entry), buffer.getInt(entry + 4));
+    }
+
+    int getType(int route) {
+        return buffer.getInt(indexOffset + route * ENTRY_SIZE + 24);
+    }
+
+    /**
+     * Возвращает заранее сформированный набор http заголовков ответа.
+     */
+    HeaderPolicy getHeaderPolicy(int route) {
+        HeaderPolicy result = headerPolicies[route];
+        if (result == null) {
+            int entry = indexOffset + route * ENTRY_SIZE;
+            byte[] block = getBytes(buffer.getInt(entry + 8), buffer.getInt(entry + 12));
+            result = HeaderPolicy.parse(new String(block, StandardCharsets.ISO_8859_1), buffer.getInt(entry + 28));
+            headerPolicies[route] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает http заголовки ответа в виде пар имя-значение.
+     */
+    String[] getHeaders(int route) {
+        return getHeaderPolicy(route).getPairs();
+    }
+
+    /**
+     * Возвращает тело ответа - срез отображенного в память файла, доступный только для чтения.
+     */
+    ByteBuffer getBody(int route) {
+        int entry = indexOffset + route * ENTRY_SIZE;
+        ByteBuffer body = buffer.duplicate();
+        int offset = buffer.getInt(entry + 16);
+        body.position(offset);
+        body.limit(offset + buffer.getInt(entry + 20));
+        return body.slice();
+    }
+
+    int getRouteCount() {
+        return routeCount;
+    }
+
+    /**
+     * Восстанавливает параметры сервера, сохраненные в заголовке файла.
+     */
+    Map<ConfigurationParameters, Object> getParameters() {
+        Map<ConfigurationParameters, Object> parameters = new HashMap<>(4);
+        parameters.put(ConfigurationParameters.IS_ANY_HAS_ACCESS, (buffer.getInt(8) & FLAG_ANY_HAS_ACCESS) != 0);
+        parameters.put(ConfigurationParameters.PORT, buffer.getInt(12));
+        parameters.put(ConfigurationParameters.USER, getString(buffer.getInt(24), buffer.getInt(28)));
+        parameters.put(ConfigurationParameters.PASSWORD, getString(buffer.getInt(32), buffer.getInt(36)));
+        if (buffer.getInt(40) > 0) {
+            parameters.put(ConfigurationParameters.THREADS, buffer.getInt(40));
+        }
+        if (buffer.getInt(44) > 0) {
+            parameters.put(ConfigurationParameters.SHARDS, buffer.getInt(44));
+        }
+        if (buffer.getInt(48) > 0) {
+            parameters.put(ConfigurationParameters.WARMUP, buffer.getInt(48));
+        }
+        return parameters;
+    }
+
+    private String getString(int offset, int length) {
+        return new String(getBytes(offset, length), StandardCharsets.UTF_8);
+    }
+
+    private byte[] getBytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] bytesOf(String string) {
+        return string == null ? new byte[0] : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int putBytes(ByteBuffer buffer, int position, byte[] bytes) {
+        ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        target.put(bytes);
+        return position + bytes.length;
+    }
+
+    private static long align(long position, int alignment) {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+
+    /**
+     * Лексикографическое сравнение массивов байт как беззнаковых чисел (порядок совпадает
+     * с порядком кодовых точек Unicode для строк в UTF-8).
+     */
+    static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int result = (a[i] & 0xff) - (b[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Сравнивает байты UTF-8 из буфера со строкой, кодируя строку "на лету" (без создания
+     * промежуточных массивов).
+     *
+     * @return отрицательное число, ноль либо положительное число, если байты из буфера
+     *         соответственно меньше, равны либо больше строки.
+     */
+    static int compareUtf8(ByteBuffer buffer, int offset, int length, CharSequence string) {
+        int position = 0;
+        for (int i = 0; i < string.length(); i++) {
+            int codePoint = Character.codePointAt(string, i);
+            if (Character.isSupplementaryCodePoint(codePoint)) {
+                i++;
+            }
+            int size = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            for (int j = 0; j < size; j++) {
+                if (position == length) {
+                    return -1;
+                }
+                int result = (buffer.get(offset + position++) & 0xff) - utf8Byte(codePoint, size, j);
+                if (result != 0) {
+                    return result;
+                }
+            }
+        }
+        return position == length ? 0 : 1;
+    }
+
+    /**
+     * Возвращает байт с номером index из UTF-8 представления кодовой точки длиной size байт.
+     */
+    private static int utf8Byte(int codePoint, int size, int index) {
+        if (size == 1) {
+            return codePoint;
+        }
+        int shift = 6 * (size - 1 - index);
+        if (index == 0) {
+            return ((0xff00 >> size) & 0xff) | (codePoint >> shift);
+        }
+        return 0x80 | ((codePoint >> shift) & 0x3f);
+    }
+}
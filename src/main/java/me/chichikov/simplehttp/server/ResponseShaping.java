@@ -0,0 +1,158 @@
+package me.chichikov.simplehttp.server;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ResponseShaping - параметры "медленного сервиса" для запроса: задержка перед ответом
+ * (постоянная либо случайная с заданным распределением), ограничение скорости передачи
+ * тела ответа и вероятность ответа с кодом ошибки. Используется для имитации
+ * вышестоящих сервисов при нагрузочном тестировании. Поддерживаемые распределения задержки:<br />
+ * - FIXED - постоянная задержка;<br />
+ * - UNIFORM - равномерное распределение на отрезке [min, max];<br />
+ * - NORMAL - нормальное распределение (mean, deviation), отрицательные значения отсекаются;<br />
+ * - TABLE - таблица перцентилей, значения между узлами интерполируются линейно.
+ *
+ * @since 1.7
+ */
+class ResponseShaping {
+
+    enum Distribution {
+        FIXED, UNIFORM, NORMAL, TABLE
+    }
+
+    private final Distribution distribution;
+
+    /**
+     * Параметры распределения: FIXED - {задержка}, UNIFORM - {min, max}, NORMAL - {mean, deviation},
+     * TABLE - пары {перцентиль, задержка}, упорядоченные по перцентилю.
+     */
+    private final double[] parameters;
+
+    /**
+     * Скорость передачи тела ответа в байтах в секунду, 0 - без ограничения.
+     */
+    private final long bandwidth;
+    private final double errorRate;
+    private final int errorStatus;
+
+    /**
+     * @param distribution распределение задержки (null - без задержки).
+     * @param parameters   параметры распределения в миллисекундах (см. поле parameters).
+     * @param bandwidth    скорость передачи тела ответа в байтах в секунду, 0 - без ограничения.
+     * @param errorRate    вероятность ответа с кодом errorStatus (от 0 до 1).
+     * @param errorStatus  код ответа при внесенной ошибке.
+     * @throws IllegalArgumentException возбуждается при некорректных параметрах.
+     */
+    ResponseShaping(Distribution distribution, double[] parameters, long bandwidth, double errorRate, int errorStatus) {
+        this.distribution = distribution == null ? Distribution.FIXED : distribution;
+        this.parameters = distribution == null ? new double[]{0} : parameters.clone();
+        this.bandwidth = bandwidth;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        if ((bandwidth < 0) || !(errorRate >= 0) || (errorRate > 1) || (errorStatus < 100) || (errorStatus > 599)) {
+            throw new IllegalArgumentException();
+        }
+        for (double parameter : this.parameters) {
+            if (!(parameter >= 0)) {
+                throw new IllegalArgumentException();
+            }
+        }
+        switch (this.distribution) {
+            case FIXED:
+                checkLength(1);
+                break;
+            case UNIFORM:
+                checkLength(2);
+                if (this.parameters[0] > this.parameters[1]) {
+                    throw new IllegalArgumentException();
+                }
+                break;
+            case NORMAL:
+                checkLength(2);
+                break;
+            case TABLE:
+                if ((this.parameters.length < 2) || (this.parameters.length % 2 != 0)) {
+                    throw new IllegalArgumentException();
+                }
+                for (int i = 0; i < this.parameters.length; i += 2) {
+                    if ((this.parameters[i] > 100) || ((i > 0) && ((this.parameters[i] <= this.parameters[i - 2]) ||
+                        (this.parameters[i + 1] < this.parameters[i - 1])))) {
+                        throw new IllegalArgumentException();
+                    }
+                }
+                break;
+        }
+    }
+
+    private void checkLength(int length) {
+        if (parameters.length != length) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Возвращает случайную задержку ответа в миллисекундах.
+     */
+    long nextDelay(Random random) {
+        switch (distribution) {
+            case UNIFORM:
+                return Math.round(parameters[0] + random.nextDouble() * (parameters[1] - parameters[0]));
+            case NORMAL:
+                return Math.max(0, Math.round(parameters[0] + random.nextGaussian() * parameters[1]));
+            case TABLE:
+                return Math.round(percentile(random.nextDouble() * 100));
+            default:
+                return Math.round(parameters[0]);
+        }
+    }
+
+    /**
+     * Значение задержки для перцентиля из таблицы. Ниже первого узла значение интерполируется
+     * от нуля (нулевой перцентиль), выше последнего узла - равно значению последнего узла.
+     */
+    double percentile(double percentile) {
+        double previousPercentile = 0;
+        double previousValue = 0;
+        for (int i = 0; i < parameters.length; i += 2) {
+            if (percentile <= parameters[i]) {
+                if (parameters[i] == previousPercentile) {
+                    return parameters[i + 1];
+                }
+                return previousValue + (parameters[i + 1] - previousValue) *
+                    (percentile - previousPercentile) / (parameters[i] - previousPercentile);
+            }
+            previousPercentile = parameters[i];
+            previousValue = parameters[i + 1];
+        }
+        return previousValue;
+    }
+
+    /**
+     * Определяет, должен ли очередной ответ быть заменен ошибкой.
+     */
+    boolean nextIsError(Random random) {
+        return (errorRate > 0) && (random.nextDouble() < errorRate);
+    }
+
+    Distribution getDistribution() {
+        return distribution;
+    }
+
+    long getBandwidth() {
+        return bandwidth;
+    }
+
+    double getErrorRate() {
+        return errorRate;
+    }
+
+    int getErrorStatus() {
+        return errorStatus;
+    }
+
+    @Override
+    public String toString() {
+        return distribution + Arrays.toString(parameters) + ", " + bandwidth + " B/s, errors " + errorRate;
+    }
+}
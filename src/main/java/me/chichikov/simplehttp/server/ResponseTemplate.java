@@ -0,0 +1,496 @@
+package me.chichikov.simplehttp.server;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ResponseTemplate - шаблон ответа типа template. Шаблон компилируется при загрузке
+ * настроек в последовательность литеральных фрагментов (массивов байт) и подстановок.
+ * Поддерживаются подстановки:<br />
+ * - {{path.name}} - сегмент пути запроса, заданный в запросе шаблона как {name}
+ * (например /orders/{id});<br />
+ * - {{query.name}} - значение параметра строки запроса.<br />
+ * Значения подстановок декодируются и экранируются в соответствии с content-type
+ * ответа (xml/html либо json) непосредственно в буфер ответа, без промежуточных строк.
+ *
+ * @since 1.7
+ */
+class ResponseTemplate {
+
+    enum Escaping {
+        NONE,
+        XML,
+        JSON
+    }
+
+    private static final int LITERAL = 0;
+    private static final int PATH = 1;
+    private static final int QUERY = 2;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Буфер ответа и смещения сегментов пути, переиспользуемые потоком-обработчиком.
+     */
+    private static final ThreadLocal<Output> OUTPUT = new ThreadLocal<Output>() {
+        @Override
+        protected Output initialValue() {
+            return new Output();
+        }
+    };
+
+    private final String query;
+    private final String contentType;
+    private final Escaping escaping;
+
+    /**
+     * Сегменты пути запроса: литерал, либо null для сегмента-подстановки.
+     */
+    private final String[] pathSegments;
+
+    private final int[] kinds;
+    private final byte[][] literals;
+    private final int[] pathIndexes;
+    private final String[] queryNames;
+
+    private ResponseTemplate(String query, String contentType, String[] pathSegments, List<Object[]> parts) {
+        this.query = query;
+        this.contentType = contentType;
+        this.escaping = escapingFor(contentType);
+        this.pathSegments = pathSegments;
+        kinds = new int[parts.size()];
+        literals = new byte[parts.size()][];
+        pathIndexes = new int[parts.size()];
+        queryNames = new String[parts.size()];
+        for (int i = 0; i < parts.size(); i++) {
+            Object[] part = parts.get(i);
+            kinds[i] = (Integer) part[0];
+            switch (kinds[i]) {
+                case LITERAL:
+                    literals[i] = (byte[]) part[1];
+                    break;
+                case PATH:
+                    pathIndexes[i] = (Integer) part[1];
+                    break;
+                case QUERY:
+                    queryNames[i] = (String) part[1];
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Компилирует шаблон из файла. Content-type ответа определяется расширением файла.
+     *
+     * @param query запрос, с которым ассоциирован шаблон, например /orders/{id}.
+     * @param path  путь к файлу шаблона.
+     * @throws IllegalArgumentException возбуждается при некорректном запросе либо
+     *                                  при подстановке, не определенной в запросе.
+     */
+    static ResponseTemplate compile(String query, String path) throws IOException {
+        return compile(query, Files.readAllBytes(Paths.get(path)), SimpleHttpHandler.extractContentTypeByExtension(path));
+    }
+
+    static ResponseTemplate compile(String query, byte[] body, String contentType) {
+        if (!query.startsWith("/")) {
+            throw new IllegalArgumentException("Template query must start with \"/\": " + query);
+        }
+        String[] pathSegments = query.equals("/") ? new String[0] : query.substring(1).split("/", -1);
+        List<String> captureNames = new ArrayList<>();
+        for (int i = 0; i < pathSegments.length; i++) {
+            String segment = pathSegments[i];
+            if (segment.startsWith("{") && segment.endsWith("}") && (segment.length() > 2)) {
+                captureNames.add(segment.substring(1, segment.length() - 1));
+                pathSegments[i] = null;
+            }
+            else {
+                captureNames.add(null);
+            }
+        }
+
+        List<Object[]> parts = new ArrayList<>();
+        int literalStart = 0;
+        int position = 0;
+        while (position < body.length - 1) {
+            if ((body[position] == '{') && (body[position + 1] == '{')) {
+                int end = indexOf(body, position + 2);
+                if (end < 0) {
+                    break;
+                }
+                String placeholder = new String(body, position + 2, end - position - 2, StandardCharsets.UTF_8).trim();
+                if (position > literalStart) {
+                    parts.add(new Object[]{LITERAL, copyOfRange(body, literalStart, position)});
+                }
+                if (placeholder.startsWith("path.") && captureNames.contains(placeholder.substring(5))) {
+                    parts.add(new Object[]{PATH, captureNames.indexOf(placeholder.substring(5))});
+                }
+                else if (placeholder.startsWith("query.") && (placeholder.length() > 6)) {
+                    parts.add(new Object[]{QUERY, placeholder.substring(6)});
+                }
+                else {
+                    throw new IllegalArgumentException("Unknown template placeholder: {{" + placeholder + "}}");
+                }
+                position = end + 2;
+                literalStart = position;
+            }
+            else {
+                position++;
+            }
+        }
+        if (body.length > literalStart) {
+            parts.add(new Object[]{LITERAL, copyOfRange(body, literalStart, body.length)});
+        }
+        return new ResponseTemplate(query, contentType, pathSegments, parts);
+    }
+
+    /**
+     * Проверяет соответствие пути запроса шаблону. Смещения сегментов-подстановок сохраняются
+     * в буфере текущего потока для последующего вызова render().
+     *
+     * @param rawPath путь запроса в исходном (не декодированном) виде.
+     */
+    boolean matches(String rawPath) {
+        if (rawPath == null) {
+            return false;
+        }
+        int[] captures = OUTPUT.get().captures(pathSegments.length);
+        int position = 0;
+        for (int i = 0; i < pathSegments.length; i++) {
+            if ((position >= rawPath.length()) || (rawPath.charAt(position) != '/')) {
+                return false;
+            }
+            position++;
+            int end = rawPath.indexOf('/', position);
+            if (end < 0) {
+                end = rawPath.length();
+            }
+            String literal = pathSegments[i];
+            if (literal != null) {
+                if ((end - position != literal.length()) || !rawPath.regionMatches(position, literal, 0, literal.length())) {
+                    return false;
+                }
+            }
+            else if (end == position) {
+                return false;
+            }
+            captures[2 * i] = position;
+            captures[2 * i + 1] = end;
+            position = end;
+        }
+        return (pathSegments.length == 0) ? rawPath.equals("/") : (position == rawPath.length());
+    }
+
+    /**
+     * Формирует тело ответа в буфере текущего потока. Перед вызовом необходимо успешно
+     * вызвать matches() с путем того же запроса.
+     *
+     * @return возвращает буфер, содержащий тело ответа.
+     */
+    Output render(URI uri) {
+        Output output = OUTPUT.get();
+        output.reset();
+        String rawPath = uri.getRawPath();
+        String rawQuery = uri.getRawQuery();
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case LITERAL:
+                    output.write(literals[i], 0, literals[i].length);
+                    break;
+                case PATH:
+                    int segment = pathIndexes[i];
+                    appendDecoded(output, rawPath, output.captures[2 * segment], output.captures[2 * segment + 1], false);
+                    break;
+                case QUERY:
+                    appendQueryParameter(output, rawQuery, queryNames[i]);
+                    break;
+            }
+        }
+        return output;
+    }
+
+    private void appendQueryParameter(Output output, String rawQuery, String name) {
+        if (rawQuery == null) {
+            return;
+        }
+        int start = 0;
+        while (start <= rawQuery.length()) {
+            int end = rawQuery.indexOf('&', start);
+            if (end < 0) {
+                end = rawQuery.length();
+            }
+            if ((end - start > name.length()) && (rawQuery.charAt(start + name.length()) == '=') &&
+                rawQuery.regionMatches(start, name, 0, name.length())) {
+                appendDecoded(output, rawQuery, start + name.length() + 1, end, true);
+                return;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Декодирует %XX последовательности (и '+' в строке запроса) фрагмента source
+     * и записывает полученные байты в буфер, экранируя их. Символы вне ASCII записываются
+     * в UTF-8. Некорректные %XX последовательности и последовательности байт, не являющиеся
+     * UTF-8, заменяются символом U+FFFD.
+     */
+    private void appendDecoded(Output output, String source, int start, int end, boolean isQuery) {
+        int remaining = 0;
+        int codePoint = 0;
+        int sequenceStart = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            int value;
+            if (c == '%') {
+                int high = i + 2 < end ? Character.digit(source.charAt(i + 1), 16) : -1;
+                int low = i + 2 < end ? Character.digit(source.charAt(i + 2), 16) : -1;
+                if ((high < 0) || (low < 0)) {
+                    value = -1;
+                }
+                else {
+                    value = (high << 4) | low;
+                    i += 2;
+                }
+            }
+            else if (isQuery && (c == '+')) {
+                value = ' ';
+            }
+            else if (c < 0x80) {
+                value = c;
+            }
+            else {
+                if (remaining > 0) {
+                    output.truncate(sequenceStart);
+                    appendReplacement(output);
+                    remaining = 0;
+                }
+                if (Character.isHighSurrogate(c) && (i + 1 < end) && Character.isLowSurrogate(source.charAt(i + 1))) {
+                    appendCodePoint(output, Character.toCodePoint(c, source.charAt(++i)));
+                }
+                else if (Character.isSurrogate(c)) {
+                    appendReplacement(output);
+                }
+                else {
+                    appendCodePoint(output, c);
+                }
+                continue;
+            }
+
+            if (remaining > 0) {
+                if ((value & 0xc0) == 0x80) {
+                    output.write(value);
+                    codePoint = (codePoint << 6) | (value & 0x3f);
+                    if ((--remaining == 0) && !isValidCodePoint(codePoint, output.getSize() - sequenceStart)) {
+                        output.truncate(sequenceStart);
+                        appendReplacement(output);
+                    }
+                    continue;
+                }
+                output.truncate(sequenceStart);
+                appendReplacement(output);
+                remaining = 0;
+            }
+            if ((value >= 0) && (value < 0x80)) {
+                appendEscaped(output, value);
+            }
+            else if ((value >= 0xc2) && (value <= 0xf4)) {
+                remaining = value >= 0xf0 ? 3 : (value >= 0xe0 ? 2 : 1);
+                codePoint = value & (0x7f >> (remaining + 1));
+                sequenceStart = output.getSize();
+                output.write(value);
+            }
+            else {
+                appendReplacement(output);
+            }
+        }
+        if (remaining > 0) {
+            output.truncate(sequenceStart);
+            appendReplacement(output);
+        }
+    }
+
+    /**
+     * Проверяет, что последовательность UTF-8 длиной length задает допустимый символ
+     * в кратчайшей форме.
+     */
+    private static boolean isValidCodePoint(int codePoint, int length) {
+        switch (length) {
+            case 3:
+                return (codePoint >= 0x800) && ((codePoint < 0xd800) || (codePoint > 0xdfff));
+            case 4:
+                return (codePoint >= 0x10000) && (codePoint <= 0x10ffff);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Записывает символ вне ASCII в UTF-8 (экранирование таких символов не требуется).
+     */
+    private static void appendCodePoint(Output output, int codePoint) {
+        if (codePoint < 0x800) {
+            output.write(0xc0 | (codePoint >> 6));
+        }
+        else {
+            if (codePoint < 0x10000) {
+                output.write(0xe0 | (codePoint >> 12));
+            }
+            else {
+                output.write(0xf0 | (codePoint >> 18));
+                output.write(0x80 | ((codePoint >> 12) & 0x3f));
+            }
+            output.write(0x80 | ((codePoint >> 6) & 0x3f));
+        }
+        output.write(0x80 | (codePoint & 0x3f));
+    }
+
+    private static void appendReplacement(Output output) {
+        output.write(0xef);
+        output.write(0xbf);
+        output.write(0xbd);
+    }
+
+    private void appendEscaped(Output output, int value) {
+        switch (escaping) {
+            case XML:
+                switch (value) {
+                    case '&':
+                        output.writeAscii("&amp;");
+                        return;
+                    case '<':
+                        output.writeAscii("&lt;");
+                        return;
+                    case '>':
+                        output.writeAscii("&gt;");
+                        return;
+                    case '"':
+                        output.writeAscii("&quot;");
+                        return;
+                    case '\'':
+                        output.writeAscii("&apos;");
+                        return;
+                }
+                if ((value < 0x20) && (value != '\t') && (value != '\n') && (value != '\r')) {
+                    return;
+                }
+                break;
+            case JSON:
+                if ((value == '"') || (value == '\\')) {
+                    output.write('\\');
+                }
+                else if (value < 0x20) {
+                    output.writeAscii("\\u00");
+                    output.write(HEX[value >> 4]);
+                    output.write(HEX[value & 0xf]);
+                    return;
+                }
+                break;
+        }
+        output.write(value);
+    }
+
+    static Escaping escapingFor(String contentType) {
+        if (contentType == null) {
+            return Escaping.NONE;
+        }
+        if (contentType.contains("xml") || contentType.contains("html")) {
+            return Escaping.XML;
+        }
+        if (contentType.contains("json")) {
+            return Escaping.JSON;
+        }
+        return Escaping.NONE;
+    }
+
+    private static int indexOf(byte[] body, int from) {
+        for (int i = from; i < body.length - 1; i++) {
+            if ((body[i] == '}') && (body[i + 1] == '}')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] copyOfRange(byte[] source, int from, int to) {
+        byte[] result = new byte[to - from];
+        System.arraycopy(source, from, result, 0, result.length);
+        return result;
+    }
+
+    String getQuery() {
+        return query;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    Escaping getEscaping() {
+        return escaping;
+    }
+
+    /**
+     * Переиспользуемый буфер ответа. Растет по мере необходимости и не уменьшается.
+     */
+    static class Output {
+        private byte[] bytes = new byte[1024];
+        private int size;
+        private int[] captures = new int[16];
+
+        int[] captures(int segments) {
+            if (captures.length < 2 * segments) {
+                captures = new int[2 * segments];
+            }
+            return captures;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        /**
+         * Отбрасывает байты, записанные после указанного размера.
+         */
+        void truncate(int size) {
+            this.size = size;
+        }
+
+        void write(int value) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) value;
+        }
+
+        void write(byte[] source, int offset, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeAscii(String ascii) {
+            ensureCapacity(size + ascii.length());
+            for (int i = 0; i < ascii.length(); i++) {
+                bytes[size++] = (byte) ascii.charAt(i);
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                byte[] grown = new byte[Math.max(capacity, bytes.length * 2)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        int getSize() {
+            return size;
+        }
+    }
+}
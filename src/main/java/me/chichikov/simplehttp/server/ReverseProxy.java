@@ -0,0 +1,595 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReverseProxy - обработка ответов типа proxy. Запрос пересылается вышестоящему серверу,
+ * адрес которого задан значением ответа (например http://127.0.0.1:8080/internal). Если
+ * запрос ответа оканчивается на "/*" (например /api/*), пересылаются все запросы с данным
+ * префиксом, остаток пути добавляется к пути вышестоящего сервера.<br />
+ * Для каждого вышестоящего сервера используется отдельный ограниченный пул keep-alive
+ * соединений (UpstreamPool). Тело ответа передается клиенту по мере чтения, без полной
+ * буферизации; кэшируемые ответы (Cache-Control: max-age) одновременно сохраняются
+ * в ProxyCache, если их размер не превышает maxEntrySize.<br />
+ * Пересылаются только GET запросы (SimpleHttpHandler не передает прокси запросы с другими
+ * методами), тело запроса не передается. Заголовок Authorization (учетные данные
+ * пользователя этого сервера), hop-by-hop заголовки, а также заголовки, перечисленные
+ * в заголовке Connection запроса (RFC 7230, 6.1), вышестоящему серверу не передаются. Кэш является общим для всех пользователей, поэтому запросы с заголовками
+ * Authorization либо Cookie и ответы с заголовком Set-Cookie в нем не сохраняются и из него
+ * не выдаются (RFC 7234, 3.2).
+ *
+ * @since 1.7
+ */
+class ReverseProxy {
+
+    /**
+     * Hop-by-hop заголовки, не передающиеся через прокси, а также заголовки, которые
+     * формирует сам сервер.
+     */
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<>(Arrays.asList(
+        "connection", "keep-alive", "proxy-connection", "proxy-authenticate", "proxy-authorization",
+        "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length", "date"));
+
+    /**
+     * Заголовки запроса, не передающиеся вышестоящему серверу в дополнение к SKIPPED_HEADERS.
+     */
+    private static final Set<String> SKIPPED_REQUEST_HEADERS = new HashSet<>(Arrays.asList("authorization"));
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    /**
+     * Ответ типа proxy: соответствие запросов пользователя адресу вышестоящего сервера.
+     */
+    static class Route {
+        private final String query;
+        private final String prefix;
+        private final boolean isPrefix;
+        private final String basePath;
+        private final String hostHeader;
+        private final UpstreamPool pool;
+
+        Route(String query, URI upstream, UpstreamPool pool) {
+            this.query = query;
+            isPrefix = query.endsWith("/*");
+            prefix = isPrefix ? query.substring(0, query.length() - 2) : query;
+            String path = upstream.getRawPath() == null ? "" : upstream.getRawPath();
+            basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+            hostHeader = upstream.getPort() < 0 ? upstream.getHost() : upstream.getHost() + ":" + upstream.getPort();
+            this.pool = pool;
+        }
+
+        /**
+         * Возвращает запрос из настроек, которым задан маршрут.
+         */
+        String getQuery() {
+            return query;
+        }
+
+        boolean matches(String rawPath) {
+            if (!isPrefix) {
+                return rawPath.equals(prefix);
+            }
+            return rawPath.startsWith(prefix) &&
+                ((rawPath.length() == prefix.length()) || (rawPath.charAt(prefix.length()) == '/'));
+        }
+
+        /**
+         * Формирует путь и строку запроса к вышестоящему серверу.
+         */
+        String getTarget(URI uri) {
+            StringBuilder target = new StringBuilder(basePath);
+            if (isPrefix) {
+                target.append(uri.getRawPath(), prefix.length(), uri.getRawPath().length());
+            }
+            if (target.length() == 0) {
+                target.append('/');
+            }
+            if (uri.getRawQuery() != null) {
+                target.append('?').append(uri.getRawQuery());
+            }
+            return target.toString();
+        }
+
+        String getHostHeader() {
+            return hostHeader;
+        }
+    }
+
+    /**
+     * Буфер, в который сохраняется тело кэшируемого ответа.
+     */
+    private static class Capture extends ByteArrayOutputStream {
+        private boolean isOverflowed = false;
+
+        Capture(int size) {
+            super(size);
+        }
+    }
+
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, UpstreamPool> pools = new HashMap<>();
+    private final ProxyCache cache;
+    private final int maxEntrySize;
+    private final int readTimeout;
+    private final int maxConnections;
+    private final int connectTimeout;
+    private final int idleTimeout;
+
+    /**
+     * Потоки фонового обновления устаревших записей кэша.
+     */
+    private final ExecutorService revalidator = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "proxy-revalidator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    ReverseProxy(int maxConnections, int connectTimeout, int readTimeout, int idleTimeout, int cacheEntries,
+                 int maxEntrySize) {
+        this.maxConnections = maxConnections;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.idleTimeout = idleTimeout;
+        this.maxEntrySize = maxEntrySize;
+        this.cache = cacheEntries > 0 ? new ProxyCache(cacheEntries) : null;
+    }
+
+    /**
+     * Добавляет ответ типа proxy.
+     *
+     * @param query    запрос пользователя, либо префикс вида /api/*.
+     * @param upstream адрес вышестоящего сервера (схема http либо https).
+     * @throws IllegalArgumentException возбуждается при некорректном адресе.
+     */
+    void addRoute(String query, String upstream) throws IllegalArgumentException {
+        URI uri = URI.create(upstream.trim());
+        boolean isSecure = "https".equalsIgnoreCase(uri.getScheme());
+        if (!(isSecure || "http".equalsIgnoreCase(uri.getScheme())) || (uri.getHost() == null)) {
+            throw new IllegalArgumentException("Invalid upstream: \"" + upstream + "\".");
+        }
+        int port = uri.getPort() > 0 ? uri.getPort() : (isSecure ? 443 : 80);
+        String poolKey = uri.getScheme().toLowerCase() + "://" + uri.getHost() + ":" + port;
+        UpstreamPool pool = pools.get(poolKey);
+        if (pool == null) {
+            pool = new UpstreamPool(uri.getHost(), port, isSecure, maxConnections, connectTimeout, readTimeout, idleTimeout);
+            pools.put(poolKey, pool);
+        }
+        routes.add(new Route(query, uri, pool));
+    }
+
+    /**
+     * Ищет ответ типа proxy, которому соответствует путь запроса.
+     *
+     * @return возвращает первый подходящий ответ либо null.
+     */
+    Route find(String rawPath) {
+        if (rawPath == null) {
+            return null;
+        }
+        for (Route route : routes) {
+            if (route.matches(rawPath)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Пересылает GET запрос вышестоящему серверу и передает ответ клиенту. Свежие записи кэша
+     * отдаются без обращения к вышестоящему серверу, устаревшие (в пределах
+     * stale-while-revalidate) отдаются с одновременным фоновым обновлением. Запросы
+     * с учетными данными (Authorization, Cookie) кэш не используют.
+     */
+    void forward(HttpExchange exchange, Route route) throws IOException {
+        String target = route.getTarget(exchange.getRequestURI());
+        Headers requestHeaders = exchange.getRequestHeaders();
+        if ((cache == null) ||
+            requestHeaders.containsKey("Authorization") || requestHeaders.containsKey("Cookie")) {
+            fetch(route, target, requestHeaders, exchange, false);
+            return;
+        }
+
+        String key = route.getHostHeader() + target;
+        long now = System.nanoTime();
+        ProxyCache.CachedResponse entry = cache.get(key);
+        if ((entry != null) && entry.isFresh(now)) {
+            writeCached(exchange, entry, now);
+            return;
+        }
+        if ((entry != null) && entry.isRevalidatable(now)) {
+            writeCached(exchange, entry, now);
+            revalidate(route, target, key, requestHeaders);
+            return;
+        }
+
+        ProxyCache.Flight flight = cache.lead(key);
+        if (flight != null) {
+            ProxyCache.CachedResponse fetched = null;
+            try {
+                fetched = fetch(route, target, requestHeaders, exchange, true);
+            }
+            finally {
+                cache.complete(key, flight, fetched);
+            }
+            return;
+        }
+        flight = cache.getFlight(key);
+        if ((flight != null) && ((entry = flight.await(readTimeout)) != null)) {
+            writeCached(exchange, entry, System.nanoTime());
+            return;
+        }
+        fetch(route, target, requestHeaders, exchange, false);
+    }
+
+    /**
+     * Запускает фоновое обновление записи кэша, если оно еще не выполняется.
+     */
+    private void revalidate(final Route route, final String target, final String key, Headers requestHeaders) {
+        final ProxyCache.Flight flight = cache.lead(key);
+        if (flight == null) {
+            return;
+        }
+        final Headers headers = new Headers();
+        headers.putAll(requestHeaders);
+        revalidator.execute(new Runnable() {
+            @Override
+            public void run() {
+                ProxyCache.CachedResponse fetched = null;
+                try {
+                    fetched = fetch(route, target, headers, null, true);
+                }
+                catch (IOException ignored) {
+                }
+                finally {
+                    cache.complete(key, flight, fetched);
+                }
+            }
+        });
+    }
+
+    /**
+     * Выполняет запрос к вышестоящему серверу. Если exchange не null, ответ передается клиенту
+     * по мере чтения; ошибка соединения до начала передачи ответа превращается в ответ
+     * 502 (504 при истечении времени ожидания).
+     *
+     * @param capture true если кэшируемый ответ следует сохранить.
+     * @return возвращает запись для кэша, либо null если ответ не кэшируется.
+     */
+    private ProxyCache.CachedResponse fetch(Route route, String target, Headers requestHeaders, HttpExchange exchange,
+                                   boolean capture) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            UpstreamPool.Connection connection;
+            try {
+                connection = route.pool.acquire();
+            }
+            catch (IOException e) {
+                return fail(exchange, e);
+            }
+
+            boolean isResponded = false;
+            try {
+                writeRequest(connection.out, route, target, requestHeaders);
+
+                int status;
+                List<String> head;
+                do {
+                    head = readHead(connection.in);
+                    status = parseStatus(head.get(0));
+                } while ((status >= 100) && (status < 200));
+
+                long contentLength = -1;
+                boolean isChunked = false;
+                boolean isKeepAlive = head.get(0).startsWith("HTTP/1.1");
+                String cacheControl = null;
+                boolean hasVary = false;
+                boolean hasCookie = false;
+                List<String> headers = new ArrayList<>();
+                for (int i = 1; i < head.size(); i++) {
+                    String line = head.get(i);
+                    int colon = line.indexOf(':');
+                    if (colon <= 0) {
+                        continue;
+                    }
+                    String name = line.substring(0, colon).trim();
+                    String value = line.substring(colon + 1).trim();
+                    String lowerName = name.toLowerCase();
+                    switch (lowerName) {
+                        case "content-length":
+                            contentLength = Long.parseLong(value);
+                            break;
+                        case "transfer-encoding":
+                            isChunked = value.toLowerCase().contains("chunked");
+                            break;
+                        case "connection":
+                            isKeepAlive = value.equalsIgnoreCase("keep-alive") ||
+                                (isKeepAlive && !value.equalsIgnoreCase("close"));
+                            break;
+                        case "cache-control":
+                            cacheControl = cacheControl == null ? value : cacheControl + ", " + value;
+                            break;
+                        case "vary":
+                            hasVary = true;
+                            break;
+                        case "set-cookie":
+                            hasCookie = true;
+                            break;
+                    }
+                    if (!SKIPPED_HEADERS.contains(lowerName)) {
+                        headers.add(name);
+                        headers.add(value);
+                    }
+                }
+                boolean hasBody = (status != 204) && (status != 304);
+                if (isChunked) {
+                    contentLength = -1;
+                }
+                else if (contentLength < 0) {
+                    isKeepAlive = false;
+                }
+
+                long[] lifetime = (capture && (status == 200) && !hasVary && !hasCookie) ? parseLifetime(cacheControl) : null;
+                Capture captured = ((lifetime != null) && (contentLength <= maxEntrySize)) ?
+                    new Capture(contentLength > 0 ? (int) contentLength : 1024) : null;
+
+                OutputStream out = null;
+                if (exchange != null) {
+                    Headers responseHeaders = exchange.getResponseHeaders();
+                    for (int i = 0; i < headers.size(); i += 2) {
+                        responseHeaders.add(headers.get(i), headers.get(i + 1));
+                    }
+                    isResponded = true;
+                    exchange.sendResponseHeaders(status, !hasBody || (contentLength == 0) ? -1 :
+                        (contentLength > 0 ? contentLength : 0));
+                    out = exchange.getResponseBody();
+                }
+
+                boolean isComplete = !hasBody || copyBody(connection.in, contentLength, isChunked, out, captured);
+                route.pool.release(connection, isComplete && isKeepAlive);
+                if (out != null) {
+                    out.close();
+                    exchange.close();
+                }
+                if ((captured != null) && isComplete && !captured.isOverflowed) {
+                    return new ProxyCache.CachedResponse(status, headers.toArray(new String[headers.size()]),
+                        captured.toByteArray(), System.nanoTime(), lifetime[0], lifetime[1]);
+                }
+                return null;
+            }
+            catch (IOException | RuntimeException e) {
+                route.pool.release(connection, false);
+                if (!isResponded && connection.isReused() && (attempt == 0)) {
+                    continue;
+                }
+                if (isResponded) {
+                    exchange.close();
+                    return null;
+                }
+                return fail(exchange, e);
+            }
+        }
+    }
+
+    private ProxyCache.CachedResponse fail(HttpExchange exchange, Exception e) throws IOException {
+        if (exchange == null) {
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        byte[] message = (e instanceof SocketTimeoutException ? "Upstream timeout." : "Bad gateway.")
+            .getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(e instanceof SocketTimeoutException ? 504 : 502, message.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(message);
+        out.close();
+        exchange.close();
+        return null;
+    }
+
+    private void writeCached(HttpExchange exchange, ProxyCache.CachedResponse entry, long now) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        for (int i = 0; i < entry.headers.length; i += 2) {
+            headers.add(entry.headers[i], entry.headers[i + 1]);
+        }
+        headers.set("Age", String.valueOf(entry.getAgeSeconds(now)));
+        exchange.sendResponseHeaders(entry.status, entry.body.length == 0 ? -1 : entry.body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(entry.body);
+        out.close();
+        exchange.close();
+    }
+
+    /**
+     * Формирует GET запрос к вышестоящему серверу. Заголовки из SKIPPED_HEADERS,
+     * SKIPPED_REQUEST_HEADERS и перечисленные в заголовке Connection запроса не передаются.
+     */
+    private void writeRequest(OutputStream out, Route route, String target, Headers requestHeaders) throws IOException {
+        Set<String> connectionHeaders = new HashSet<>();
+        List<String> connection = requestHeaders.get("Connection");
+        if (connection != null) {
+            for (String value : connection) {
+                for (String token : value.split(",")) {
+                    connectionHeaders.add(token.trim().toLowerCase());
+                }
+            }
+        }
+        StringBuilder request = new StringBuilder(256);
+        request.append("GET ").append(target).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(route.getHostHeader()).append("\r\n");
+        for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+            String name = header.getKey().toLowerCase();
+            if (!SKIPPED_HEADERS.contains(name) && !SKIPPED_REQUEST_HEADERS.contains(name) &&
+                !connectionHeaders.contains(name)) {
+                for (String value : header.getValue()) {
+                    request.append(header.getKey()).append(": ").append(value).append("\r\n");
+                }
+            }
+        }
+        request.append("Connection: keep-alive\r\n\r\n");
+        out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    /**
+     * Читает строку статуса и заголовки ответа.
+     *
+     * @return возвращает список строк, первая из которых - строка статуса.
+     */
+    private static List<String> readHead(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            lines.add(line);
+        }
+        if (lines.isEmpty()) {
+            throw new IOException("Empty upstream response.");
+        }
+        return lines;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("Upstream closed connection.");
+            }
+            if (c != '\r') {
+                if (line.length() == MAX_LINE_LENGTH) {
+                    throw new IOException("Upstream header line is too long.");
+                }
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static int parseStatus(String statusLine) throws IOException {
+        String[] parts = statusLine.split(" ", 3);
+        if ((parts.length < 2) || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid upstream status line: " + statusLine);
+        }
+        return Integer.parseInt(parts[1]);
+    }
+
+    /**
+     * Определяет время жизни ответа по заголовку Cache-Control.
+     *
+     * @return возвращает массив {max-age, stale-while-revalidate} в миллисекундах,
+     *         либо null если ответ не кэшируется.
+     */
+    static long[] parseLifetime(String cacheControl) {
+        if (cacheControl == null) {
+            return null;
+        }
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        long stale = 0;
+        for (String directive : cacheControl.toLowerCase().split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-store") || directive.equals("no-cache") || directive.equals("private")) {
+                return null;
+            }
+            try {
+                if (directive.startsWith("max-age=")) {
+                    maxAge = Long.parseLong(directive.substring(8).trim());
+                }
+                else if (directive.startsWith("s-maxage=")) {
+                    sharedMaxAge = Long.parseLong(directive.substring(9).trim());
+                }
+                else if (directive.startsWith("stale-while-revalidate=")) {
+                    stale = Long.parseLong(directive.substring(23).trim());
+                }
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        long lifetime = sharedMaxAge >= 0 ? sharedMaxAge : maxAge;
+        return lifetime > 0 ? new long[]{lifetime * 1000, stale * 1000} : null;
+    }
+
+    /**
+     * Копирует тело ответа вышестоящего сервера клиенту (если out не null) и в буфер кэша
+     * (если captured не null, пока размер тела не превысит maxEntrySize).
+     *
+     * @return возвращает true, если тело прочитано полностью и соединение сохраняет
+     *         корректное состояние.
+     */
+    private boolean copyBody(InputStream in, long contentLength, boolean isChunked, OutputStream out,
+                             Capture captured) throws IOException {
+        byte[] buffer = new byte[8192];
+        if (isChunked) {
+            long chunkSize;
+            while ((chunkSize = Long.parseLong(readLine(in).split(";", 2)[0].trim(), 16)) > 0) {
+                copy(in, chunkSize, buffer, out, captured);
+                readLine(in);
+            }
+            while (!readLine(in).isEmpty()) {
+                // trailers are dropped
+            }
+            return true;
+        }
+        if (contentLength >= 0) {
+            copy(in, contentLength, buffer, out, captured);
+            return true;
+        }
+        copy(in, Long.MAX_VALUE, buffer, out, captured);
+        return false;
+    }
+
+    private void copy(InputStream in, long length, byte[] buffer, OutputStream out,
+                      Capture captured) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                if (length == Long.MAX_VALUE) {
+                    return;
+                }
+                throw new EOFException("Upstream closed connection.");
+            }
+            if (out != null) {
+                out.write(buffer, 0, read);
+            }
+            if ((captured != null) && !captured.isOverflowed) {
+                if (captured.size() + read <= maxEntrySize) {
+                    captured.write(buffer, 0, read);
+                }
+                else {
+                    captured.isOverflowed = true;
+                    captured.reset();
+                }
+            }
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Закрывает простаивающие соединения всех пулов и останавливает фоновое обновление кэша.
+     */
+    void close() {
+        for (UpstreamPool pool : pools.values()) {
+            pool.close();
+        }
+        revalidator.shutdownNow();
+    }
+
+    boolean hasRoutes() {
+        return !routes.isEmpty();
+    }
+
+    ProxyCache getCache() {
+        return cache;
+    }
+}
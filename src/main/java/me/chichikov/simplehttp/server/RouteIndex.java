@@ -0,0 +1,266 @@
+package me.chichikov.simplehttp.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * RouteIndex - компактный индекс ответов сервера, строящийся при загрузке настроек вместо
+ * пары HashMap (значения и типы ответов). Запросы хранятся в UTF-8 подряд в одном буфере
+ * (в куче либо вне ее) в порядке обхода отображения при построении. Поиск выполняется
+ * по таблице с открытой адресацией, хранящей номера ответов: хеш запроса совпадает
+ * с String.hashCode() (для строки запроса он уже вычислен), найденный ответ проверяется
+ * сравнением байт непосредственно со строкой запроса, без создания промежуточных строк
+ * и массивов. Значения ответов также упакованы в один буфер, типы и прочие атрибуты
+ * ответов хранятся в массивах примитивов: номер ответа - индекс в этих массивах. Накладные
+ * расходы на ответ - около тридцати байт сверх длины запроса и значения в UTF-8.
+ *
+ * @since 1.7
+ */
+class RouteIndex {
+
+    /**
+     * Атрибут ответов, принимающий небольшое число различных значений (например, наборы
+     * http заголовков): для каждого ответа хранится номер значения в таблице значений.
+     */
+    static class Attribute<T> {
+        private final int[] ids;
+        private final List<T> values = new ArrayList<>();
+        private final Map<T, Integer> numbers = new IdentityHashMap<>();
+
+        Attribute(int size) {
+            ids = new int[size];
+            Arrays.fill(ids, -1);
+        }
+
+        /**
+         * Задает значение атрибута ответа. Одинаковые (по ссылке) значения хранятся однократно.
+         */
+        void set(int route, T value) {
+            if (value == null) {
+                ids[route] = -1;
+                return;
+            }
+            Integer number = numbers.get(value);
+            if (number == null) {
+                number = values.size();
+                values.add(value);
+                numbers.put(value, number);
+            }
+            ids[route] = number;
+        }
+
+        /**
+         * Возвращает значение атрибута ответа, либо null.
+         */
+        T get(int route) {
+            return (route < 0) || (ids[route] < 0) ? null : values.get(ids[route]);
+        }
+
+        int getDistinctCount() {
+            return values.size();
+        }
+
+        boolean isEmpty() {
+            return values.isEmpty();
+        }
+    }
+
+    private final int size;
+    private final ByteBuffer keys;
+    private final int[] keyOffsets;
+    private final ByteBuffer values;
+    private final int[] valueOffsets;
+    private final byte[] typeCodes;
+    private final String[] typeNames;
+
+    /**
+     * Хеши запросов (по номеру ответа) и таблица поиска: номер ответа плюс один, 0 - пустая ячейка.
+     */
+    private final int[] hashes;
+    private final int[] slots;
+
+    private RouteIndex(int size, ByteBuffer keys, int[] keyOffsets, ByteBuffer values, int[] valueOffsets,
+                       byte[] typeCodes, String[] typeNames, int[] hashes) {
+        this.size = size;
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.values = values;
+        this.valueOffsets = valueOffsets;
+        this.typeCodes = typeCodes;
+        this.typeNames = typeNames;
+        this.hashes = hashes;
+        int capacity = Integer.highestOneBit((size + size / 3 + 1) * 2 - 1);
+        slots = new int[Math.max(2, capacity)];
+        int mask = slots.length - 1;
+        for (int route = 0; route < size; route++) {
+            int slot = spread(hashes[route]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = route + 1;
+        }
+    }
+
+    /**
+     * Строит индекс по отображениям значений и типов ответов (ключ - запрос).
+     *
+     * @param isDirect если true, запросы и значения размещаются в буферах вне кучи.
+     * @throws IllegalArgumentException возбуждается при более чем 127 различных типах ответов,
+     *                                  либо если размер запросов или значений превышает 2GB.
+     */
+    static RouteIndex build(Map<String, String> valueMap, Map<String, String> typeMap, boolean isDirect) {
+        int count = valueMap.size();
+        byte[][] keyBytes = new byte[count][];
+        String[] queries = new String[count];
+        long keysLength = 0;
+        int i = 0;
+        for (String query : valueMap.keySet()) {
+            queries[i] = query;
+            keyBytes[i] = query.getBytes(StandardCharsets.UTF_8);
+            keysLength += keyBytes[i].length;
+            i++;
+        }
+
+        List<String> typeNames = new ArrayList<>();
+        Map<String, Byte> typeNumbers = new HashMap<>();
+        byte[] typeCodes = new byte[count];
+        int[] hashes = new int[count];
+        int[] keyOffsets = new int[count + 1];
+        int[] valueOffsets = new int[count + 1];
+        byte[][] valueBytes = new byte[count][];
+        long valuesLength = 0;
+        for (i = 0; i < count; i++) {
+            String query = queries[i];
+            String type = typeMap.get(query);
+            Byte code = typeNumbers.get(type);
+            if (code == null) {
+                if (typeNames.size() == Byte.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many response types.");
+                }
+                code = (byte) typeNames.size();
+                typeNames.add(type);
+                typeNumbers.put(type, code);
+            }
+            typeCodes[i] = code;
+            hashes[i] = query.hashCode();
+            valueBytes[i] = valueMap.get(query).getBytes(StandardCharsets.UTF_8);
+            valuesLength += valueBytes[i].length;
+        }
+        if ((keysLength > Integer.MAX_VALUE) || (valuesLength > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("Route index is larger than 2GB.");
+        }
+
+        ByteBuffer keys = isDirect ? ByteBuffer.allocateDirect((int) keysLength) : ByteBuffer.allocate((int) keysLength);
+        ByteBuffer values = isDirect ? ByteBuffer.allocateDirect((int) valuesLength) : ByteBuffer.allocate((int) valuesLength);
+        for (i = 0; i < count; i++) {
+            keyOffsets[i] = keys.position();
+            keys.put(keyBytes[i]);
+            keyBytes[i] = null;
+            valueOffsets[i] = values.position();
+            values.put(valueBytes[i]);
+            valueBytes[i] = null;
+        }
+        keyOffsets[count] = keys.position();
+        valueOffsets[count] = values.position();
+        return new RouteIndex(count, keys, keyOffsets, values, valueOffsets, typeCodes,
+            typeNames.toArray(new String[typeNames.size()]), hashes);
+    }
+
+    /**
+     * Поиск запроса в индексе.
+     *
+     * @param query строка запроса пользователя.
+     * @return возвращает номер ответа, либо -1 если запрос не найден.
+     */
+    int find(CharSequence query) {
+        int hash = hash(query);
+        int mask = slots.length - 1;
+        for (int slot = spread(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int route = slots[slot] - 1;
+            if ((hashes[route] == hash) &&
+                (ResponseBundle.compareUtf8(keys, keyOffsets[route], keyOffsets[route + 1] - keyOffsets[route], query) == 0)) {
+                return route;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Хеш запроса, равный String.hashCode() (для String используется уже вычисленное значение).
+     */
+    private static int hash(CharSequence query) {
+        if (query instanceof String) {
+            return query.hashCode();
+        }
+        int hash = 0;
+        for (int i = 0; i < query.length(); i++) {
+            hash = 31 * hash + query.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Создает атрибут ответов индекса по отображению (ключ - запрос). Значения для запросов,
+     * отсутствующих в индексе, отбрасываются.
+     */
+    <T> Attribute<T> createAttribute(Map<String, T> byQuery) {
+        Attribute<T> attribute = new Attribute<>(size);
+        for (Map.Entry<String, T> entry : byQuery.entrySet()) {
+            int route = find(entry.getKey());
+            if (route >= 0) {
+                attribute.set(route, entry.getValue());
+            }
+        }
+        return attribute;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String getKey(int route) {
+        return decode(keys, keyOffsets[route], keyOffsets[route + 1]);
+    }
+
+    /**
+     * Возвращает тип ответа (inplace, binary, template, proxy и т.д.).
+     */
+    String getType(int route) {
+        return typeNames[typeCodes[route]];
+    }
+
+    String getValue(int route) {
+        return decode(values, valueOffsets[route], valueOffsets[route + 1]);
+    }
+
+    /**
+     * Возвращает значение ответа в UTF-8 - срез буфера значений, доступный только для чтения.
+     */
+    ByteBuffer getValueBytes(int route) {
+        ByteBuffer value = values.asReadOnlyBuffer();
+        value.limit(valueOffsets[route + 1]);
+        value.position(valueOffsets[route]);
+        return value.slice();
+    }
+
+    /**
+     * Возвращает приблизительный объем памяти, занимаемый индексом (в байтах).
+     */
+    long getFootprint() {
+        return keys.capacity() + values.capacity() + 4L * (keyOffsets.length + valueOffsets.length + hashes.length +
+            slots.length) + typeCodes.length;
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer source = buffer.duplicate();
+        source.position(from);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
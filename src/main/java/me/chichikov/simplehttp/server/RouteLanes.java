@@ -0,0 +1,375 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * RouteLanes - полосы обработки запросов: ответы сервера разделены на классы (тег lane
+ * ответа), у каждого класса свой пул потоков с ограниченной очередью, поэтому поток крупных
+ * ответов (например передача файлов) не задерживает дешевые ответы других полос.<br />
+ * Поток, принявший запрос (поток HttpServer либо шарда), только выбирает полосу и передает
+ * ей обмен. Ответы без полосы обрабатываются полосой DEFAULT (число потоков по умолчанию -
+ * параметр THREADS), запросы /live, /ready и отчет REPORT_QUERY - зарезервированной полосой
+ * SYSTEM с потоками повышенного приоритета (в нее можно поместить и служебные ответы).
+ * Если очередь полосы заполнена, запрос отклоняется кодом 503 с заголовком Retry-After.<br />
+ * Для каждой полосы подсчитываются время ожидания в очереди (среднее, p99 с точностью до
+ * степени двойки микросекунд, наибольшее), загрузка потоков и заполнение очереди; отчет
+ * в формате JSON выдается по запросу REPORT_QUERY.
+ *
+ * @since 1.7
+ */
+class RouteLanes implements HttpHandler {
+
+    static final String DEFAULT = "default";
+    static final String SYSTEM = "system";
+    static final String REPORT_QUERY = "/lanes";
+    static final int DEFAULT_QUEUE = 256;
+    static final int SYSTEM_THREADS = 2;
+    static final int SYSTEM_QUEUE = 64;
+
+    private static final byte[] OVERLOADED = "Lane is overloaded.".getBytes(StandardCharsets.UTF_8);
+    private static final int BUCKETS = 40;
+
+    /**
+     * Полоса: пул потоков с ограниченной очередью и статистика ожидания в очереди.
+     */
+    static class Lane {
+        final String name;
+        private int threads;
+        private final int capacity;
+        private ThreadPoolExecutor executor;
+
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        /**
+         * Число ожиданий по степеням двойки микросекунд (ячейка i - менее 2^i мкс).
+         */
+        private final AtomicLongArray waits = new AtomicLongArray(BUCKETS);
+
+        /**
+         * @param threads  число потоков (0 - параметр THREADS сервера).
+         * @param capacity размер очереди.
+         */
+        Lane(String name, int threads, int capacity) {
+            if ((threads < 0) || (capacity < 1)) {
+                throw new IllegalArgumentException("Invalid lane: \"" + name + "\".");
+            }
+            this.name = name;
+            this.threads = threads;
+            this.capacity = capacity;
+        }
+
+        private void start(int defaultThreads, final int priority) {
+            if (threads == 0) {
+                threads = defaultThreads;
+            }
+            final AtomicInteger number = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "lane-" + name + "-" + number.incrementAndGet());
+                    thread.setPriority(priority);
+                    return thread;
+                }
+            });
+            executor.prestartAllCoreThreads();
+        }
+
+        private void stop() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Ставит задачу в очередь полосы.
+         *
+         * @return возвращает false, если очередь заполнена.
+         */
+        boolean execute(final Runnable task) {
+            final long queued = System.nanoTime();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        recordWait(System.nanoTime() - queued);
+                        try {
+                            task.run();
+                        }
+                        finally {
+                            completed.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            accepted.incrementAndGet();
+            return true;
+        }
+
+        private void recordWait(long nanos) {
+            waitNanos.addAndGet(nanos);
+            long max;
+            while ((nanos > (max = maxWaitNanos.get())) && !maxWaitNanos.compareAndSet(max, nanos)) {
+            }
+            long micros = nanos / 1000;
+            waits.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        }
+
+        /**
+         * Возвращает перцентиль времени ожидания в очереди в миллисекундах (верхняя граница
+         * ячейки, в которую попал перцентиль).
+         */
+        double getWaitPercentile(double percentile) {
+            long total = getWaitCount();
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += waits.get(i);
+                if ((count >= rank) && (count > 0)) {
+                    return Math.min((1L << i) / 1000.0, maxWaitNanos.get() / 1e6);
+                }
+            }
+            return 0;
+        }
+
+        double getMeanWait() {
+            long count = getWaitCount();
+            return count == 0 ? 0 : waitNanos.get() / 1e6 / count;
+        }
+
+        private long getWaitCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += waits.get(i);
+            }
+            return count;
+        }
+
+        double getMaxWait() {
+            return maxWaitNanos.get() / 1e6;
+        }
+
+        /**
+         * Загрузка потоков: доля занятых потоков полосы.
+         */
+        double getUtilization() {
+            return threads == 0 ? 0 : (double) getActive() / threads;
+        }
+
+        /**
+         * Насыщение полосы: доля заполнения очереди.
+         */
+        double getSaturation() {
+            return (double) getQueued() / capacity;
+        }
+
+        int getThreads() {
+            return threads;
+        }
+
+        int getCapacity() {
+            return capacity;
+        }
+
+        int getActive() {
+            return executor == null ? 0 : executor.getActiveCount();
+        }
+
+        int getQueued() {
+            return executor == null ? 0 : executor.getQueue().size();
+        }
+
+        long getAccepted() {
+            return accepted.get();
+        }
+
+        long getRejected() {
+            return rejected.get();
+        }
+
+        long getCompleted() {
+            return completed.get();
+        }
+    }
+
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private final Set<String> defined = new HashSet<>();
+    private final Map<String, Lane> assignments = new HashMap<>();
+    private SimpleHttpHandler handler;
+    private RouteIndex.Attribute<Lane> routeLanes;
+    private boolean isRunning;
+
+    RouteLanes() {
+        lanes.put(SYSTEM, new Lane(SYSTEM, SYSTEM_THREADS, SYSTEM_QUEUE));
+        lanes.put(DEFAULT, new Lane(DEFAULT, 0, DEFAULT_QUEUE));
+    }
+
+    /**
+     * Задает полосу (в том числе переопределяет параметры полос DEFAULT и SYSTEM).
+     *
+     * @param threads  число потоков (0 - параметр THREADS сервера).
+     * @param capacity размер очереди.
+     * @throws IllegalArgumentException возбуждается при некорректных параметрах, повторном
+     *                                  определении полосы либо если полоса уже назначена ответу.
+     */
+    void define(String name, int threads, int capacity) {
+        if (name.isEmpty() || !defined.add(name) || assignments.containsValue(lanes.get(name))) {
+            throw new IllegalArgumentException("Can't define lane: \"" + name + "\".");
+        }
+        lanes.put(name, new Lane(name, threads, capacity));
+    }
+
+    /**
+     * Назначает ответу (запросу из настроек) полосу.
+     *
+     * @throws IllegalArgumentException возбуждается если полоса не определена.
+     */
+    void assign(String query, String name) {
+        Lane lane = lanes.get(name);
+        if (lane == null) {
+            throw new IllegalArgumentException("Unknown lane: \"" + name + "\".");
+        }
+        assignments.put(query, lane);
+    }
+
+    /**
+     * Запускает пулы потоков полос.
+     *
+     * @param handler        обработчик запросов сервера.
+     * @param routes         индекс ответов сервера.
+     * @param defaultThreads число потоков полос без заданного числа потоков (параметр THREADS).
+     */
+    void start(SimpleHttpHandler handler, RouteIndex routes, int defaultThreads) {
+        this.handler = handler;
+        routeLanes = routes.createAttribute(assignments);
+        for (Lane lane : lanes.values()) {
+            lane.start(defaultThreads, lane.name.equals(SYSTEM) ? Thread.MAX_PRIORITY : Thread.NORM_PRIORITY);
+        }
+        isRunning = true;
+    }
+
+    void stop() {
+        isRunning = false;
+        for (Lane lane : lanes.values()) {
+            lane.stop();
+        }
+    }
+
+    /**
+     * Передает обмен полосе ответа. Ошибка обработки запроса в полосе передается клиенту
+     * кодом 500 (если ответ еще не передан).
+     */
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().toString();
+        final boolean isReport = query.equals(REPORT_QUERY) && exchange.getRequestMethod().equals("GET");
+        Lane lane = isReport || SimpleHttpHandler.isHealthQuery(query) ? lanes.get(SYSTEM) :
+            routeLanes.get(handler.findRoute(exchange));
+        if (lane == null) {
+            lane = lanes.get(DEFAULT);
+        }
+        boolean isAccepted = isRunning && lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (isReport) {
+                        writeReport(exchange);
+                    }
+                    else {
+                        handler.handle(exchange);
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    if (exchange.getResponseCode() == -1) {
+                        exchange.getResponseHeaders().set("Connection", "close");
+                        try {
+                            exchange.sendResponseHeaders(500, -1);
+                        }
+                        catch (IOException ignored) {
+                        }
+                    }
+                    exchange.close();
+                }
+            }
+        });
+        if (!isAccepted) {
+            reject(exchange);
+        }
+    }
+
+    private static void reject(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(503, OVERLOADED.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(OVERLOADED);
+        }
+        exchange.close();
+    }
+
+    /**
+     * Передает отчет о полосах в формате JSON.
+     */
+    void writeReport(HttpExchange exchange) throws IOException {
+        byte[] body = getReport().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        exchange.close();
+    }
+
+    String getReport() {
+        StringBuilder report = new StringBuilder("{\"lanes\": [");
+        for (Lane lane : lanes.values()) {
+            report.append(report.charAt(report.length() - 1) == '[' ? "" : ", ")
+                .append(String.format(Locale.US, "{\"name\": \"%s\", \"threads\": %d, \"queue\": %d, " +
+                        "\"active\": %d, \"queued\": %d, \"utilization\": %.3f, \"saturation\": %.3f, " +
+                        "\"accepted\": %d, \"rejected\": %d, \"completed\": %d, " +
+                        "\"waitMeanMs\": %.3f, \"waitP99Ms\": %.3f, \"waitMaxMs\": %.3f}",
+                    lane.name, lane.getThreads(), lane.getCapacity(), lane.getActive(), lane.getQueued(),
+                    lane.getUtilization(), lane.getSaturation(), lane.getAccepted(), lane.getRejected(),
+                    lane.getCompleted(), lane.getMeanWait(), lane.getWaitPercentile(99), lane.getMaxWait()));
+        }
+        return report.append("]}").toString();
+    }
+
+    Lane getLane(String name) {
+        return lanes.get(name);
+    }
+
+    Collection<Lane> getLanes() {
+        return Collections.unmodifiableCollection(lanes.values());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Lane lane : lanes.values()) {
+            text.append(text.length() == 0 ? "" : ", ").append(lane.name).append('(')
+                .append(lane.getThreads() == 0 ? "THREADS" : String.valueOf(lane.getThreads())).append(')');
+        }
+        return text.toString();
+    }
+}
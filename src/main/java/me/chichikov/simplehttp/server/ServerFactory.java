@@ -1,6 +1,8 @@
 package me.chichikov.simplehttp.server;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
@@ -12,6 +14,7 @@ import javax.xml.xpath.*;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -37,9 +40,31 @@ public class ServerFactory {
      */
     private List<Map<String, String>> responses = new ArrayList<>();
 
-    private DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    /**
+     * Наборы http заголовков ответов (ключ - запрос), полученные объединением заголовков
+     * типа ответа (раздел types) и заголовков самого ответа. Содержит только запросы,
+     * для которых заголовки заданы.
+     */
+    private Map<String, HeaderPolicy> headers = new HashMap<>();
+
+    /**
+     * Параметры задержки, скорости передачи и ошибок ответов (ключ - запрос).
+     */
+    private Map<String, ResponseShaping> shaping = new HashMap<>();
+
+    /**
+     * Полосы обработки запросов (раздел lanes и теги lane ответов), либо null если полосы
+     * не заданы.
+     */
+    private RouteLanes lanes;
+
+    /**
+     * Фабрики разбора xml создаются при первом разборе настроек: запуск из упакованного
+     * набора ответов не загружает классы разбора xml и XPath.
+     */
+    private DocumentBuilderFactory factory;
     private Document document;
-    private XPathFactory xpathFactory = XPathFactory.newInstance();
+    private XPathFactory xpathFactory;
     private XPath xpath;
     private XPathExpression expression;
 
@@ -56,7 +81,8 @@ public class ServerFactory {
         try {
             resultServer = new SimpleHttpServer();
             parseXML(path);
-            resultServer.initialize(new HashMap<>(parameters), new ArrayList<>(responses));
+            resultServer.initialize(new HashMap<>(parameters), new ArrayList<>(responses), new HashMap<>(headers),
+                new HashMap<>(shaping), lanes);
         }
         catch (SAXParseException | IllegalArgumentException e) {
             System.out.println("Invalid settings file: \"" + path + "\".");
@@ -73,11 +99,74 @@ public class ServerFactory {
         return resultServer;
     }
 
+    /**
+     * Позволяет получить экземпляр SimpleHttpServer из упакованного набора ответов (см. packBundle()).
+     * Файл отображается в память, поэтому время запуска не зависит от числа запросов.
+     * В случае неудачи возвращает null.
+     *
+     * @param path путь к файлу набора ответов.
+     * @return возвращает ссылку на сконфигурированный сервер (в случае ошибки возвращает null).
+     */
+    public SimpleHttpServer getServerByBundle(String path) {
+        SimpleHttpServer resultServer;
+        try {
+            resultServer = new SimpleHttpServer();
+            resultServer.initialize(ResponseBundle.open(path));
+        }
+        catch (IllegalArgumentException e) {
+            System.out.println("Invalid bundle file: \"" + path + "\".");
+            return null;
+        }
+        catch (IOException e) {
+            System.out.println("Can't read file: \"" + path + "\".");
+            return null;
+        }
+        return resultServer;
+    }
+
+    /**
+     * Упаковывает xml файл настроек и все файлы, на которые он ссылается, в один
+     * индексированный файл, пригодный для запуска сервера методом getServerByBundle().
+     *
+     * @param settingsPath путь к xml файлу настроек.
+     * @param bundlePath   путь к создаваемому файлу.
+     * @return возвращает true в случае успеха, false в случае неудачи.
+     */
+    public boolean packBundle(String settingsPath, String bundlePath) {
+        try {
+            parseXML(settingsPath);
+            if (!shaping.isEmpty()) {
+                throw new IllegalArgumentException("Response shaping can't be packed.");
+            }
+            if (lanes != null) {
+                throw new IllegalArgumentException("Route lanes can't be packed.");
+            }
+            if (parameters.containsKey(ConfigurationParameters.UNIX_SOCKET_PATH)) {
+                throw new IllegalArgumentException("Unix socket can't be packed.");
+            }
+            ResponseBundle.write(parameters, responses, headers, bundlePath);
+        }
+        catch (SAXParseException | IllegalArgumentException e) {
+            System.out.println("Invalid settings file: \"" + settingsPath + "\"" +
+                (e.getMessage() != null ? " " + e.getMessage() : "."));
+            return false;
+        }
+        catch (IOException e) {
+            System.out.println(e.getMessage() != null ? e.getMessage() : "Can't read file: \"" + settingsPath + "\".");
+            return false;
+        }
+        catch (Exception e) {
+            System.out.println("Unknown error.");
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Класс осуществляющий парсинг указанного в path .xml файла. Узвлечение значений
      * осуществляется посредством xPath запросов. Логика класса разделена на два метода: <br />
      * - метод осуществляющий разбор параметров сервера; <br />
-     * - метод осуществляющий разбор ответов на запросы пользователя;
+     * - метод осуществляющий разбор ответов на запросы пользователя и их http заголовков;
      *
      * @param path путь к ".xml" файлу, разбор которого необходимо осуществить.
      * @throws SAXException             возбуждается при некорректной структуре .xml файла.
@@ -85,12 +174,19 @@ public class ServerFactory {
      *                                  документа установленному шаблону.
      */
     void parseXML(String path) throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
-        factory.setNamespaceAware(true);
+        if (factory == null) {
+            factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            xpathFactory = XPathFactory.newInstance();
+        }
         DocumentBuilder builder = factory.newDocumentBuilder();
         document = builder.parse(path);
         xpath = xpathFactory.newXPath();
         parseParameters();
         parseSourcesAndTypes();
+        parseHeaders();
+        parseShaping();
+        parseLanes();
     }
 
     /**
@@ -129,13 +225,58 @@ public class ServerFactory {
             throw new IllegalArgumentException();
         }
         parameters.put(ConfigurationParameters.PASSWORD, stringResult);
+
+        parseOptionalParameter("//connection/threads/text()", ConfigurationParameters.THREADS);
+
+        expression = xpath.compile("//connection/shards/text()");
+        stringResult = ((String) expression.evaluate(document, XPathConstants.STRING)).trim();
+        if (stringResult.equals("auto")) {
+            parameters.put(ConfigurationParameters.SHARDS, Runtime.getRuntime().availableProcessors());
+        }
+        else {
+            parseOptionalParameter("//connection/shards/text()", ConfigurationParameters.SHARDS);
+        }
+        parseOptionalParameter("//connection/warmup/text()", ConfigurationParameters.WARMUP);
+        parseOptionalParameter("//file-cache/entries/text()", ConfigurationParameters.FILE_CACHE_ENTRIES);
+        parseOptionalParameter("//file-cache/valid/text()", ConfigurationParameters.FILE_CACHE_VALID);
+        expression = xpath.compile("//connection/unix-socket/text()");
+        stringResult = ((String) expression.evaluate(document, XPathConstants.STRING)).trim();
+        if (!stringResult.isEmpty()) {
+            parameters.put(ConfigurationParameters.UNIX_SOCKET_PATH, stringResult);
+            expression = xpath.compile("//connection/unix-socket/@mode");
+            stringResult = ((String) expression.evaluate(document, XPathConstants.STRING)).trim();
+            if (!stringResult.isEmpty()) {
+                parameters.put(ConfigurationParameters.UNIX_SOCKET_MODE, stringResult);
+            }
+        }
+        parseOptionalParameter("//proxy/connections/text()", ConfigurationParameters.PROXY_CONNECTIONS);
+        parseOptionalParameter("//proxy/connect-timeout/text()", ConfigurationParameters.PROXY_CONNECT_TIMEOUT);
+        parseOptionalParameter("//proxy/read-timeout/text()", ConfigurationParameters.PROXY_READ_TIMEOUT);
+        parseOptionalParameter("//proxy/idle-timeout/text()", ConfigurationParameters.PROXY_IDLE_TIMEOUT);
+        parseOptionalParameter("//proxy/cache-entries/text()", ConfigurationParameters.PROXY_CACHE_ENTRIES);
+        parseOptionalParameter("//proxy/cache-entry-size/text()", ConfigurationParameters.PROXY_CACHE_ENTRY_SIZE);
+    }
+
+    /**
+     * Извлекает из xml документа необязательный целочисленный параметр. В случае
+     * отсутствия тега параметр не добавляется в отображение.
+     *
+     * @throws IllegalArgumentException возбуждается если значение не является целым числом.
+     */
+    private void parseOptionalParameter(String query, ConfigurationParameters parameter) throws XPathExpressionException {
+        expression = xpath.compile(query);
+        String stringResult = ((String) expression.evaluate(document, XPathConstants.STRING)).trim();
+        if (!stringResult.equals("")) {
+            parameters.put(parameter, Integer.parseInt(stringResult));
+        }
     }
 
     /**
      * Извлекает из xml документа, параметры ответов запросы клиентов.
      * В итоге формируются два отображения (ключом в обоих случаях является запрос):<br />
      * - в первом хранятся значения ответов;<br />
-     * - во втором хранятся типы ответов.
+     * - во втором хранятся типы ответов.<br />
+     * Отображения сохраняют порядок следования ответов в документе.
      */
     private void parseSourcesAndTypes() throws XPathExpressionException {
         NodeList queryNodeList, typeNodeList, valueNodeList;
@@ -154,8 +295,8 @@ public class ServerFactory {
             throw new IllegalArgumentException();
         }
 
-        responses.add(0, new HashMap<String, String>());
-        responses.add(1, new HashMap<String, String>());
+        responses.add(0, new LinkedHashMap<String, String>());
+        responses.add(1, new LinkedHashMap<String, String>());
 
         for (int i = 0; i < queryNodeList.getLength(); i++) {
             responses.get(0).put(queryNodeList.item(i).getNodeValue(), valueNodeList.item(i).getNodeValue());
@@ -163,6 +304,193 @@ public class ServerFactory {
         }
     }
 
+    /**
+     * Извлекает из xml документа наборы http заголовков ответов. Заголовки задаются тегом
+     * headers внутри тега response либо внутри тега type раздела types (для всех ответов
+     * данного типа); заголовки ответа заменяют одноименные заголовки типа.
+     *
+     * @throws IllegalArgumentException возбуждается при некорректном описании заголовков.
+     */
+    private void parseHeaders() throws XPathExpressionException {
+        Map<String, HeaderPolicy> typeHeaders = new HashMap<>();
+        NodeList typeNodeList = (NodeList) xpath.compile("//types/type").evaluate(document, XPathConstants.NODESET);
+        for (int i = 0; i < typeNodeList.getLength(); i++) {
+            Element type = (Element) typeNodeList.item(i);
+            Node headersNode = (Node) xpath.compile("headers").evaluate(type, XPathConstants.NODE);
+            if (type.getAttribute("name").equals("") || (headersNode == null)) {
+                throw new IllegalArgumentException();
+            }
+            typeHeaders.put(type.getAttribute("name"), parseHeaderPolicy(headersNode));
+        }
+
+        headers = new HashMap<>();
+        for (Map.Entry<String, String> type : responses.get(1).entrySet()) {
+            HeaderPolicy policy = typeHeaders.get(type.getValue());
+            if ((policy != null) && !policy.isEmpty()) {
+                headers.put(type.getKey(), policy);
+            }
+        }
+        NodeList responseNodeList = (NodeList) xpath.compile("//responses/response[headers]").evaluate(document, XPathConstants.NODESET);
+        for (int i = 0; i < responseNodeList.getLength(); i++) {
+            Node response = responseNodeList.item(i);
+            String query = (String) xpath.compile("query/text()").evaluate(response, XPathConstants.STRING);
+            String type = (String) xpath.compile("type/text()").evaluate(response, XPathConstants.STRING);
+            Node headersNode = (Node) xpath.compile("headers").evaluate(response, XPathConstants.NODE);
+
+            HeaderPolicy policy = typeHeaders.containsKey(type) ? typeHeaders.get(type) : HeaderPolicy.EMPTY;
+            policy = policy.merge(parseHeaderPolicy(headersNode));
+            if (!policy.isEmpty()) {
+                headers.put(query, policy);
+            }
+            else {
+                headers.remove(query);
+            }
+        }
+    }
+
+    /**
+     * Разбирает содержимое тега headers:<br />
+     * - cache-control - значение заголовка Cache-Control как есть;<br />
+     * - max-age и immutable - сокращенная запись Cache-Control (если cache-control не задан);<br />
+     * - expires - число секунд (Expires вычисляется от времени ответа) либо дата в формате http;<br />
+     * - header с атрибутом name - произвольный заголовок.
+     */
+    private HeaderPolicy parseHeaderPolicy(Node headersNode) throws XPathExpressionException {
+        Map<String, String> result = new LinkedHashMap<>();
+        String cacheControl = ((String) xpath.compile("cache-control/text()").evaluate(headersNode, XPathConstants.STRING)).trim();
+        String maxAge = ((String) xpath.compile("max-age/text()").evaluate(headersNode, XPathConstants.STRING)).trim();
+        Node immutable = (Node) xpath.compile("immutable").evaluate(headersNode, XPathConstants.NODE);
+        if (!cacheControl.equals("")) {
+            result.put("Cache-Control", cacheControl);
+        }
+        else if (!maxAge.equals("")) {
+            if (Integer.parseInt(maxAge) < 0) {
+                throw new IllegalArgumentException();
+            }
+            result.put("Cache-Control", "max-age=" + Integer.parseInt(maxAge) +
+                (((immutable != null) && !immutable.getTextContent().trim().equals("false")) ? ", immutable" : ""));
+        }
+
+        long expiresSeconds = -1;
+        String expires = ((String) xpath.compile("expires/text()").evaluate(headersNode, XPathConstants.STRING)).trim();
+        if (expires.matches("\\d+")) {
+            expiresSeconds = Long.parseLong(expires);
+        }
+        else if (!expires.equals("")) {
+            result.put("Expires", expires);
+        }
+
+        NodeList headerNodeList = (NodeList) xpath.compile("header").evaluate(headersNode, XPathConstants.NODESET);
+        for (int i = 0; i < headerNodeList.getLength(); i++) {
+            Element header = (Element) headerNodeList.item(i);
+            result.put(header.getAttribute("name"), header.getTextContent());
+        }
+        return new HeaderPolicy(result, expiresSeconds);
+    }
+
+    /**
+     * Извлекает из xml документа параметры "медленного" ответа - тег shaping внутри тега response:<br />
+     * - latency - задержка в миллисекундах: значение тега (постоянная задержка) либо атрибут
+     * distribution со значениями uniform (атрибуты min, max), normal (атрибуты mean, deviation)
+     * и table (вложенные теги percentile с атрибутом value);<br />
+     * - bandwidth - скорость передачи тела ответа в байтах в секунду;<br />
+     * - error-rate и error-status - вероятность ответа с ошибкой и ее код (по умолчанию 500).<br />
+     * Ответы типа proxy и sse передаются потоком, который ShapedExchange пришлось бы
+     * накапливать в памяти, поэтому задержка для них не задается.
+     *
+     * @throws IllegalArgumentException возбуждается при некорректных параметрах либо при
+     *                                  задержке ответа типа proxy или sse.
+     */
+    private void parseShaping() throws XPathExpressionException {
+        shaping = new HashMap<>();
+        NodeList responseNodeList = (NodeList) xpath.compile("//responses/response[shaping]").evaluate(document, XPathConstants.NODESET);
+        for (int i = 0; i < responseNodeList.getLength(); i++) {
+            Node response = responseNodeList.item(i);
+            String query = (String) xpath.compile("query/text()").evaluate(response, XPathConstants.STRING);
+            String type = ((String) xpath.compile("type/text()").evaluate(response, XPathConstants.STRING)).trim();
+            if (type.equals("proxy") || type.equals("sse")) {
+                throw new IllegalArgumentException("Response shaping is not supported for " + type + " response: \"" +
+                    query + "\".");
+            }
+            Node shapingNode = (Node) xpath.compile("shaping").evaluate(response, XPathConstants.NODE);
+
+            ResponseShaping.Distribution distribution = null;
+            double[] latency = null;
+            Element latencyNode = (Element) xpath.compile("latency").evaluate(shapingNode, XPathConstants.NODE);
+            if (latencyNode != null) {
+                switch (latencyNode.getAttribute("distribution")) {
+                    case "":
+                    case "fixed":
+                        distribution = ResponseShaping.Distribution.FIXED;
+                        latency = new double[]{Double.parseDouble(latencyNode.getTextContent().trim())};
+                        break;
+                    case "uniform":
+                        distribution = ResponseShaping.Distribution.UNIFORM;
+                        latency = new double[]{Double.parseDouble(latencyNode.getAttribute("min")),
+                            Double.parseDouble(latencyNode.getAttribute("max"))};
+                        break;
+                    case "normal":
+                        distribution = ResponseShaping.Distribution.NORMAL;
+                        latency = new double[]{Double.parseDouble(latencyNode.getAttribute("mean")),
+                            Double.parseDouble(latencyNode.getAttribute("deviation"))};
+                        break;
+                    case "table":
+                        distribution = ResponseShaping.Distribution.TABLE;
+                        NodeList percentiles = (NodeList) xpath.compile("percentile").evaluate(latencyNode, XPathConstants.NODESET);
+                        latency = new double[percentiles.getLength() * 2];
+                        for (int j = 0; j < percentiles.getLength(); j++) {
+                            Element percentile = (Element) percentiles.item(j);
+                            latency[j * 2] = Double.parseDouble(percentile.getAttribute("value"));
+                            latency[j * 2 + 1] = Double.parseDouble(percentile.getTextContent().trim());
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+
+            String bandwidth = ((String) xpath.compile("bandwidth/text()").evaluate(shapingNode, XPathConstants.STRING)).trim();
+            String errorRate = ((String) xpath.compile("error-rate/text()").evaluate(shapingNode, XPathConstants.STRING)).trim();
+            String errorStatus = ((String) xpath.compile("error-status/text()").evaluate(shapingNode, XPathConstants.STRING)).trim();
+            shaping.put(query, new ResponseShaping(distribution, latency,
+                bandwidth.equals("") ? 0 : Long.parseLong(bandwidth),
+                errorRate.equals("") ? 0 : Double.parseDouble(errorRate),
+                errorStatus.equals("") ? 500 : Integer.parseInt(errorStatus)));
+        }
+    }
+
+    /**
+     * Извлекает из xml документа полосы обработки запросов: раздел lanes с тегами lane
+     * (атрибуты name, threads и queue; полосы default и system переопределяются) и теги
+     * lane ответов с именем полосы. Если ни того ни другого нет, полосы не используются.
+     *
+     * @throws IllegalArgumentException возбуждается при некорректных параметрах полосы либо
+     *                                  ссылке на неопределенную полосу.
+     */
+    private void parseLanes() throws XPathExpressionException {
+        lanes = null;
+        NodeList laneNodeList = (NodeList) xpath.compile("//lanes/lane").evaluate(document, XPathConstants.NODESET);
+        NodeList responseNodeList = (NodeList) xpath.compile("//responses/response[lane]").evaluate(document, XPathConstants.NODESET);
+        if ((xpath.compile("//lanes").evaluate(document, XPathConstants.NODE) == null) &&
+            (responseNodeList.getLength() == 0)) {
+            return;
+        }
+        lanes = new RouteLanes();
+        for (int i = 0; i < laneNodeList.getLength(); i++) {
+            Element lane = (Element) laneNodeList.item(i);
+            String threads = lane.getAttribute("threads").trim();
+            String queue = lane.getAttribute("queue").trim();
+            lanes.define(lane.getAttribute("name").trim(), threads.equals("") ? 0 : Integer.parseInt(threads),
+                queue.equals("") ? RouteLanes.DEFAULT_QUEUE : Integer.parseInt(queue));
+        }
+        for (int i = 0; i < responseNodeList.getLength(); i++) {
+            Node response = responseNodeList.item(i);
+            String query = (String) xpath.compile("query/text()").evaluate(response, XPathConstants.STRING);
+            String lane = ((String) xpath.compile("lane/text()").evaluate(response, XPathConstants.STRING)).trim();
+            lanes.assign(query, lane);
+        }
+    }
+
     Map<ConfigurationParameters, Object> getParameters() {
         return parameters;
     }
@@ -170,4 +498,16 @@ public class ServerFactory {
     List<Map<String, String>> getResponses() {
         return responses;
     }
+
+    Map<String, HeaderPolicy> getHeaders() {
+        return headers;
+    }
+
+    Map<String, ResponseShaping> getShaping() {
+        return shaping;
+    }
+
+    RouteLanes getLanes() {
+        return lanes;
+    }
 }
@@ -0,0 +1,181 @@
+package me.chichikov.simplehttp.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ServerWarmUp - прогрев сервера перед приемом нагрузки (параметр WARMUP - число итераций):<br />
+ * - файлы ответов типа binary и тела отображенного в память набора ответов прочитываются
+ * целиком, чтобы они оказались в кеше страниц;<br />
+ * - каждый ответ, который можно получить без побочных эффектов, запрашивается через
+ * SimpleHttpHandler заданное число раз, чтобы JIT скомпилировал путь обработки запроса,
+ * а классы обработчика были загружены.<br />
+ * Запросы передаются обработчику в StreamHttpExchange поверх потоков в памяти, ответы
+ * отбрасываются. Ответы типа sse (бесконечный ответ) и proxy (запрос к вышестоящему серверу)
+ * не запрашиваются, как и ответы synthetic с телом больше MAX_SYNTHETIC_SIZE.
+ *
+ * @since 1.7
+ */
+class ServerWarmUp {
+
+    static final long MAX_SYNTHETIC_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    /**
+     * Поток, отбрасывающий ответы прогрева.
+     */
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+        }
+    };
+
+    private final SimpleHttpHandler handler;
+    private final int iterations;
+    private final List<String> queries = new ArrayList<>();
+    private final List<byte[]> requests = new ArrayList<>();
+    private final List<String> files = new ArrayList<>();
+    private final List<ByteBuffer> bodies = new ArrayList<>();
+
+    private long touchedBytes;
+    private long exchanges;
+    private long failures;
+    private long millis;
+
+    /**
+     * @param handler    обработчик запросов сервера.
+     * @param routes     индекс ответов сервера.
+     * @param synthetics параметры ответов типа synthetic.
+     * @param bundle     отображенный в память набор ответов, либо null.
+     * @param iterations число запросов каждого ответа.
+     */
+    ServerWarmUp(SimpleHttpHandler handler, RouteIndex routes, RouteIndex.Attribute<SyntheticPayload> synthetics,
+                 ResponseBundle bundle, int iterations) {
+        this.handler = handler;
+        this.iterations = iterations;
+        for (int route = 0; route < routes.size(); route++) {
+            String query = routes.getKey(route);
+            switch (routes.getType(route)) {
+                case "binary":
+                    files.add(routes.getValue(route));
+                    break;
+                case "template":
+                    query = query.replaceAll("\\{[^/}]*\\}", "warmup");
+                    break;
+                case "synthetic":
+                    if (synthetics.get(route).getSize() > MAX_SYNTHETIC_SIZE) {
+                        continue;
+                    }
+                    break;
+                case "sse":
+                case "proxy":
+                    continue;
+            }
+            addRequest(query);
+        }
+        if (bundle != null) {
+            for (int route = 0; route < bundle.getRouteCount(); route++) {
+                bodies.add(bundle.getBody(route));
+                addRequest(bundle.getQuery(route));
+            }
+        }
+    }
+
+    private void addRequest(String query) {
+        queries.add(query);
+        requests.add(("GET " + query + " HTTP/1.1\r\nHost: warmup\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Выполняет прогрев. Ошибки чтения файлов и обработки запросов не прерывают прогрев,
+     * а только подсчитываются (ответ с ошибкой больше не запрашивается).
+     */
+    void run() {
+        long start = System.nanoTime();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer fileBuffer = ByteBuffer.wrap(buffer);
+        for (String file : files) {
+            try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+                int read;
+                while ((read = channel.read(fileBuffer)) > 0) {
+                    touchedBytes += read;
+                    fileBuffer.clear();
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                failures++;
+            }
+            fileBuffer.clear();
+        }
+        for (ByteBuffer body : bodies) {
+            ByteBuffer page = body.duplicate();
+            while (page.hasRemaining()) {
+                int length = Math.min(page.remaining(), buffer.length);
+                page.get(buffer, 0, length);
+                touchedBytes += length;
+            }
+        }
+
+        boolean[] isFailed = new boolean[requests.size()];
+        for (int i = 0; i < iterations; i++) {
+            for (int request = 0; request < requests.size(); request++) {
+                if (isFailed[request]) {
+                    continue;
+                }
+                try {
+                    InputStream in = new ByteArrayInputStream(requests.get(request));
+                    StreamHttpExchange exchange = StreamHttpExchange.read(in, DISCARD, ADDRESS, ADDRESS);
+                    handler.respond(exchange);
+                    exchange.close();
+                    exchanges++;
+                }
+                catch (IOException | RuntimeException e) {
+                    isFailed[request] = true;
+                    failures++;
+                }
+            }
+        }
+        millis = (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Возвращает запросы прогрева (ответы, которые можно получить без побочных эффектов).
+     */
+    List<String> getQueries() {
+        return queries;
+    }
+
+    long getTouchedBytes() {
+        return touchedBytes;
+    }
+
+    long getExchanges() {
+        return exchanges;
+    }
+
+    long getFailures() {
+        return failures;
+    }
+
+    long getMillis() {
+        return millis;
+    }
+}
@@ -0,0 +1,301 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ShapedExchange - обмен, ответ которого передается клиенту с задержкой и ограничением
+ * скорости (см. ResponseShaping). Обработчик формирует ответ как обычно, но код ответа и тело
+ * накапливаются в памяти; после close() передача запланирована в колесе таймеров: по истечении
+ * задержки передаются заголовки, затем тело порциями, каждая из которых также планируется
+ * в колесе. Поток, обработавший запрос, освобождается сразу, а передачу порций выполняет
+ * исполнитель колеса, поэтому отложенные ответы не занимают потоков.<br />
+ * Файл ответа binary не накапливается в памяти: обработчик передает открытый файл
+ * (sendFile()), и каждая порция читается из него позиционно через буфер SLICE_SIZE.
+ * Остальные тела ответов хранятся в памяти целиком до окончания передачи, поэтому их размер
+ * ограничен MAX_BODY_SIZE: при превышении запись в тело завершается исключением и обработка
+ * запроса - ошибкой. Ответы proxy и sse (поток без заранее известного конца) задержке
+ * не подлежат (см. ServerFactory).
+ *
+ * @since 1.7
+ */
+class ShapedExchange extends HttpExchange implements Runnable {
+
+    /**
+     * Интервал между порциями тела ответа при ограничении скорости (миллисекунды).
+     */
+    static final int CHUNK_INTERVAL = 10;
+
+    /**
+     * Наибольший размер тела ответа, накапливаемого в памяти (байты).
+     */
+    static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Размер буфера чтения файла ответа (байты).
+     */
+    static final int SLICE_SIZE = 64 * 1024;
+
+    private final HttpExchange exchange;
+    private final ResponseShaping shaping;
+    private final TimerWheel wheel;
+    private final Body body = new Body();
+    private int responseCode = -1;
+    private long responseLength;
+    private boolean isClosed = false;
+
+    /**
+     * Файл ответа (см. sendFile()) и буфер чтения его порций, либо null.
+     */
+    private OpenFileCache.OpenFile file;
+    private OpenFileCache fileCache;
+    private ByteBuffer slice;
+
+    private boolean isHeadersSent = false;
+    private OutputStream out;
+    private long sent = 0;
+    private long bodyStart;
+
+    /**
+     * Накопленное тело ответа.
+     */
+    private static class Body extends OutputStream {
+        byte[] bytes = new byte[256];
+        int size = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length) throws IOException {
+            ensure(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        private void ensure(int length) throws IOException {
+            if (length > MAX_BODY_SIZE - size) {
+                throw new IOException("Shaped response body exceeds " + MAX_BODY_SIZE + " bytes.");
+            }
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.min(MAX_BODY_SIZE, Math.max(bytes.length * 2, size + length)));
+            }
+        }
+    }
+
+    ShapedExchange(HttpExchange exchange, ResponseShaping shaping, TimerWheel wheel) {
+        this.exchange = exchange;
+        this.shaping = shaping;
+        this.wheel = wheel;
+    }
+
+    /**
+     * Отвечает на запрос кодом ошибки по истечении случайной задержки (без вызова обработчика).
+     */
+    static void scheduleError(HttpExchange exchange, ResponseShaping shaping, TimerWheel wheel) {
+        ShapedExchange shaped = new ShapedExchange(exchange, shaping, wheel);
+        shaped.responseCode = shaping.getErrorStatus();
+        shaped.responseLength = -1;
+        shaped.close();
+    }
+
+    /**
+     * Задает код ответа и тело из открытого файла. Файл читается порциями при передаче
+     * и освобождается (OpenFileCache.release()) по ее окончании, в том числе при ошибке.
+     */
+    void sendFile(int code, OpenFileCache.OpenFile file, OpenFileCache fileCache) throws IOException {
+        if (responseCode >= 0) {
+            fileCache.release(file);
+            throw new IOException("Headers already sent.");
+        }
+        responseCode = code;
+        responseLength = file.size;
+        this.file = file;
+        this.fileCache = fileCache;
+    }
+
+    /**
+     * Завершает формирование ответа и планирует его передачу.
+     */
+    @Override
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        if (responseCode < 0) {
+            responseCode = 500;
+            responseLength = -1;
+        }
+        wheel.schedule(this, shaping.nextDelay(ThreadLocalRandom.current()));
+    }
+
+    /**
+     * Передает заголовки либо очередную порцию тела ответа (выполняется исполнителем колеса).
+     */
+    @Override
+    public void run() {
+        try {
+            long size = file == null ? body.size : file.size;
+            if (!isHeadersSent) {
+                isHeadersSent = true;
+                if ((responseLength < 0) || (size == 0)) {
+                    exchange.sendResponseHeaders(responseCode, -1);
+                    finish();
+                    return;
+                }
+                exchange.sendResponseHeaders(responseCode, size);
+                out = exchange.getResponseBody();
+                bodyStart = System.nanoTime();
+            }
+            long bandwidth = shaping.getBandwidth();
+            long length = bandwidth == 0 ? size - sent :
+                Math.min(size - sent, Math.max(1, bandwidth * CHUNK_INTERVAL / 1000));
+            if (file == null) {
+                out.write(body.bytes, (int) sent, (int) length);
+            }
+            else {
+                writeFile(length);
+            }
+            out.flush();
+            sent += length;
+            if (sent == size) {
+                out.close();
+                finish();
+                return;
+            }
+            long due = bodyStart / 1000000 + sent * 1000L / bandwidth;
+            wheel.schedule(this, due - System.nanoTime() / 1000000);
+        }
+        catch (IOException | RuntimeException e) {
+            finish();
+        }
+    }
+
+    /**
+     * Передает следующие length байт файла ответа, начиная с позиции sent.
+     */
+    private void writeFile(long length) throws IOException {
+        if (slice == null) {
+            slice = ByteBuffer.allocate((int) Math.min(SLICE_SIZE, file.size));
+        }
+        long position = sent;
+        long end = sent + length;
+        while (position < end) {
+            slice.clear();
+            slice.limit((int) Math.min(slice.capacity(), end - position));
+            int read = file.channel.read(slice, position);
+            if (read <= 0) {
+                throw new IOException("File is truncated: \"" + file.path + "\".");
+            }
+            out.write(slice.array(), 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * Закрывает обмен и освобождает файл ответа.
+     */
+    private void finish() {
+        exchange.close();
+        if (file != null) {
+            fileCache.release(file);
+            file = null;
+        }
+    }
+
+    @Override
+    public void sendResponseHeaders(int code, long length) throws IOException {
+        if (responseCode >= 0) {
+            throw new IOException("Headers already sent.");
+        }
+        responseCode = code;
+        responseLength = length;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return body;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return exchange.getRequestHeaders();
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return exchange.getResponseHeaders();
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return exchange.getRequestURI();
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return exchange.getRequestMethod();
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return exchange.getHttpContext();
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return exchange.getRequestBody();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return exchange.getRemoteAddress();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return exchange.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return exchange.getProtocol();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return exchange.getAttribute(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        exchange.setAttribute(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream in, OutputStream out) {
+        exchange.setStreams(in, out);
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return exchange.getPrincipal();
+    }
+}
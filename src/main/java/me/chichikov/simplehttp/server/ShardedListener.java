@@ -0,0 +1,423 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ShardedListener - слушатель, открывающий несколько сокетов на одном порту с опцией
+ * SO_REUSEPORT (по одному на "шард"). У каждого шарда собственный поток приема соединений
+ * и собственный пул потоков обработки, общим является только неизменяемый после запуска
+ * обработчик запросов. Распределение соединений между шардами выполняет ядро.<br />
+ * Слушатель Unix domain сокета (UnixDomainSocketAddress) состоит из одного шарда. Файл
+ * сокета, оставшийся от завершившегося процесса, удаляется при запуске (если сокет не
+ * принимает соединения), после открытия файлу задаются права доступа, при остановке он
+ * удаляется. У Unix domain сокета нет SO_TIMEOUT, поэтому idleTimeout ограничивает только
+ * ожидание очередного запроса keep-alive соединения, но не чтение начатого запроса.
+ *
+ * @since 1.7
+ */
+class ShardedListener {
+
+    /**
+     * Адрес соединений Unix domain сокета, передаваемый обработчику (у таких соединений нет
+     * InetSocketAddress).
+     */
+    private static final InetSocketAddress UNIX_PEER = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    /**
+     * Время ожидания завершения потока приема шарда при остановке (миллисекунды).
+     */
+    private static final int STOP_TIMEOUT = 2000;
+
+    private final SocketAddress address;
+    private final Set<PosixFilePermission> permissions;
+    private final int threadsPerShard;
+    private final int idleTimeout;
+    private final HttpHandler handler;
+    private final Authenticator authenticator;
+    private final List<Shard> shards = new ArrayList<>();
+    private final Set<HttpConnection> connections =
+        Collections.newSetFromMap(new ConcurrentHashMap<HttpConnection, Boolean>());
+
+    /**
+     * Шард: сокет, поток приема соединений и пул потоков обработки. Поток приема соединений
+     * также ожидает (с помощью Selector) данных от простаивающих keep-alive соединений:
+     * поток обработки занят соединением только пока выполняется запрос, поэтому открытые
+     * клиентами, но неактивные соединения не блокируют обработку остальных.
+     */
+    private class Shard implements Runnable, HttpConnection.Parking {
+        private final ServerSocketChannel channel;
+        private final Selector selector;
+        private final ExecutorService workers;
+        private final Thread acceptor;
+
+        /**
+         * Соединения, ожидающие регистрации в selector (регистрацию выполняет поток приема).
+         */
+        private final Queue<HttpConnection> parked = new ConcurrentLinkedQueue<>();
+        private final List<HttpConnection> ready = new ArrayList<>();
+        private long lastSweep = System.currentTimeMillis();
+
+        Shard(final int number) throws IOException {
+            channel = isUnix() ? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open();
+            try {
+                if (isUnix()) {
+                    removeStaleSocket(((UnixDomainSocketAddress) address).getPath());
+                    channel.bind(address, 1024);
+                    setPermissions(((UnixDomainSocketAddress) address).getPath());
+                }
+                else {
+                    if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                        throw new IOException("SO_REUSEPORT is not supported on this platform.");
+                    }
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                    channel.bind(address, 1024);
+                }
+                channel.configureBlocking(false);
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            final String name = isUnix() ? "unix" : "shard-" + number;
+            final AtomicInteger workerNumber = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(threadsPerShard, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, name + "-worker-" + workerNumber.incrementAndGet());
+                }
+            });
+            acceptor = new Thread(this, name + "-acceptor");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (channel.isOpen()) {
+                    selector.select(1000);
+                    registerParked();
+                    do {
+                        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                        while (keys.hasNext()) {
+                            SelectionKey key = keys.next();
+                            keys.remove();
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            if (key.isAcceptable()) {
+                                accept();
+                            }
+                            else if (key.isReadable()) {
+                                key.cancel();
+                                ready.add((HttpConnection) key.attachment());
+                            }
+                        }
+                        if (!ready.isEmpty()) {
+                            // снимает отмененные ключи с регистрации, иначе канал нельзя перевести в блокирующий режим
+                            selector.selectNow();
+                            for (HttpConnection connection : ready) {
+                                dispatch(connection);
+                            }
+                            ready.clear();
+                        }
+                    }
+                    while (!selector.selectedKeys().isEmpty());
+                    closeIdle();
+                }
+            }
+            catch (IOException | ClosedSelectorException ignored) {
+            }
+            finally {
+                try {
+                    selector.close();
+                }
+                catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void accept() {
+            SocketChannel client;
+            while (true) {
+                try {
+                    client = channel.accept();
+                }
+                catch (IOException e) {
+                    return;
+                }
+                if (client == null) {
+                    return;
+                }
+                try {
+                    HttpConnection connection;
+                    if (isUnix()) {
+                        connection = new HttpConnection(client,
+                            new BufferedInputStream(Channels.newInputStream(client), 8192),
+                            new BufferedOutputStream(Channels.newOutputStream(client), 8192),
+                            UNIX_PEER, UNIX_PEER, handler, authenticator, connections);
+                    }
+                    else {
+                        Socket socket = client.socket();
+                        socket.setTcpNoDelay(true);
+                        socket.setSoTimeout(idleTimeout);
+                        connection = new HttpConnection(client,
+                            new BufferedInputStream(socket.getInputStream(), 8192),
+                            new BufferedOutputStream(socket.getOutputStream(), 8192),
+                            (InetSocketAddress) client.getLocalAddress(), (InetSocketAddress) client.getRemoteAddress(),
+                            handler, authenticator, connections);
+                    }
+                    connection.setParking(this);
+                    register(connection);
+                }
+                catch (IOException e) {
+                    try {
+                        client.close();
+                    }
+                    catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void register(HttpConnection connection) throws IOException {
+            SocketChannel client = (SocketChannel) connection.getChannel();
+            client.configureBlocking(false);
+            client.register(selector, SelectionKey.OP_READ, connection);
+            connection.setIdleSince(System.currentTimeMillis());
+        }
+
+        private void registerParked() {
+            HttpConnection connection;
+            while ((connection = parked.poll()) != null) {
+                try {
+                    register(connection);
+                }
+                catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void dispatch(HttpConnection connection) {
+            try {
+                ((SocketChannel) connection.getChannel()).configureBlocking(true);
+                workers.execute(connection);
+            }
+            catch (IOException | RejectedExecutionException e) {
+                connection.close();
+            }
+        }
+
+        /**
+         * Закрывает соединения, простаивающие дольше idleTimeout (проверка не чаще раза в секунду).
+         */
+        private void closeIdle() {
+            long now = System.currentTimeMillis();
+            if (now - lastSweep < 1000) {
+                return;
+            }
+            lastSweep = now;
+            for (SelectionKey key : selector.keys()) {
+                HttpConnection connection = (HttpConnection) key.attachment();
+                if ((connection != null) && (now - connection.getIdleSince() > idleTimeout)) {
+                    key.cancel();
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Возвращает соединение, ожидающее следующего запроса, в selector потока приема.
+         */
+        @Override
+        public void park(HttpConnection connection) {
+            parked.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Закрывает сокет шарда. Сокет канала, зарегистрированного в selector, освобождается
+         * только при снятии регистрации, поэтому метод ожидает завершения потока приема
+         * (закрывающего selector): иначе сервер, запущенный сразу после остановки на том же
+         * порту с SO_REUSEPORT, разделял бы входящие соединения с закрываемым сокетом.
+         */
+        void stop() {
+            try {
+                channel.close();
+            }
+            catch (IOException ignored) {
+            }
+            selector.wakeup();
+            workers.shutdownNow();
+            if (acceptor.isAlive()) {
+                if (acceptor != Thread.currentThread()) {
+                    try {
+                        acceptor.join(STOP_TIMEOUT);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            else {
+                try {
+                    selector.close();
+                }
+                catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @param address       адрес, на котором открываются сокеты.
+     * @param shardCount    число шардов.
+     * @param threads       общее число потоков обработки (делится между шардами, не менее одного на шард).
+     * @param idleTimeout   время ожидания очередного запроса keep-alive соединения в миллисекундах.
+     * @param handler       обработчик запросов.
+     * @param authenticator аутентификатор клиентов, либо null если доступ открыт для всех.
+     */
+    ShardedListener(InetSocketAddress address, int shardCount, int threads, int idleTimeout, HttpHandler handler,
+                    Authenticator authenticator) {
+        this(address, null, shardCount, threads, idleTimeout, handler, authenticator);
+    }
+
+    /**
+     * Слушатель Unix domain сокета (один шард).
+     *
+     * @param address     путь к файлу сокета.
+     * @param permissions права доступа к файлу сокета, либо null (права по умолчанию).
+     * @see #ShardedListener(InetSocketAddress, int, int, int, HttpHandler, Authenticator)
+     */
+    ShardedListener(UnixDomainSocketAddress address, Set<PosixFilePermission> permissions, int threads,
+                    int idleTimeout, HttpHandler handler, Authenticator authenticator) {
+        this(address, permissions, 1, threads, idleTimeout, handler, authenticator);
+    }
+
+    private ShardedListener(SocketAddress address, Set<PosixFilePermission> permissions, int shardCount, int threads,
+                            int idleTimeout, HttpHandler handler, Authenticator authenticator) {
+        this.address = address;
+        this.permissions = permissions;
+        this.threadsPerShard = Math.max(1, threads / shardCount);
+        this.idleTimeout = idleTimeout;
+        this.handler = handler;
+        this.authenticator = authenticator;
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(null);
+        }
+    }
+
+    /**
+     * Открывает сокеты всех шардов и запускает потоки приема соединений. В случае ошибки
+     * уже открытые сокеты закрываются.
+     *
+     * @throws IOException возбуждается если порт занят либо SO_REUSEPORT не поддерживается.
+     */
+    void start() throws IOException {
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                shards.set(i, new Shard(i));
+            }
+        }
+        catch (IOException e) {
+            stop();
+            throw e;
+        }
+        for (Shard shard : shards) {
+            shard.acceptor.start();
+        }
+    }
+
+    /**
+     * Закрывает сокеты шардов и все открытые соединения.
+     */
+    void stop() {
+        for (Shard shard : shards) {
+            if (shard != null) {
+                shard.stop();
+            }
+        }
+        for (HttpConnection connection : connections.toArray(new HttpConnection[0])) {
+            connection.close();
+        }
+        if (isUnix() && (shards.get(0) != null)) {
+            try {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    private boolean isUnix() {
+        return address instanceof UnixDomainSocketAddress;
+    }
+
+    /**
+     * Удаляет файл сокета, оставшийся от завершившегося процесса.
+     *
+     * @throws IOException возбуждается если файл не является сокетом либо сокет принимает соединения.
+     */
+    private static void removeStaleSocket(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (!Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+            throw new IOException("Not a socket file: \"" + path + "\".");
+        }
+        boolean isAlive;
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(path))) {
+            isAlive = probe.isConnected();
+        }
+        catch (IOException e) {
+            isAlive = false;
+        }
+        if (isAlive) {
+            throw new BindException("Socket is in use: \"" + path + "\".");
+        }
+        Files.delete(path);
+    }
+
+    private void setPermissions(Path path) throws IOException {
+        if ((permissions != null) && FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(path, permissions);
+        }
+    }
+
+    /**
+     * Разбирает права доступа к файлу сокета в восьмеричной записи (например 660).
+     *
+     * @throws IllegalArgumentException возбуждается при некорректной записи.
+     */
+    static Set<PosixFilePermission> parseMode(String mode) {
+        if (!mode.matches("[0-7]{3}")) {
+            throw new IllegalArgumentException("Invalid socket mode: \"" + mode + "\".");
+        }
+        StringBuilder text = new StringBuilder(9);
+        for (int i = 0; i < 3; i++) {
+            int digit = mode.charAt(i) - '0';
+            text.append((digit & 4) != 0 ? 'r' : '-').append((digit & 2) != 0 ? 'w' : '-').append((digit & 1) != 0 ? 'x' : '-');
+        }
+        return PosixFilePermissions.fromString(text.toString());
+    }
+
+    int getShardCount() {
+        return shards.size();
+    }
+}
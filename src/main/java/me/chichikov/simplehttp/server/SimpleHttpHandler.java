@@ -1,12 +1,23 @@
 package me.chichikov.simplehttp.server;
 
-import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
 import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * SimpleHttpHandler - обрабатывает каждый авторизованный http
@@ -18,56 +29,256 @@ import java.util.Map;
 class SimpleHttpHandler implements HttpHandler {
 
     /**
-     * Список, содержащий в себе два отображения (в обоих ключами являются запросы пользователей):<br />
-     * - первое (с индексом 0) это непосредственно итоговые ответы сервера.
-     * - второе (с индексом 1) это типы ответов.
+     * Индекс ответов сервера (запросы, значения и типы ответов).
      */
-    private List<Map<String, String>> responses;
+    private RouteIndex routes = RouteIndex.build(new HashMap<String, String>(), new HashMap<String, String>(), false);
+
+    /**
+     * Отображенный в память набор ответов (null если сервер запущен из settings.xml).
+     */
+    private ResponseBundle bundle;
+
+    /**
+     * Скомпилированные шаблоны ответов типа template.
+     */
+    private List<ResponseTemplate> templates = new ArrayList<>();
+
+    /**
+     * Обработчик ответов типа proxy (null если таких ответов нет).
+     */
+    private ReverseProxy proxy;
+
+    /**
+     * Заранее сформированные наборы http заголовков ответов индекса.
+     */
+    private RouteIndex.Attribute<HeaderPolicy> headerPolicies = new RouteIndex.Attribute<>(0);
+
+    /**
+     * Параметры ответов типа synthetic.
+     */
+    private RouteIndex.Attribute<SyntheticPayload> synthetics = new RouteIndex.Attribute<>(0);
+
+    /**
+     * Рассылки событий ответов типа sse.
+     */
+    private RouteIndex.Attribute<EventBroadcaster> broadcasters = new RouteIndex.Attribute<>(0);
+
+    /**
+     * Ответы типа batch и исполнитель, открывающий файлы ответов пакета параллельно
+     * (null - файлы открываются потоком-обработчиком).
+     */
+    private RouteIndex.Attribute<BatchRoute> batches = new RouteIndex.Attribute<>(0);
+    private ExecutorService batchReaders;
+
+    /**
+     * Кэш открытых файлов ответов типа binary (по умолчанию файлы не кэшируются).
+     */
+    private OpenFileCache fileCache = new OpenFileCache(0, 0);
+
+    /**
+     * Ответы типа sink и echo.
+     */
+    private RouteIndex.Attribute<UploadRoute> uploads = new RouteIndex.Attribute<>(0);
+
+    /**
+     * Параметры задержки, скорости и ошибок ответов индекса и колесо таймеров,
+     * по которому планируется передача таких ответов.
+     */
+    private RouteIndex.Attribute<ResponseShaping> shapings = new RouteIndex.Attribute<>(0);
+    private TimerWheel wheel;
+
+    /**
+     * Запросы состояния сервера для балансировщиков нагрузки: LIVE_QUERY - сервер запущен,
+     * READY_QUERY - сервер прогрет и готов к нагрузке (до окончания прогрева - код 503).
+     * Запросы не требуют аутентификации, ответы сформированы заранее.
+     */
+    static final String LIVE_QUERY = "/live";
+    static final String READY_QUERY = "/ready";
+    private static final byte[] LIVE = "live".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] READY = "ready".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WARMING_UP = "warming up".getBytes(StandardCharsets.US_ASCII);
+    private volatile boolean isReady = true;
 
     /**
      * Метод определенный в HttpHandler, служит для обработки каждого входящего
-     * http запроса. В данной реализации отбрасывает все не являющиеся GET запросы.
-     * Все запросы, ответы, и типы ответов ассоциированных с запросами хранятся в списке responses.
-     * В случае передачи потока бинарных данных, content-type http заголовка
-     * определяется методом extractContentTypeByExtension().
+     * http запроса. В данной реализации отбрасывает все не являющиеся GET запросы, кроме
+     * POST запросов к ответам типа sse (публикация события), POST либо PUT запросов к ответам
+     * типа sink и echo (прием тела запроса) и POST запросов к ответам типа batch.
+     * Все запросы, ответы, и типы ответов ассоциированных с запросами хранятся в индексе routes.
+     * Http заголовки ответа (в том числе content-type бинарных данных, определенный методом
+     * extractContentTypeByExtension()) сформированы заранее и хранятся в headerPolicies.
+     * Если для запроса заданы параметры shapings, ответ формируется в ShapedExchange и
+     * передается клиенту с задержкой по колесу таймеров, не занимая поток обработки.
      */
     @Override
     public void handle(HttpExchange exchange) throws IOException {
+        ResponseShaping shaping;
+        if (!shapings.isEmpty() && ((shaping = findShaping(exchange)) != null)) {
+            if (shaping.nextIsError(ThreadLocalRandom.current())) {
+                ShapedExchange.scheduleError(exchange, shaping, wheel);
+            }
+            else {
+                ShapedExchange shaped = new ShapedExchange(exchange, shaping, wheel);
+                respond(shaped);
+                shaped.close();
+            }
+        }
+        else {
+            respond(exchange);
+        }
+    }
+
+    /**
+     * Ищет параметры задержки ответа на запрос (см. findRoute()).
+     *
+     * @return возвращает параметры ответа либо null.
+     */
+    private ResponseShaping findShaping(HttpExchange exchange) {
+        return shapings.get(findRoute(exchange));
+    }
+
+    /**
+     * Ищет ответ индекса на запрос: по точному совпадению запроса (для запросов кроме GET -
+     * также по пути без параметров), по шаблону, по началу запроса ответов synthetic и batch
+     * либо по маршруту proxy.
+     *
+     * @return возвращает номер ответа, либо -1 (в том числе для запросов /, /live, /ready и
+     * ответов отображенного в память набора).
+     */
+    int findRoute(HttpExchange exchange) {
+        String query = exchange.getRequestURI().toString();
+        int route = routes.find(query);
+        if (route >= 0) {
+            return route;
+        }
+        if (!exchange.getRequestMethod().equals("GET")) {
+            return routes.find(exchange.getRequestURI().getRawPath());
+        }
+        if (query.equals("/") || isHealthQuery(query) || ((bundle != null) && (bundle.find(query) >= 0))) {
+            return -1;
+        }
+        if (((route = findSynthetic(exchange.getRequestURI())) >= 0) ||
+            ((route = findBatch(exchange.getRequestURI())) >= 0)) {
+            return route;
+        }
+        ResponseTemplate template = findTemplate(exchange.getRequestURI().getRawPath());
+        if (template != null) {
+            return routes.find(template.getQuery());
+        }
+        ReverseProxy.Route proxyRoute;
+        if ((proxy != null) && ((proxyRoute = proxy.find(exchange.getRequestURI().getRawPath())) != null)) {
+            return routes.find(proxyRoute.getQuery());
+        }
+        return -1;
+    }
+
+    /**
+     * Формирует ответ на запрос (см. handle()) без задержки, в том числе при прогреве сервера.
+     */
+    void respond(HttpExchange exchange) throws IOException {
         if (exchange.getRequestMethod().equals("GET")) {
-            Map<String, String> values = responses.get(0);
-            Map<String, String> types = responses.get(1);
+            String query = exchange.getRequestURI().toString();
+            ResponseTemplate template;
+            ReverseProxy.Route proxyRoute;
+            int route;
 
-            if (exchange.getRequestURI().toString().equals("/")) {
+            if (query.equals("/")) {
                 writeTextMessage(exchange, "Greetings, Chosen One!");
             }
-            else if (values.containsKey(exchange.getRequestURI().toString())) {
-                if (types.get(exchange.getRequestURI().toString()).equals("inplace")) {
-                    writeTextMessage(exchange, values.get(exchange.getRequestURI().toString()));
-                }
-                else if (types.get(exchange.getRequestURI().toString()).equals("binary")) {
-
-                    Headers headers = exchange.getResponseHeaders();
-                    File file = new File(values.get(exchange.getRequestURI().toString()));
-                    headers.add("Content-Type", extractContentTypeByExtension(file.toString()));
-
-                    byte[] byteArray = new byte[(int) file.length()];
-                    FileInputStream fis = new FileInputStream(file);
-                    BufferedInputStream in = new BufferedInputStream(fis);
-                    in.read(byteArray, 0, byteArray.length);
-
-                    exchange.sendResponseHeaders(200, file.length());
-                    OutputStream out = exchange.getResponseBody();
-                    out.write(byteArray, 0, byteArray.length);
-                    out.close();
-                    exchange.close();
+            else if (query.equals(LIVE_QUERY)) {
+                writeHealth(exchange, 200, LIVE);
+            }
+            else if (query.equals(READY_QUERY)) {
+                boolean isReady = this.isReady;
+                writeHealth(exchange, isReady ? 200 : 503, isReady ? READY : WARMING_UP);
+            }
+            else if ((bundle != null) && ((route = bundle.find(query)) >= 0)) {
+                writeBundleResponse(exchange, route);
+            }
+            else if ((route = routes.find(query)) >= 0) {
+                switch (routes.getType(route)) {
+                    case "inplace":
+                        getHeaderPolicy(route).apply(exchange);
+                        writeInplaceResponse(exchange, route);
+                        break;
+                    case "binary":
+                        writeFileResponse(exchange, route);
+                        break;
+                    case "template":
+                        if ((template = findTemplate(exchange.getRequestURI().getRawPath())) != null) {
+                            writeTemplateResponse(exchange, template);
+                        }
+                        else {
+                            writeTextMessage(exchange, "Unknown resource.");
+                        }
+                        break;
+                    case "proxy":
+                        if ((proxy != null) && ((proxyRoute = proxy.find(exchange.getRequestURI().getRawPath())) != null)) {
+                            proxy.forward(exchange, proxyRoute);
+                        }
+                        else {
+                            writeTextMessage(exchange, "Unknown resource.");
+                        }
+                        break;
+                    case "synthetic":
+                        writeSyntheticResponse(exchange, route);
+                        break;
+                    case "sse":
+                        getHeaderPolicy(route).apply(exchange);
+                        broadcasters.get(route).subscribe(exchange);
+                        break;
+                    case "batch":
+                        writeBatchResponse(exchange, route);
+                        break;
+                    case "sink":
+                    case "echo":
+                        getHeaderPolicy(route).apply(exchange);
+                        uploads.get(route).writeReport(exchange);
+                        break;
                 }
             }
+            else if ((route = findSynthetic(exchange.getRequestURI())) >= 0) {
+                writeSyntheticResponse(exchange, route);
+            }
+            else if ((route = findBatch(exchange.getRequestURI())) >= 0) {
+                writeBatchResponse(exchange, route);
+            }
+            else if ((template = findTemplate(exchange.getRequestURI().getRawPath())) != null) {
+                writeTemplateResponse(exchange, template);
+            }
+            else if ((proxy != null) && ((proxyRoute = proxy.find(exchange.getRequestURI().getRawPath())) != null)) {
+                proxy.forward(exchange, proxyRoute);
+            }
             else {
                 writeTextMessage(exchange, "Unknown resource.");
             }
         }
         else {
-            writeTextMessage(exchange, "Unsupported request type. Only GET requests supported.");
+            String method = exchange.getRequestMethod();
+            int route = routes.find(exchange.getRequestURI().getRawPath());
+            switch (route >= 0 ? routes.getType(route) : "") {
+                case "sse":
+                    if (method.equals("POST")) {
+                        broadcasters.get(route).publish(exchange);
+                        return;
+                    }
+                    break;
+                case "sink":
+                case "echo":
+                    if (method.equals("POST") || method.equals("PUT")) {
+                        getHeaderPolicy(route).apply(exchange);
+                        uploads.get(route).receive(exchange);
+                        return;
+                    }
+                    break;
+                case "batch":
+                    if (method.equals("POST")) {
+                        writeBatchResponse(exchange, route);
+                        return;
+                    }
+                    break;
+            }
+            writeTextMessage(exchange, "Unsupported request type.");
         }
     }
 
@@ -82,17 +293,251 @@ class SimpleHttpHandler implements HttpHandler {
         exchange.close();
     }
 
+    /**
+     * Передает ответ на запрос состояния сервера.
+     */
+    private static void writeHealth(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+        exchange.close();
+    }
+
+    /**
+     * Проверяет, является ли запрос запросом состояния сервера (не требует аутентификации).
+     */
+    static boolean isHealthQuery(String query) {
+        return query.equals(LIVE_QUERY) || query.equals(READY_QUERY);
+    }
+
+    /**
+     * Ищет шаблон, которому соответствует путь запроса.
+     *
+     * @return возвращает первый подходящий шаблон либо null.
+     */
+    private ResponseTemplate findTemplate(String rawPath) {
+        for (ResponseTemplate template : templates) {
+            if (template.matches(rawPath)) {
+                return template;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Формирует ответ по шаблону непосредственно в буфере потока-обработчика и передает его.
+     */
+    private void writeTemplateResponse(HttpExchange exchange, ResponseTemplate template) throws IOException {
+        ResponseTemplate.Output output = template.render(exchange.getRequestURI());
+        getHeaderPolicy(routes.find(template.getQuery())).apply(exchange);
+        exchange.sendResponseHeaders(200, output.getSize() == 0 ? -1 : output.getSize());
+        OutputStream out = exchange.getResponseBody();
+        out.write(output.getBytes(), 0, output.getSize());
+        out.close();
+        exchange.close();
+    }
+
+    /**
+     * Передает ответ из отображенного в память набора ответов: заранее сформированные
+     * заголовки и тело из отображения. Тело не копируется в массив целиком, однако поток
+     * ответа не является каналом сокета, и Channels.newChannel() передает его порциями
+     * через промежуточный буфер.
+     */
+    private void writeBundleResponse(HttpExchange exchange, int route) throws IOException {
+        bundle.getHeaderPolicy(route).apply(exchange);
+
+        ByteBuffer body = bundle.getBody(route);
+        exchange.sendResponseHeaders(200, body.remaining() == 0 ? -1 : body.remaining());
+        try (WritableByteChannel out = Channels.newChannel(exchange.getResponseBody())) {
+            while (body.hasRemaining()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    /**
+     * Ищет ответ типа synthetic по пути запроса (размер тела может задаваться параметром
+     * строки запроса, поэтому запрос целиком в индексе не найден).
+     *
+     * @return возвращает номер ответа либо -1.
+     */
+    private int findSynthetic(URI uri) {
+        if (synthetics.isEmpty() || (uri.getRawQuery() == null)) {
+            return -1;
+        }
+        int route = routes.find(uri.getRawPath());
+        return synthetics.get(route) == null ? -1 : route;
+    }
+
+    /**
+     * Передает ответ типа synthetic; при некорректном размере в строке запроса - код 400.
+     */
+    private void writeSyntheticResponse(HttpExchange exchange, int route) throws IOException {
+        SyntheticPayload payload = synthetics.get(route);
+        long size = payload.getSize(exchange.getRequestURI());
+        if (size < 0) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+        }
+        getHeaderPolicy(route).apply(exchange);
+        payload.write(exchange, size);
+    }
+
+    /**
+     * Передает ответ типа binary: файл из кэша открытых файлов передается без повторного
+     * открытия и без чтения в память целиком. Поток ответа не является каналом сокета,
+     * поэтому FileChannel.transferTo() копирует содержимое порциями через промежуточный
+     * буфер Channels.newChannel(). Ответу с задержкой файл передается целиком
+     * (ShapedExchange.sendFile()), и тот читает его порциями при передаче.
+     */
+    private void writeFileResponse(HttpExchange exchange, int route) throws IOException {
+        OpenFileCache.OpenFile file = fileCache.acquire(routes.getValue(route));
+        if (exchange instanceof ShapedExchange) {
+            getHeaderPolicy(route).apply(exchange);
+            ((ShapedExchange) exchange).sendFile(200, file, fileCache);
+            return;
+        }
+        try {
+            getHeaderPolicy(route).apply(exchange);
+            exchange.sendResponseHeaders(200, file.size == 0 ? -1 : file.size);
+            try (WritableByteChannel out = Channels.newChannel(exchange.getResponseBody())) {
+                file.transferTo(out);
+            }
+        }
+        finally {
+            fileCache.release(file);
+        }
+        exchange.close();
+    }
+
+    /**
+     * Ищет ответ типа batch по пути запроса (запросы пакета передаются в строке запроса).
+     *
+     * @return возвращает номер ответа либо -1.
+     */
+    private int findBatch(URI uri) {
+        if (batches.isEmpty() || (uri.getRawQuery() == null)) {
+            return -1;
+        }
+        int route = routes.find(uri.getRawPath());
+        return batches.get(route) == null ? -1 : route;
+    }
+
+    /**
+     * Передает ответ типа batch: пустой пакет отклоняется кодом 400, пакет больше
+     * допустимого - кодом 413. Файлы ответов типа binary открываются параллельно исполнителем
+     * batchReaders, а их содержимое передается из файла по очереди в порядке запросов.
+     */
+    private void writeBatchResponse(HttpExchange exchange, int route) throws IOException {
+        BatchRoute batch = batches.get(route);
+        List<String> keys = batch.readKeys(exchange);
+        if (keys.isEmpty() || (keys.size() > batch.getMax())) {
+            exchange.sendResponseHeaders(keys.isEmpty() ? 400 : 413, -1);
+            exchange.close();
+            return;
+        }
+        List<BatchRoute.Part> parts = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            parts.add(resolvePart(key));
+        }
+        getHeaderPolicy(route).apply(exchange);
+        batch.write(exchange, parts, fileCache);
+    }
+
+    /**
+     * Находит ответ на запрос пакета: ответ из набора, inplace, binary либо template. Ответы
+     * других типов не передаются в пакете (код части 501), неизвестный запрос - код 404.
+     */
+    private BatchRoute.Part resolvePart(String key) {
+        int route;
+        if ((bundle != null) && ((route = bundle.find(key)) >= 0)) {
+            return new BatchRoute.Part(key, 200, bundle.getHeaderPolicy(route).get("Content-Type"), bundle.getBody(route));
+        }
+        if ((route = routes.find(key)) >= 0) {
+            switch (routes.getType(route)) {
+                case "inplace":
+                    return new BatchRoute.Part(key, 200, getHeaderPolicy(route).get("Content-Type"), routes.getValueBytes(route));
+                case "binary":
+                    final String path = routes.getValue(route);
+                    Callable<OpenFileCache.OpenFile> open = new Callable<OpenFileCache.OpenFile>() {
+                        @Override
+                        public OpenFileCache.OpenFile call() throws IOException {
+                            return fileCache.acquire(path);
+                        }
+                    };
+                    FutureTask<OpenFileCache.OpenFile> task = new FutureTask<OpenFileCache.OpenFile>(open) {
+                        @Override
+                        protected void set(OpenFileCache.OpenFile file) {
+                            super.set(file);
+                            if (isCancelled()) {
+                                fileCache.release(file);
+                            }
+                        }
+                    };
+                    if (batchReaders != null) {
+                        batchReaders.execute(task);
+                    }
+                    else {
+                        task.run();
+                    }
+                    return new BatchRoute.Part(key, getHeaderPolicy(route).get("Content-Type"), task);
+                case "template":
+                    break;
+                default:
+                    return BatchRoute.Part.empty(key, 501);
+            }
+        }
+        URI uri;
+        try {
+            uri = new URI(key);
+        }
+        catch (URISyntaxException e) {
+            return BatchRoute.Part.empty(key, 400);
+        }
+        ResponseTemplate template = findTemplate(uri.getRawPath());
+        if (template == null) {
+            return BatchRoute.Part.empty(key, routes.find(uri.getRawPath()) >= 0 ? 501 : 404);
+        }
+        ResponseTemplate.Output output = template.render(uri);
+        return new BatchRoute.Part(key, 200, template.getContentType(),
+            ByteBuffer.wrap(Arrays.copyOf(output.getBytes(), output.getSize())));
+    }
+
+    /**
+     * Передает значение ответа типа inplace непосредственно из буфера значений индекса.
+     */
+    private void writeInplaceResponse(HttpExchange exchange, int route) throws IOException {
+        ByteBuffer body = routes.getValueBytes(route);
+        exchange.sendResponseHeaders(200, body.remaining() == 0 ? -1 : body.remaining());
+        try (WritableByteChannel out = Channels.newChannel(exchange.getResponseBody())) {
+            while (body.hasRemaining()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private HeaderPolicy getHeaderPolicy(int route) {
+        HeaderPolicy policy = headerPolicies.get(route);
+        return policy == null ? HeaderPolicy.EMPTY : policy;
+    }
+
     /**
      * Метод возвращает http "content-type" исходя из расширения файла.
      * На данный момент поддерживаются форматы:<br />
-     * - документы: xml, pdf;<br />
+     * - документы: xml, pdf, json, html, txt;<br />
      * - изображения: png, jpeg, jpg.
      *
      * @param path указывает путь либо имя файла.
      * @return возвращает content-type файла, например application/xml для
      *         xml документа.
      */
-    String extractContentTypeByExtension(String path) {
+    static String extractContentTypeByExtension(String path) {
         path = path.toLowerCase();
 
         switch (path.substring(path.lastIndexOf(".") + 1)) {
@@ -105,11 +550,64 @@ class SimpleHttpHandler implements HttpHandler {
                 return "image/jpeg";
             case "pdf":
                 return "application/pdf";
+            case "json":
+                return "application/json";
+            case "html":
+                return "text/html";
+            case "txt":
+                return "text/plain";
         }
         return null;
     }
 
-    void setResponses(List<Map<String, String>> responses) {
-        this.responses = responses;
+    void setRoutes(RouteIndex routes, RouteIndex.Attribute<HeaderPolicy> headerPolicies) {
+        this.routes = routes;
+        this.headerPolicies = headerPolicies;
+    }
+
+    void setSynthetics(RouteIndex.Attribute<SyntheticPayload> synthetics) {
+        this.synthetics = synthetics;
+    }
+
+    void setFileCache(OpenFileCache fileCache) {
+        this.fileCache = fileCache;
+    }
+
+    void setBatches(RouteIndex.Attribute<BatchRoute> batches, ExecutorService batchReaders) {
+        this.batches = batches;
+        this.batchReaders = batchReaders;
+    }
+
+    void setUploads(RouteIndex.Attribute<UploadRoute> uploads) {
+        this.uploads = uploads;
+    }
+
+    void setBroadcasters(RouteIndex.Attribute<EventBroadcaster> broadcasters) {
+        this.broadcasters = broadcasters;
+    }
+
+    void setReady(boolean isReady) {
+        this.isReady = isReady;
+    }
+
+    boolean isReady() {
+        return isReady;
+    }
+
+    void setBundle(ResponseBundle bundle) {
+        this.bundle = bundle;
+    }
+
+    void setTemplates(List<ResponseTemplate> templates) {
+        this.templates = templates;
+    }
+
+    void setProxy(ReverseProxy proxy) {
+        this.proxy = proxy;
+    }
+
+    void setShapings(RouteIndex.Attribute<ResponseShaping> shapings, TimerWheel wheel) {
+        this.shapings = shapings;
+        this.wheel = wheel;
     }
 }
@@ -4,8 +4,17 @@ import com.sun.net.httpserver.*;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -27,11 +36,114 @@ public class SimpleHttpServer {
     private int port = 0;
 
     /**
-     * Список, содержащий в себе два отображения (в обоих ключами являются запросы пользователей):<br />
-     * - первое (с индексом 0) это непосредственно итоговые ответы сервера.
-     * - второе (с индексом 1) это типы ответов.
+     * Число потоков, обрабатывающих запросы (параметр THREADS).
      */
-    private List<Map<String, String>> responses;
+    private int threads = Runtime.getRuntime().availableProcessors() * 2;
+    private ExecutorService executor;
+
+    /**
+     * Число сокетов, открываемых на порту с опцией SO_REUSEPORT (параметр SHARDS). При значении 0
+     * используется единственный com.sun.net.httpserver.HttpServer.
+     */
+    private int shards = 0;
+    private ShardedListener listener;
+
+    /**
+     * Число итераций прогрева при запуске (параметр WARMUP, 0 - без прогрева, см. ServerWarmUp).
+     * Пока прогрев не завершен, запрос /ready получает ответ с кодом 503.
+     */
+    private int warmUpIterations = 0;
+    private SimpleHttpHandler handler;
+    private ServerWarmUp warmUp;
+
+    /**
+     * Время ожидания очередного запроса keep-alive соединения в режиме шардов (миллисекунды).
+     */
+    private static final int IDLE_TIMEOUT = 30000;
+
+    /**
+     * Путь к Unix domain сокету, на котором сервер принимает соединения наряду с портом
+     * (параметр UNIX_SOCKET_PATH, null - сокет не открывается), и права доступа к файлу сокета
+     * (параметр UNIX_SOCKET_MODE в восьмеричной записи, по умолчанию DEFAULT_UNIX_SOCKET_MODE).
+     */
+    static final String DEFAULT_UNIX_SOCKET_MODE = "660";
+    private String unixSocketPath;
+    private Set<PosixFilePermission> unixSocketPermissions;
+    private ShardedListener unixListener;
+
+    /**
+     * Индекс ответов сервера, построенный при инициализации из отображений значений и типов
+     * ответов (сами отображения после инициализации не хранятся).
+     */
+    private RouteIndex routes;
+
+    /**
+     * Итоговые наборы http заголовков ответов индекса: заголовки из настроек,
+     * дополненные Content-Type ответов типа binary и template.
+     */
+    private RouteIndex.Attribute<HeaderPolicy> headerPolicies;
+
+    /**
+     * Параметры ответов типа synthetic.
+     */
+    private RouteIndex.Attribute<SyntheticPayload> synthetics;
+
+    /**
+     * Рассылки событий ответов типа sse и исполнитель, передающий события подписчикам.
+     */
+    private RouteIndex.Attribute<EventBroadcaster> broadcasters;
+    private ExecutorService eventWriters;
+
+    /**
+     * Кэш открытых файлов ответов типа binary: наибольшее число файлов (параметр FILE_CACHE_ENTRIES)
+     * и интервал проверки их актуальности в миллисекундах (параметр FILE_CACHE_VALID).
+     */
+    private int fileCacheEntries = OpenFileCache.DEFAULT_ENTRIES;
+    private int fileCacheValid = OpenFileCache.DEFAULT_VALID_MILLIS;
+    private OpenFileCache fileCache;
+
+    /**
+     * Ответы типа batch и исполнитель, открывающий файлы ответов пакета.
+     */
+    private RouteIndex.Attribute<BatchRoute> batches;
+    private ExecutorService batchReaders;
+
+    /**
+     * Ответы типа sink и echo, принимающие тело POST и PUT запросов.
+     */
+    private RouteIndex.Attribute<UploadRoute> uploads;
+
+    /**
+     * Полосы обработки запросов: пулы потоков с ограниченными очередями по классам ответов
+     * (null - полосы не заданы).
+     */
+    private RouteLanes lanes;
+
+    /**
+     * Параметры задержки, скорости передачи и ошибок ответов индекса. Если они заданы (либо
+     * есть ответы типа sse), при запуске создается колесо таймеров с тиком TIMER_TICK
+     * и исполнитель сработавших задач колеса.
+     */
+    private RouteIndex.Attribute<ResponseShaping> shaping;
+    private TimerWheel wheel;
+    private ExecutorService timerExecutor;
+    private static final int TIMER_TICK = 1;
+    private static final int TIMER_WHEEL_SIZE = 4096;
+
+    /**
+     * Набор ответов, отображенный в память (используется при запуске из упакованного файла).
+     */
+    private ResponseBundle bundle;
+
+    /**
+     * Скомпилированные шаблоны ответов типа template (в порядке их следования в настройках).
+     */
+    private List<ResponseTemplate> templates = new ArrayList<>();
+
+    /**
+     * Обработчик ответов типа proxy (null если таких ответов нет).
+     */
+    private ReverseProxy proxy;
 
     BasicAuthenticator authenticator = new SimpleServerAuthenticator("simpleServerRealm");
 
@@ -55,6 +167,19 @@ public class SimpleHttpServer {
         public boolean checkCredentials(String user, String password) {
             return user.equals(getUser()) && password.equals(getPassword());
         }
+
+        /**
+         * Запросы состояния сервера (/live и /ready) для балансировщиков нагрузки
+         * не аутентифицируются.
+         */
+        @Override
+        public Result authenticate(HttpExchange exchange) {
+            if (exchange.getRequestMethod().equals("GET") &&
+                SimpleHttpHandler.isHealthQuery(exchange.getRequestURI().toString())) {
+                return new Success(new HttpPrincipal("", getRealm()));
+            }
+            return super.authenticate(exchange);
+        }
     }
 
     /**
@@ -79,6 +204,35 @@ public class SimpleHttpServer {
                 throwException(SimpleServerException.ILLEGAL_ARGUMENT);
             }
         }
+        for (Map.Entry<ConfigurationParameters, Object> parameter : parameters.entrySet()) {
+            switch (parameter.getKey()) {
+                case IS_ANY_HAS_ACCESS:
+                case PORT:
+                case USER:
+                case PASSWORD:
+                    break;
+                case UNIX_SOCKET_PATH:
+                case UNIX_SOCKET_MODE:
+                    if (parameter.getValue().getClass() != String.class) {
+                        throwException(SimpleServerException.ILLEGAL_ARGUMENT);
+                    }
+                    break;
+                default:
+                    if ((parameter.getValue().getClass() != Integer.class) || ((Integer) parameter.getValue() < 1)) {
+                        throwException(SimpleServerException.ILLEGAL_ARGUMENT);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Возвращает значение необязательного целочисленного параметра.
+     *
+     * @param defaultValue значение, возвращаемое при отсутствии параметра.
+     */
+    private static int getOptionalParameter(Map<ConfigurationParameters, Object> parameters,
+                                            ConfigurationParameters parameter, int defaultValue) {
+        return parameters.containsKey(parameter) ? (Integer) parameters.get(parameter) : defaultValue;
     }
 
     /**
@@ -90,13 +244,40 @@ public class SimpleHttpServer {
      *                   Должно содержать в себе значения:<br />
      *                   - объект Boolean с ключом IS_ANY_HAS_ACCESS;<br />
      *                   - объект Integer с ключом PORT;<br />
-     *                   - два объекта String с ключами USER и PASSWORD.
-     * @param responses  список с отображениями для инициализации this.responses.
+     *                   - два объекта String с ключами USER и PASSWORD.<br />
+     *                   Необязательные параметры THREADS, SHARDS, WARMUP, FILE_CACHE_* и PROXY_* должны быть положительными объектами Integer,
+     *                   параметры UNIX_SOCKET_* - объектами String.
+     * @param responses  список с отображениями значений и типов ответов, по которым строится индекс ответов.
      * @throws IllegalArgumentException в случае отсутствия либо несоответствия типа параметра
      *                                  в отображении parameters.
      */
     void initialize(Map<ConfigurationParameters, Object> parameters, List<Map<String, String>> responses) throws IllegalArgumentException {
-        this.responses = responses;
+        initialize(parameters, responses, new HashMap<String, HeaderPolicy>(), new HashMap<String, ResponseShaping>());
+    }
+
+    /**
+     * Метод инициализирующий сервер с заданными в настройках http заголовками и параметрами
+     * задержки ответов.
+     *
+     * @param headers наборы http заголовков ответов (ключ - запрос), см. ServerFactory.
+     * @param shaping параметры задержки, скорости передачи и ошибок ответов (ключ - запрос).
+     * @see #initialize(Map, List)
+     */
+    void initialize(Map<ConfigurationParameters, Object> parameters, List<Map<String, String>> responses,
+                    Map<String, HeaderPolicy> headers, Map<String, ResponseShaping> shaping) throws IllegalArgumentException {
+        initialize(parameters, responses, headers, shaping, null);
+    }
+
+    /**
+     * Метод инициализирующий сервер с полосами обработки запросов.
+     *
+     * @param lanes полосы обработки запросов (см. RouteLanes), либо null - запросы обрабатываются
+     *              потоками HttpServer либо шардов.
+     * @see #initialize(Map, List, Map, Map)
+     */
+    void initialize(Map<ConfigurationParameters, Object> parameters, List<Map<String, String>> responses,
+                    Map<String, HeaderPolicy> headers, Map<String, ResponseShaping> shaping,
+                    RouteLanes lanes) throws IllegalArgumentException {
         checkCorrectParameters(parameters);
         port = (Integer) parameters.get(ConfigurationParameters.PORT);
         if ((port > 65536) || (port < 1025)) {
@@ -107,9 +288,250 @@ public class SimpleHttpServer {
             password = (String) parameters.get(ConfigurationParameters.PASSWORD);
             user = (String) parameters.get(ConfigurationParameters.USER);
         }
+        threads = getOptionalParameter(parameters, ConfigurationParameters.THREADS, threads);
+        shards = getOptionalParameter(parameters, ConfigurationParameters.SHARDS, 0);
+        warmUpIterations = getOptionalParameter(parameters, ConfigurationParameters.WARMUP, 0);
+        fileCacheEntries = getOptionalParameter(parameters, ConfigurationParameters.FILE_CACHE_ENTRIES,
+            OpenFileCache.DEFAULT_ENTRIES);
+        fileCacheValid = getOptionalParameter(parameters, ConfigurationParameters.FILE_CACHE_VALID,
+            OpenFileCache.DEFAULT_VALID_MILLIS);
+        unixSocketPath = (String) parameters.get(ConfigurationParameters.UNIX_SOCKET_PATH);
+        if (unixSocketPath != null) {
+            String mode = parameters.containsKey(ConfigurationParameters.UNIX_SOCKET_MODE) ?
+                (String) parameters.get(ConfigurationParameters.UNIX_SOCKET_MODE) : DEFAULT_UNIX_SOCKET_MODE;
+            unixSocketPermissions = ShardedListener.parseMode(mode);
+        }
+        compileTemplates(responses);
+        createProxy(parameters, responses);
+        if (responses.size() < 2) {
+            routes = RouteIndex.build(new HashMap<String, String>(), new HashMap<String, String>(), false);
+        }
+        else {
+            routes = RouteIndex.build(responses.get(0), responses.get(1), false);
+        }
+        parseSynthetics();
+        resolveHeaders(headers);
+        this.shaping = routes.createAttribute(shaping);
+        createBroadcasters();
+        parseUploads();
+        parseBatches();
+        this.lanes = lanes;
         isInitialized = true;
     }
 
+    /**
+     * Компилирует шаблоны всех ответов типа template. Значением такого ответа является
+     * путь к файлу шаблона.
+     *
+     * @throws IllegalArgumentException в случае некорректного либо недоступного шаблона.
+     */
+    private void compileTemplates(List<Map<String, String>> responses) throws IllegalArgumentException {
+        templates = new ArrayList<>();
+        if (responses.size() < 2) {
+            return;
+        }
+        for (Map.Entry<String, String> type : responses.get(1).entrySet()) {
+            if (type.getValue().equals("template")) {
+                try {
+                    templates.add(ResponseTemplate.compile(type.getKey(), responses.get(0).get(type.getKey())));
+                }
+                catch (IOException e) {
+                    throw new IllegalArgumentException("Can't read template: \"" + responses.get(0).get(type.getKey()) + "\".");
+                }
+            }
+        }
+    }
+
+    /**
+     * Разбирает значения ответов типа synthetic (см. SyntheticPayload).
+     *
+     * @throws IllegalArgumentException в случае некорректного значения ответа.
+     */
+    private void parseSynthetics() throws IllegalArgumentException {
+        synthetics = new RouteIndex.Attribute<>(routes.size());
+        for (int route = 0; route < routes.size(); route++) {
+            if ("synthetic".equals(routes.getType(route))) {
+                synthetics.set(route, SyntheticPayload.parse(routes.getValue(route)));
+            }
+        }
+    }
+
+    /**
+     * Создает рассылки событий ответов типа sse (см. EventBroadcaster). Ответ sse не завершается,
+     * поэтому параметры задержки для него не применяются.
+     *
+     * @throws IllegalArgumentException в случае некорректного значения ответа.
+     */
+    private void createBroadcasters() throws IllegalArgumentException {
+        broadcasters = new RouteIndex.Attribute<>(routes.size());
+        for (int route = 0; route < routes.size(); route++) {
+            if ("sse".equals(routes.getType(route))) {
+                broadcasters.set(route, EventBroadcaster.parse(routes.getValue(route)));
+                shaping.set(route, null);
+            }
+        }
+    }
+
+    /**
+     * Разбирает значения ответов типа sink и echo (см. UploadRoute). Тело такого ответа
+     * передается по мере чтения тела запроса, поэтому параметры задержки для него не применяются.
+     *
+     * @throws IllegalArgumentException в случае некорректного значения ответа.
+     */
+    private void parseUploads() throws IllegalArgumentException {
+        uploads = new RouteIndex.Attribute<>(routes.size());
+        for (int route = 0; route < routes.size(); route++) {
+            String type = routes.getType(route);
+            if ("sink".equals(type) || "echo".equals(type)) {
+                uploads.set(route, UploadRoute.parse(type, routes.getValue(route)));
+                shaping.set(route, null);
+            }
+        }
+    }
+
+    /**
+     * Разбирает значения ответов типа batch (см. BatchRoute).
+     *
+     * @throws IllegalArgumentException в случае некорректного значения ответа.
+     */
+    private void parseBatches() throws IllegalArgumentException {
+        batches = new RouteIndex.Attribute<>(routes.size());
+        for (int route = 0; route < routes.size(); route++) {
+            if ("batch".equals(routes.getType(route))) {
+                batches.set(route, BatchRoute.parse(routes.getValue(route)));
+            }
+        }
+    }
+
+    /**
+     * Возвращает ответ типа sink либо echo, либо null.
+     */
+    UploadRoute getUpload(String query) {
+        return uploads.get(routes.find(query));
+    }
+
+    /**
+     * Публикует событие для подписчиков ответа типа sse.
+     *
+     * @param query запрос ответа типа sse.
+     * @param event имя события, либо null.
+     * @param data  данные события.
+     * @return возвращает номер события.
+     * @throws IllegalArgumentException в случае если ответ типа sse с запросом query не задан.
+     */
+    public long publish(String query, String event, String data) throws IllegalArgumentException {
+        EventBroadcaster broadcaster = isInitialized ? broadcasters.get(routes.find(query)) : null;
+        if (broadcaster == null) {
+            throw new IllegalArgumentException("Unknown sse response: \"" + query + "\".");
+        }
+        return broadcaster.publish(event, data);
+    }
+
+    /**
+     * Возвращает рассылку событий ответа типа sse, либо null.
+     */
+    EventBroadcaster getBroadcaster(String query) {
+        return broadcasters.get(routes.find(query));
+    }
+
+    /**
+     * Формирует итоговые наборы http заголовков для ответов типа inplace, binary, template,
+     * synthetic (application/octet-stream, если Content-Type не задан) и sse (text/event-stream).
+     * Ответы типа proxy передают заголовки вышестоящего сервера. Одинаковые наборы заголовков
+     * с одинаковым Content-Type создаются однократно и разделяются ответами.
+     */
+    private void resolveHeaders(Map<String, HeaderPolicy> headers) {
+        Map<String, String> templateTypes = new HashMap<>();
+        for (ResponseTemplate template : templates) {
+            templateTypes.put(template.getQuery(), template.getContentType());
+        }
+        Map<HeaderPolicy, Map<String, HeaderPolicy>> typedPolicies = new IdentityHashMap<>();
+        headerPolicies = new RouteIndex.Attribute<>(routes.size());
+        for (int route = 0; route < routes.size(); route++) {
+            String query = routes.getKey(route);
+            HeaderPolicy policy = headers.containsKey(query) ? headers.get(query) : HeaderPolicy.EMPTY;
+            switch (routes.getType(route)) {
+                case "binary":
+                    policy = withContentType(policy,
+                        SimpleHttpHandler.extractContentTypeByExtension(routes.getValue(route)), typedPolicies);
+                    break;
+                case "template":
+                    policy = withContentType(policy, templateTypes.get(query), typedPolicies);
+                    break;
+                case "synthetic":
+                    policy = withContentType(policy, "application/octet-stream", typedPolicies);
+                    break;
+                case "sse":
+                    if (policy.get("Cache-Control") == null) {
+                        policy = policy.merge(HeaderPolicy.parse("Cache-Control: no-cache", -1));
+                    }
+                    policy = policy.withContentType(EventBroadcaster.CONTENT_TYPE);
+                    break;
+                case "proxy":
+                    continue;
+            }
+            headerPolicies.set(route, policy);
+        }
+    }
+
+    private static HeaderPolicy withContentType(HeaderPolicy policy, String contentType,
+                                                Map<HeaderPolicy, Map<String, HeaderPolicy>> typedPolicies) {
+        Map<String, HeaderPolicy> byType = typedPolicies.get(policy);
+        if (byType == null) {
+            byType = new HashMap<>();
+            typedPolicies.put(policy, byType);
+        }
+        HeaderPolicy typed = byType.get(contentType);
+        if (typed == null) {
+            typed = policy.withContentType(contentType);
+            byType.put(contentType, typed);
+        }
+        return typed;
+    }
+
+    /**
+     * Создает обработчик ответов типа proxy, если такие ответы есть. Значением ответа
+     * является адрес вышестоящего сервера.
+     *
+     * @throws IllegalArgumentException в случае некорректного адреса вышестоящего сервера.
+     */
+    private void createProxy(Map<ConfigurationParameters, Object> parameters,
+                             List<Map<String, String>> responses) throws IllegalArgumentException {
+        proxy = null;
+        if (responses.size() < 2) {
+            return;
+        }
+        for (Map.Entry<String, String> type : responses.get(1).entrySet()) {
+            if (type.getValue().equals("proxy")) {
+                if (proxy == null) {
+                    proxy = new ReverseProxy(
+                        getOptionalParameter(parameters, ConfigurationParameters.PROXY_CONNECTIONS, 16),
+                        getOptionalParameter(parameters, ConfigurationParameters.PROXY_CONNECT_TIMEOUT, 2000),
+                        getOptionalParameter(parameters, ConfigurationParameters.PROXY_READ_TIMEOUT, 10000),
+                        getOptionalParameter(parameters, ConfigurationParameters.PROXY_IDLE_TIMEOUT, 30000),
+                        getOptionalParameter(parameters, ConfigurationParameters.PROXY_CACHE_ENTRIES, 1024),
+                        getOptionalParameter(parameters, ConfigurationParameters.PROXY_CACHE_ENTRY_SIZE, 1024 * 1024));
+                }
+                proxy.addRoute(type.getKey(), responses.get(0).get(type.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Метод инициализирующий сервер из упакованного набора ответов. Параметры сервера
+     * извлекаются из заголовка набора, ответы отдаются непосредственно из отображения.
+     *
+     * @param bundle отображенный в память набор ответов.
+     * @throws IllegalArgumentException в случае некорректных параметров в заголовке набора.
+     */
+    void initialize(ResponseBundle bundle) throws IllegalArgumentException {
+        List<Map<String, String>> emptyResponses = new ArrayList<>(2);
+        emptyResponses.add(new HashMap<String, String>());
+        emptyResponses.add(new HashMap<String, String>());
+        initialize(bundle.getParameters(), emptyResponses);
+        this.bundle = bundle;
+    }
+
     /**
      * Метод возбуждающий специфичные для класса исключения. Принимает параметр-перечисление
      * SimpleServerException, определенное в пакете me.chichikov.simplehttp.server.
@@ -128,22 +550,86 @@ public class SimpleHttpServer {
     /**
      * Метод запускающий сервер. Производится инициализация обработчика запросов и в
      * случае ограниченного доступа инициализируется экземпляр внутреннего класса
-     * SimpleServerAuthenticator.
+     * SimpleServerAuthenticator. Если задан параметр SHARDS, вместо HttpServer запускается
+     * ShardedListener с соответствующим числом сокетов SO_REUSEPORT. Если задан параметр
+     * UNIX_SOCKET_PATH, те же ответы дополнительно выдаются через Unix domain сокет. Если заданы
+     * полосы (RouteLanes), потоки приема передают запросы пулам потоков полос. Если задан параметр WARMUP,
+     * после открытия порта выполняется прогрев (см. ServerWarmUp): метод возвращает управление
+     * по окончании прогрева, а до тех пор запрос /ready получает ответ с кодом 503.
      *
      * @throws UnsupportedOperationException в случае если сервер не инициализирован.
      */
     public void start() throws IOException, UnsupportedOperationException {
         if (isInitialized) {
             if (!isRunning) {
-                SimpleHttpHandler handler = new SimpleHttpHandler();
-                handler.setResponses(responses);
-                server = HttpServer.create(new InetSocketAddress(port), 0);
-                HttpContext context = server.createContext("/", handler);
-                if (!isAnyHasAccess) {
-                    context.setAuthenticator(authenticator);
+                handler = new SimpleHttpHandler();
+                try {
+                    handler.setRoutes(routes, headerPolicies);
+                    handler.setSynthetics(synthetics);
+                    handler.setUploads(uploads);
+                    fileCache = new OpenFileCache(fileCacheEntries, fileCacheValid);
+                    handler.setFileCache(fileCache);
+                    if (!batches.isEmpty()) {
+                        batchReaders = Executors.newFixedThreadPool(threads);
+                    }
+                    handler.setBatches(batches, batchReaders);
+                    handler.setBroadcasters(broadcasters);
+                    handler.setReady(warmUpIterations == 0);
+                    handler.setBundle(bundle);
+                    handler.setTemplates(templates);
+                    handler.setProxy(proxy);
+                    if (!shaping.isEmpty() || !broadcasters.isEmpty()) {
+                        timerExecutor = Executors.newFixedThreadPool(threads);
+                        wheel = new TimerWheel(TIMER_TICK, TIMER_WHEEL_SIZE, timerExecutor);
+                        wheel.start();
+                        handler.setShapings(shaping, wheel);
+                    }
+                    if (!broadcasters.isEmpty()) {
+                        eventWriters = Executors.newFixedThreadPool(threads);
+                        for (int route = 0; route < routes.size(); route++) {
+                            if (broadcasters.get(route) != null) {
+                                broadcasters.get(route).start(eventWriters, wheel);
+                            }
+                        }
+                    }
+                    HttpHandler dispatcher = handler;
+                    if (lanes != null) {
+                        lanes.start(handler, routes, threads);
+                        dispatcher = lanes;
+                    }
+                    if (shards > 0) {
+                        listener = new ShardedListener(new InetSocketAddress(port), shards, threads, IDLE_TIMEOUT,
+                            dispatcher, isAnyHasAccess ? null : authenticator);
+                        listener.start();
+                    }
+                    else {
+                        server = HttpServer.create(new InetSocketAddress(port), 0);
+                        executor = Executors.newFixedThreadPool(threads);
+                        server.setExecutor(executor);
+                        HttpContext context = server.createContext("/", dispatcher);
+                        if (!isAnyHasAccess) {
+                            context.setAuthenticator(authenticator);
+                        }
+                        server.start();
+                    }
+                    if (unixSocketPath != null) {
+                        ShardedListener unix = new ShardedListener(UnixDomainSocketAddress.of(unixSocketPath),
+                            unixSocketPermissions, threads, IDLE_TIMEOUT, dispatcher, isAnyHasAccess ? null : authenticator);
+                        unix.start();
+                        unixListener = unix;
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    stopListeners();
+                    stopServices();
+                    throw e;
                 }
-                server.start();
                 isRunning = true;
+                if (warmUpIterations > 0) {
+                    warmUp = new ServerWarmUp(handler, routes, synthetics, bundle, warmUpIterations);
+                    warmUp.run();
+                }
+                handler.setReady(true);
             }
         }
         else {
@@ -158,20 +644,82 @@ public class SimpleHttpServer {
      */
     public void stop() throws UnsupportedOperationException {
         if (isInitialized && isRunning) {
-            server.stop(0);
+            stopListeners();
+            stopServices();
+            if (proxy != null) {
+                proxy.close();
+            }
         }
         else {
             throwException(SimpleServerException.UNSUPPORTED_OPERATION);
         }
     }
 
+    /**
+     * Останавливает потоки, запущенные методом start() помимо приема соединений: чтение
+     * пакетов, рассылку событий и колесо таймеров.
+     */
+    private void stopServices() {
+        if (fileCache != null) {
+            fileCache.clear();
+        }
+        if (batchReaders != null) {
+            batchReaders.shutdownNow();
+            batchReaders = null;
+        }
+        if (eventWriters != null) {
+            for (int route = 0; route < routes.size(); route++) {
+                if (broadcasters.get(route) != null) {
+                    broadcasters.get(route).stop();
+                }
+            }
+            eventWriters.shutdownNow();
+            eventWriters = null;
+        }
+        if (wheel != null) {
+            wheel.stop();
+            timerExecutor.shutdownNow();
+            wheel = null;
+        }
+    }
+
+    /**
+     * Закрывает открытые сокеты и останавливает потоки приема и обработки запросов (в том
+     * числе после неудачного запуска, когда часть из них не создана).
+     */
+    private void stopListeners() {
+        if (listener != null) {
+            listener.stop();
+        }
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (unixListener != null) {
+            unixListener.stop();
+            unixListener = null;
+        }
+        if (lanes != null) {
+            lanes.stop();
+        }
+    }
+
     @Override
     public String toString() {
         return "Server state:" +
             "\n- initialization " + (isInitialized() ? "performed;" : "not performed;") +
             "\n- start " + (isRunning() ? "performed;" : "not performed;") +
             "\n- access for all users " + (isAnyHasAccess() ? "allowed;" : "denied;") +
-            (isInitialized() ? ("\n- port listening: " + port + ";") : ("\n- no port available;"));
+            (isInitialized() ? ("\n- port listening: " + port + ";") : ("\n- no port available;")) +
+            (shards > 0 ? ("\n- SO_REUSEPORT shards: " + shards + ";") : "") +
+            (unixSocketPath != null ? ("\n- unix socket: " + unixSocketPath + ";") : "") +
+            (lanes != null ? ("\n- lanes: " + lanes + ";") : "") +
+            (warmUp != null ? ("\n- warm-up: " + warmUp.getExchanges() + " requests, " +
+                warmUp.getTouchedBytes() + " bytes read, " + warmUp.getMillis() + " ms;") : "");
     }
 
     SimpleHttpServer() {
@@ -186,6 +734,33 @@ public class SimpleHttpServer {
         return port;
     }
 
+    int getThreads() {
+        return threads;
+    }
+
+    int getShards() {
+        return shards;
+    }
+
+    String getUnixSocketPath() {
+        return unixSocketPath;
+    }
+
+    RouteLanes getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Возвращает запросы тренировочного запуска (см. FastStart): запросы /, /live, /ready и
+     * запросы прогрева сервера.
+     */
+    List<String> getTrainingQueries() {
+        List<String> queries = new ArrayList<>(Arrays.asList("/", SimpleHttpHandler.LIVE_QUERY,
+            SimpleHttpHandler.READY_QUERY));
+        queries.addAll(new ServerWarmUp(handler, routes, synthetics, bundle, 0).getQueries());
+        return queries;
+    }
+
     String getUser() {
         return user;
     }
@@ -201,4 +776,19 @@ public class SimpleHttpServer {
     public boolean isRunning() {
         return isRunning;
     }
+
+    /**
+     * Возвращает true, если сервер запущен и прогрет (см. start()).
+     */
+    public boolean isReady() {
+        return isRunning && handler.isReady();
+    }
+
+    OpenFileCache getFileCache() {
+        return fileCache;
+    }
+
+    ServerWarmUp getWarmUp() {
+        return warmUp;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,811 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * StreamHttpExchange - реализация HttpExchange поверх пары потоков ввода-вывода одного
+ * HTTP/1.1 соединения. Позволяет обрабатывать запросы тем же SimpleHttpHandler вне
+ * com.sun.net.httpserver.HttpServer (например, в ShardedListener). Семантика
+ * sendResponseHeaders() совпадает с HttpServer: длина больше нуля - тело фиксированной длины,
+ * 0 - chunked тело, -1 - ответ без тела. Ответ 100 Continue на запрос с заголовком
+ * Expect: 100-continue передается только при чтении тела запроса обработчиком. Ответы 1xx,
+ * 204 и 304 передаются без заголовка Content-Length (RFC 7230, 3.3.2).
+ *
+ * @since 1.7
+ */
+class StreamHttpExchange extends HttpExchange {
+
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    /**
+     * Сколько байт непрочитанного тела запроса допустимо пропустить, чтобы сохранить соединение.
+     */
+    private static final int MAX_DRAIN_SIZE = 64 * 1024;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
+
+    private final OutputStream connectionOut;
+    private final InetSocketAddress localAddress;
+    private final InetSocketAddress remoteAddress;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    private InputStream requestBody;
+    private OutputStream responseBody;
+    private OutputStream wrappedResponseBody;
+    private HttpPrincipal principal;
+    private int responseCode = -1;
+    private boolean isKeepAlive;
+    private boolean isClosed = false;
+
+    /**
+     * Завершение обмена (close()) выполнено полностью: тело ответа закрыто, остаток тела
+     * запроса пропущен.
+     */
+    private boolean isCompleted = false;
+    private boolean isDetached = false;
+    private boolean isAborted = false;
+
+    /**
+     * Клиент ожидает ответа 100 Continue перед передачей тела запроса (Expect: 100-continue).
+     */
+    private boolean isContinuePending = false;
+    private HttpConnection connection;
+
+    /**
+     * Заранее сформированный блок заголовков ответа (см. HeaderPolicy), либо null.
+     */
+    private byte[] headerBlock;
+
+    private StreamHttpExchange(InputStream in, OutputStream out, InetSocketAddress localAddress,
+                               InetSocketAddress remoteAddress, String method, URI uri, String protocol,
+                               Headers requestHeaders) throws IOException {
+        this.connectionOut = out;
+        this.localAddress = localAddress;
+        this.remoteAddress = remoteAddress;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+
+        String connectionHeader = requestHeaders.getFirst("Connection");
+        isKeepAlive = protocol.equals("HTTP/1.1") ?
+            !"close".equalsIgnoreCase(connectionHeader) : "keep-alive".equalsIgnoreCase(connectionHeader);
+
+        String transferEncoding = requestHeaders.getFirst("Transfer-Encoding");
+        String contentLength = requestHeaders.getFirst("Content-Length");
+        if ((transferEncoding != null) && transferEncoding.toLowerCase().contains("chunked")) {
+            requestBody = new ChunkedInputStream(in);
+        }
+        else if (contentLength != null) {
+            long length;
+            try {
+                length = Long.parseLong(contentLength.trim());
+            }
+            catch (NumberFormatException e) {
+                throw new BadRequestException("Invalid Content-Length: " + contentLength);
+            }
+            if (length < 0) {
+                throw new BadRequestException("Invalid Content-Length: " + contentLength);
+            }
+            requestBody = new FixedLengthInputStream(in, length);
+        }
+        else {
+            requestBody = new FixedLengthInputStream(in, 0);
+        }
+        if (protocol.equals("HTTP/1.1") && "100-continue".equalsIgnoreCase(requestHeaders.getFirst("Expect")) &&
+            ((transferEncoding != null) || ((contentLength != null) && !contentLength.trim().equals("0")))) {
+            isContinuePending = true;
+            requestBody = new ContinueInputStream(requestBody);
+        }
+    }
+
+    /**
+     * Читает очередной запрос из соединения.
+     *
+     * @param in  буферизованный поток ввода соединения.
+     * @param out буферизованный поток вывода соединения.
+     * @return возвращает новый обмен, либо null если соединение закрыто клиентом до начала запроса.
+     * @throws BadRequestException возбуждается при некорректном запросе.
+     */
+    static StreamHttpExchange read(InputStream in, OutputStream out, InetSocketAddress localAddress,
+                                   InetSocketAddress remoteAddress) throws IOException {
+        int[] headSize = new int[1];
+        String requestLine;
+        do {
+            requestLine = readLine(in, headSize);
+            if (requestLine == null) {
+                return null;
+            }
+        } while (requestLine.isEmpty());
+
+        String[] parts = requestLine.split(" ");
+        if ((parts.length != 3) || !parts[2].startsWith("HTTP/1.")) {
+            throw new BadRequestException("Invalid request line: " + requestLine);
+        }
+        URI uri;
+        try {
+            uri = new URI(parts[1]);
+        }
+        catch (URISyntaxException e) {
+            throw new BadRequestException("Invalid request URI: " + parts[1]);
+        }
+
+        Headers headers = new Headers();
+        String line;
+        while (!(line = requireLine(in, headSize)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new BadRequestException("Invalid header: " + line);
+            }
+            headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+        return new StreamHttpExchange(in, out, localAddress, remoteAddress, parts[0], uri, parts[2], headers);
+    }
+
+    /**
+     * Читает строку заголовка в кодировке ISO-8859-1.
+     *
+     * @return возвращает строку без CRLF, либо null при конце потока до первого байта строки.
+     */
+    private static String readLine(InputStream in, int[] headSize) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                if (line.length() == 0) {
+                    return null;
+                }
+                throw new EOFException();
+            }
+            if (++headSize[0] > MAX_HEAD_SIZE) {
+                throw new BadRequestException("Request head is too large.");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static String requireLine(InputStream in, int[] headSize) throws IOException {
+        String line = readLine(in, headSize);
+        if (line == null) {
+            throw new EOFException();
+        }
+        return line;
+    }
+
+    /**
+     * Передает клиенту ответ с пустым телом и закрывает соединение (используется для ответов
+     * на некорректные запросы и ошибки обработчика).
+     */
+    static void writeError(OutputStream out, int code) throws IOException {
+        out.write(("HTTP/1.1 " + code + " " + reasonPhrase(code) + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    /**
+     * Завершает обмен: закрывает тело ответа и пропускает непрочитанный остаток тела запроса.
+     * Если ответ не был передан, либо тело запроса слишком велико, соединение не сохраняется.
+     * Если обмен был отсоединен от соединения (см. detach()), соединение закрывается.
+     */
+    @Override
+    public void close() {
+        HttpConnection detachedConnection;
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            detachedConnection = isDetached ? connection : null;
+        }
+        try {
+            if (isContinuePending) {
+                isKeepAlive = false;
+            }
+            if (responseBody == null) {
+                isKeepAlive = false;
+            }
+            else {
+                getResponseBody().close();
+            }
+            if (isKeepAlive) {
+                long skipped = 0;
+                long count;
+                while ((skipped <= MAX_DRAIN_SIZE) && ((count = requestBody.skip(MAX_DRAIN_SIZE)) > 0)) {
+                    skipped += count;
+                }
+                if ((skipped > MAX_DRAIN_SIZE) || (requestBody.read() >= 0)) {
+                    isKeepAlive = false;
+                }
+            }
+        }
+        catch (IOException e) {
+            isKeepAlive = false;
+        }
+        synchronized (this) {
+            isCompleted = true;
+            notifyAll();
+        }
+        if (detachedConnection != null) {
+            detachedConnection.resume(isKeepAlive);
+        }
+    }
+
+    /**
+     * Отсоединяет незавершенный обмен от цикла обработки соединения: при вызове close() из
+     * другого потока соединение будет возобновлено (keep-alive) либо закрыто.
+     * Если обмен завершается в другом потоке, метод ожидает окончания завершения, чтобы цикл
+     * обработки не начал чтение следующего запроса, пока пропускается остаток тела текущего.
+     *
+     * @param connection соединение, которое необходимо возобновить по завершении обмена.
+     * @return возвращает false, если обмен уже завершен.
+     */
+    synchronized boolean detach(HttpConnection connection) {
+        while (isClosed && !isCompleted) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                isKeepAlive = false;
+                return false;
+            }
+        }
+        if (isClosed || isAborted) {
+            return false;
+        }
+        this.connection = connection;
+        isDetached = true;
+        return true;
+    }
+
+    /**
+     * Прерывает отсоединенный обмен, закрывая соединение (например, если клиент не успевает
+     * читать бесконечный ответ): заблокированная запись в соединение завершается исключением.
+     * Если обмен еще не отсоединен, соединение будет закрыто по возвращении из обработчика.
+     */
+    void abort() {
+        HttpConnection abortedConnection;
+        synchronized (this) {
+            isAborted = true;
+            isKeepAlive = false;
+            abortedConnection = isDetached ? connection : null;
+        }
+        if (abortedConnection != null) {
+            abortedConnection.close();
+        }
+    }
+
+    synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    boolean isKeepAlive() {
+        return isKeepAlive;
+    }
+
+    boolean isResponseSent() {
+        return responseCode >= 0;
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        if (wrappedResponseBody == null) {
+            wrappedResponseBody = new PendingOutputStream();
+        }
+        return wrappedResponseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int code, long length) throws IOException {
+        if (responseCode >= 0) {
+            throw new IOException("Headers already sent.");
+        }
+        responseCode = code;
+        if (isContinuePending || "close".equalsIgnoreCase(responseHeaders.getFirst("Connection"))) {
+            isKeepAlive = false;
+        }
+        boolean hasLength = (code >= 200) && (code != 204) && (code != 304);
+        boolean hasBody = hasLength && !method.equals("HEAD");
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(code).append(' ').append(reasonPhrase(code)).append("\r\n");
+        head.append("Date: ").append(formatDate(new Date())).append("\r\n");
+        if (length > 0) {
+            if (hasLength) {
+                responseHeaders.set("Content-Length", String.valueOf(length));
+            }
+            responseBody = hasBody ? new FixedLengthOutputStream(connectionOut, length) : new FixedLengthOutputStream(connectionOut, 0);
+        }
+        else if (length == 0) {
+            if (!hasBody) {
+                responseBody = new FixedLengthOutputStream(connectionOut, 0);
+            }
+            else if (protocol.equals("HTTP/1.1")) {
+                responseHeaders.set("Transfer-Encoding", "chunked");
+                responseBody = new ChunkedOutputStream(connectionOut);
+            }
+            else {
+                isKeepAlive = false;
+                responseBody = new FilterOutputStream(connectionOut) {
+                    @Override
+                    public void write(byte[] bytes, int offset, int length) throws IOException {
+                        out.write(bytes, offset, length);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.flush();
+                    }
+                };
+            }
+        }
+        else {
+            if (hasLength) {
+                responseHeaders.set("Content-Length", "0");
+            }
+            responseBody = new FixedLengthOutputStream(connectionOut, 0);
+        }
+        if (!isKeepAlive) {
+            responseHeaders.set("Connection", "close");
+        }
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (headerBlock == null) {
+            head.append("\r\n");
+            connectionOut.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+        else {
+            connectionOut.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            connectionOut.write(headerBlock);
+            connectionOut.write(CRLF);
+        }
+        if (length < 0) {
+            connectionOut.flush();
+        }
+    }
+
+    /**
+     * Добавляет к заголовкам ответа готовый блок строк "Имя: значение\r\n", который
+     * записывается в соединение как есть, без разбора и повторной сериализации.
+     */
+    void appendHeaderBlock(byte[] block) {
+        if (headerBlock == null) {
+            headerBlock = block;
+        }
+        else {
+            byte[] joined = Arrays.copyOf(headerBlock, headerBlock.length + block.length);
+            System.arraycopy(block, 0, joined, headerBlock.length, block.length);
+            headerBlock = joined;
+        }
+    }
+
+    /**
+     * Форматирует дату по RFC 1123 для http заголовков (Date, Expires).
+     */
+    static String formatDate(Date date) {
+        return DATE_FORMAT.get().format(date);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream in, OutputStream out) {
+        if (in != null) {
+            requestBody = in;
+        }
+        if (out != null) {
+            wrappedResponseBody = out;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return principal;
+    }
+
+    void setPrincipal(HttpPrincipal principal) {
+        this.principal = principal;
+    }
+
+    static String reasonPhrase(int code) {
+        switch (code) {
+            case 100:
+                return "Continue";
+            case 200:
+                return "OK";
+            case 204:
+                return "No Content";
+            case 206:
+                return "Partial Content";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 401:
+                return "Unauthorized";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            case 413:
+                return "Payload Too Large";
+            case 500:
+                return "Internal Server Error";
+            case 502:
+                return "Bad Gateway";
+            case 503:
+                return "Service Unavailable";
+            case 504:
+                return "Gateway Timeout";
+            default:
+                return "Status " + code;
+        }
+    }
+
+    /**
+     * Тело ответа, доступное до вызова sendResponseHeaders(): запись делегируется потоку,
+     * выбранному при передаче заголовков.
+     */
+    private class PendingOutputStream extends OutputStream {
+        private boolean isStreamClosed = false;
+
+        private OutputStream target() throws IOException {
+            if (responseBody == null) {
+                throw new IOException("sendResponseHeaders() was not called.");
+            }
+            if (isStreamClosed) {
+                throw new IOException("Response body is closed.");
+            }
+            return responseBody;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target().write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+            connectionOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!isStreamClosed && (responseBody != null)) {
+                isStreamClosed = true;
+                responseBody.close();
+                connectionOut.flush();
+            }
+        }
+    }
+
+    /**
+     * Тело ответа фиксированной длины.
+     */
+    private class FixedLengthOutputStream extends FilterOutputStream {
+        private long remaining;
+
+        FixedLengthOutputStream(OutputStream out, long length) {
+            super(out);
+            remaining = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > remaining) {
+                throw new IOException("Too many bytes to write to stream.");
+            }
+            out.write(bytes, offset, length);
+            remaining -= length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (remaining > 0) {
+                isKeepAlive = false;
+                throw new IOException("Insufficient bytes written to stream.");
+            }
+        }
+    }
+
+    /**
+     * Тело ответа в формате chunked transfer encoding.
+     */
+    private static class ChunkedOutputStream extends FilterOutputStream {
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > 0) {
+                out.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.write(bytes, offset, length);
+                out.write('\r');
+                out.write('\n');
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Тело запроса фиксированной длины.
+     */
+    private static class FixedLengthInputStream extends FilterInputStream {
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            super(in);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : (single[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = in.read(bytes, offset, (int) Math.min(length, remaining));
+            if (read < 0) {
+                throw new EOFException();
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = in.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Тело запроса с заголовком Expect: 100-continue. Промежуточный ответ 100 Continue
+     * передается при первом обращении к телу, если окончательный ответ еще не передан:
+     * обработчик, отклонивший запрос без чтения тела (например, кодом 413), избавляет клиента
+     * от передачи тела (соединение в этом случае не сохраняется).
+     */
+    private class ContinueInputStream extends FilterInputStream {
+
+        ContinueInputStream(InputStream in) {
+            super(in);
+        }
+
+        private void proceed() throws IOException {
+            if (isContinuePending) {
+                isContinuePending = false;
+                if (responseCode < 0) {
+                    connectionOut.write(CONTINUE);
+                    connectionOut.flush();
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            proceed();
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            proceed();
+            return in.read(bytes, offset, length);
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            proceed();
+            return in.skip(count);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Тело запроса в формате chunked transfer encoding.
+     */
+    private static class ChunkedInputStream extends FilterInputStream {
+        private long remaining = 0;
+        private boolean isFinished = false;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : (single[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (isFinished) {
+                return -1;
+            }
+            if (remaining == 0) {
+                int[] size = new int[1];
+                String line = requireLine(in, size);
+                try {
+                    remaining = Long.parseLong(line.split(";", 2)[0].trim(), 16);
+                }
+                catch (NumberFormatException e) {
+                    throw new BadRequestException("Invalid chunk size: " + line);
+                }
+                if (remaining < 0) {
+                    throw new BadRequestException("Invalid chunk size: " + line);
+                }
+                if (remaining == 0) {
+                    String trailer;
+                    while (((trailer = readLine(in, size)) != null) && !trailer.isEmpty()) {
+                        // trailers are ignored
+                    }
+                    isFinished = true;
+                    return -1;
+                }
+            }
+            int read = in.read(bytes, offset, (int) Math.min(length, remaining));
+            if (read < 0) {
+                throw new EOFException();
+            }
+            remaining -= read;
+            if (remaining == 0) {
+                requireLine(in, new int[1]);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(count, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return read < 0 ? 0 : read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Некорректный запрос клиента (ответ 400).
+     */
+    static class BadRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BadRequestException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * SyntheticPayload - ответ типа synthetic: тело из N байт без файла на диске, для нагрузочного
+ * тестирования сети и клиентов. Значение ответа - список параметров через пробел либо ';':<br />
+ * - size=N - размер тела по умолчанию (суффиксы k, m, g - кибибайты, мебибайты, гибибайты);<br />
+ * - param=name - параметр строки запроса, задающий размер тела (например /payload?size=1m);<br />
+ * - max=N - наибольший размер тела, задаваемый параметром (по умолчанию DEFAULT_MAX);<br />
+ * - mode=fixed|chunked - передача с Content-Length либо порциями (chunked);<br />
+ * - fill=random|pattern - содержимое тела: случайные байты либо повторяющиеся печатные символы.<br />
+ * Значение из одного числа равносильно size=N. Тело передается срезами общего заполненного
+ * заранее буфера, который никогда не изменяется, поэтому обработка запроса не выделяет память.
+ *
+ * @since 1.7
+ */
+class SyntheticPayload {
+
+    enum Mode {
+        FIXED, CHUNKED
+    }
+
+    enum Fill {
+        RANDOM, PATTERN
+    }
+
+    static final long DEFAULT_MAX = 1L << 30;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Общие буферы содержимого тела (только для чтения).
+     */
+    private static final byte[] RANDOM_BYTES = new byte[BUFFER_SIZE];
+    private static final byte[] PATTERN_BYTES = new byte[BUFFER_SIZE];
+
+    static {
+        new Random(BUFFER_SIZE).nextBytes(RANDOM_BYTES);
+        for (int i = 0; i < PATTERN_BYTES.length; i++) {
+            PATTERN_BYTES[i] = (byte) (' ' + i % ('~' - ' ' + 1));
+        }
+    }
+
+    private final long size;
+    private final long max;
+    private final String parameter;
+    private final Mode mode;
+    private final byte[] bytes;
+
+    SyntheticPayload(long size, long max, String parameter, Mode mode, Fill fill) {
+        if ((size < 0) || (max < size) || ((parameter != null) && parameter.isEmpty())) {
+            throw new IllegalArgumentException();
+        }
+        this.size = size;
+        this.max = max;
+        this.parameter = parameter;
+        this.mode = mode;
+        this.bytes = fill == Fill.RANDOM ? RANDOM_BYTES : PATTERN_BYTES;
+    }
+
+    /**
+     * Разбирает значение ответа типа synthetic (см. описание класса).
+     *
+     * @throws IllegalArgumentException возбуждается при неизвестном либо некорректном параметре.
+     */
+    static SyntheticPayload parse(String value) {
+        long size = 0;
+        long max = -1;
+        String parameter = null;
+        Mode mode = Mode.FIXED;
+        Fill fill = Fill.RANDOM;
+        for (String token : value.trim().split("[\\s;]+")) {
+            int equals = token.indexOf('=');
+            String name = equals < 0 ? "size" : token.substring(0, equals).toLowerCase(Locale.US);
+            String argument = token.substring(equals + 1);
+            switch (name) {
+                case "size":
+                    size = parseSize(argument);
+                    break;
+                case "max":
+                    max = parseSize(argument);
+                    break;
+                case "param":
+                    parameter = argument;
+                    break;
+                case "mode":
+                    mode = Mode.valueOf(argument.toUpperCase(Locale.US));
+                    break;
+                case "fill":
+                    fill = Fill.valueOf(argument.toUpperCase(Locale.US));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown synthetic parameter: \"" + name + "\".");
+            }
+        }
+        if (max < 0) {
+            max = parameter == null ? size : Math.max(size, DEFAULT_MAX);
+        }
+        return new SyntheticPayload(size, max, parameter, mode, fill);
+    }
+
+    /**
+     * Разбирает размер (число с необязательным суффиксом k, m либо g).
+     *
+     * @throws IllegalArgumentException возбуждается при некорректном размере.
+     */
+    static long parseSize(String text) {
+        long size = parseSize(text, 0, text.length());
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid size: \"" + text + "\".");
+        }
+        return size;
+    }
+
+    /**
+     * Разбирает размер (число с необязательным суффиксом k, m либо g) во фрагменте строки.
+     *
+     * @return возвращает размер в байтах, либо -1 если фрагмент не является размером
+     *         или размер не помещается в long.
+     */
+    private static long parseSize(String text, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        int shift = 0;
+        switch (Character.toLowerCase(text.charAt(end - 1))) {
+            case 'k':
+                shift = 10;
+                break;
+            case 'm':
+                shift = 20;
+                break;
+            case 'g':
+                shift = 30;
+                break;
+        }
+        if (shift > 0) {
+            end--;
+        }
+        if ((start == end) || (end - start > 15)) {
+            return -1;
+        }
+        long size = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return -1;
+            }
+            size = size * 10 + (c - '0');
+        }
+        return size > (Long.MAX_VALUE >> shift) ? -1 : size << shift;
+    }
+
+    /**
+     * Определяет размер тела ответа на запрос. Размер из параметра строки запроса
+     * ограничивается значением max.
+     *
+     * @return возвращает размер тела, либо -1 если параметр запроса некорректен.
+     */
+    long getSize(URI uri) {
+        String rawQuery = uri.getRawQuery();
+        if ((parameter == null) || (rawQuery == null)) {
+            return size;
+        }
+        int start = 0;
+        while (start <= rawQuery.length()) {
+            int end = rawQuery.indexOf('&', start);
+            if (end < 0) {
+                end = rawQuery.length();
+            }
+            if ((end - start > parameter.length()) && (rawQuery.charAt(start + parameter.length()) == '=') &&
+                rawQuery.regionMatches(start, parameter, 0, parameter.length())) {
+                long requested = parseSize(rawQuery, start + parameter.length() + 1, end);
+                return requested < 0 ? -1 : Math.min(requested, max);
+            }
+            start = end + 1;
+        }
+        return size;
+    }
+
+    /**
+     * Передает ответ: тело из size байт, записанное срезами общего буфера.
+     */
+    void write(HttpExchange exchange, long size) throws IOException {
+        if (mode == Mode.CHUNKED) {
+            exchange.sendResponseHeaders(200, 0);
+        }
+        else {
+            exchange.sendResponseHeaders(200, size == 0 ? -1 : size);
+        }
+        OutputStream out = exchange.getResponseBody();
+        long remaining = size;
+        while (remaining > 0) {
+            int length = (int) Math.min(remaining, bytes.length);
+            out.write(bytes, 0, length);
+            remaining -= length;
+        }
+        out.close();
+        exchange.close();
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    String getParameter() {
+        return parameter;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+}
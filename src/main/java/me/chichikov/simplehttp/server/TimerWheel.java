@@ -0,0 +1,159 @@
+package me.chichikov.simplehttp.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TimerWheel - хешированное колесо таймеров. Отложенные задачи раскладываются по ячейкам
+ * колеса (номер ячейки - время срабатывания в тиках по модулю размера колеса, задачи
+ * с временем больше оборота колеса ждут нужного числа оборотов). Единственный поток колеса
+ * на каждом тике передает сработавшие задачи исполнителю executor, поэтому ожидающие
+ * задачи не занимают потоков: стоимость отложенной задачи - одна запись в ячейке.
+ * Точность срабатывания - один тик.
+ *
+ * @since 1.7
+ */
+class TimerWheel {
+
+    /**
+     * Отложенная задача в ячейке колеса.
+     */
+    private static class Timeout {
+        final Runnable task;
+        final long deadlineTick;
+        long rounds;
+
+        Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<Timeout>[] buckets;
+    private final Executor executor;
+
+    /**
+     * Новые задачи, добавляемые в ячейки потоком колеса на очередном тике.
+     */
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread thread;
+    private final long startTime;
+    private volatile boolean isRunning = false;
+    private long tick = 0;
+
+    /**
+     * @param tickMillis длительность тика в миллисекундах.
+     * @param wheelSize  число ячеек колеса (округляется до степени двойки).
+     * @param executor   исполнитель сработавших задач.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimerWheel(long tickMillis, int wheelSize, Executor executor) {
+        if ((tickMillis < 1) || (wheelSize < 1)) {
+            throw new IllegalArgumentException();
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(wheelSize - 1 > 0 ? (wheelSize - 1) << 1 : 1);
+        this.mask = size - 1;
+        this.buckets = new List[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.executor = executor;
+        this.startTime = System.nanoTime();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "timer-wheel");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        isRunning = true;
+        thread.start();
+    }
+
+    /**
+     * Останавливает колесо. Несработавшие задачи отбрасываются.
+     */
+    void stop() {
+        isRunning = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Планирует выполнение задачи через delayMillis миллисекунд. Задача с нулевой
+     * задержкой выполняется на ближайшем тике.
+     */
+    void schedule(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        pending.incrementAndGet();
+        added.add(new Timeout(task, (deadline + tickNanos - 1) / tickNanos));
+    }
+
+    /**
+     * Возвращает число запланированных и еще не сработавших задач.
+     */
+    int getPendingCount() {
+        return pending.get();
+    }
+
+    private void work() {
+        while (isRunning) {
+            long next = (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime() - startTime) < next) {
+                LockSupport.parkNanos(next - now);
+                if (!isRunning) {
+                    return;
+                }
+            }
+            tick++;
+            transferAdded();
+            expire(buckets[(int) (tick & mask)]);
+        }
+    }
+
+    /**
+     * Раскладывает новые задачи по ячейкам. Задачи с уже прошедшим временем попадают
+     * в текущую ячейку.
+     */
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            long deadlineTick = Math.max(timeout.deadlineTick, tick);
+            timeout.rounds = (deadlineTick - tick) / buckets.length;
+            buckets[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        Iterator<Timeout> timeouts = bucket.iterator();
+        while (timeouts.hasNext()) {
+            Timeout timeout = timeouts.next();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                continue;
+            }
+            timeouts.remove();
+            pending.decrementAndGet();
+            try {
+                executor.execute(timeout.task);
+            }
+            catch (RejectedExecutionException ignored) {
+            }
+        }
+    }
+}
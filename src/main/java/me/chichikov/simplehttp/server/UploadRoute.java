@@ -0,0 +1,292 @@
+package me.chichikov.simplehttp.server;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UploadRoute - ответы типа sink и echo, принимающие тело POST и PUT запросов:<br />
+ * - sink - тело читается и отбрасывается (при необходимости вычисляется его хеш и оно
+ * записывается в файл), в ответ передается размер тела, время приема и скорость;<br />
+ * - echo - тело передается обратно клиенту по мере чтения.<br />
+ * Тело читается порциями в буфер потока-обработчика и никогда не накапливается в памяти
+ * целиком. Запрос с телом больше max отклоняется кодом 413; если размер известен заранее
+ * (Content-Length), тело не читается. В режиме шардов клиент, ожидающий 100 Continue,
+ * такое тело не передает; HttpServer JDK отвечает 100 Continue до вызова обработчика,
+ * поэтому клиент начинает передачу тела, и сервер закрывает соединение после ответа 413.
+ * GET запрос ответа возвращает общую статистику приема. Значение ответа - список параметров
+ * через пробел либо ';':<br />
+ * - max=N - наибольший размер тела (суффиксы k, m, g; по умолчанию DEFAULT_MAX);<br />
+ * - digest=алгоритм - хеш тела для sink, например sha-256 либо md5;<br />
+ * - store=каталог - sink записывает каждое тело в новый файл каталога (имя файла уникально,
+ * существующие файлы не перезаписываются, в том числе после перезапуска сервера).
+ *
+ * @since 1.7
+ */
+class UploadRoute {
+
+    static final long DEFAULT_MAX = 1L << 30;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Буфер чтения тела, переиспользуемый потоком-обработчиком.
+     */
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final boolean isEcho;
+    private final long max;
+    private final String digest;
+    private final File store;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    /**
+     * @param isEcho true для ответа echo, false для sink.
+     * @param max    наибольший размер тела запроса.
+     * @param digest алгоритм хеша тела (только sink), либо null.
+     * @param store  каталог для записи тел (только sink), либо null.
+     * @throws IllegalArgumentException возбуждается при неизвестном алгоритме хеша либо
+     *                                  недоступном каталоге.
+     */
+    UploadRoute(boolean isEcho, long max, String digest, File store) {
+        if ((max < 0) || (isEcho && ((digest != null) || (store != null)))) {
+            throw new IllegalArgumentException();
+        }
+        if (digest != null) {
+            try {
+                MessageDigest.getInstance(digest);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unknown digest: \"" + digest + "\".");
+            }
+        }
+        if ((store != null) && !store.isDirectory() && !store.mkdirs()) {
+            throw new IllegalArgumentException("Can't create directory: \"" + store + "\".");
+        }
+        this.isEcho = isEcho;
+        this.max = max;
+        this.digest = digest;
+        this.store = store;
+    }
+
+    /**
+     * Разбирает значение ответа типа sink либо echo (см. описание класса).
+     *
+     * @throws IllegalArgumentException возбуждается при неизвестном либо некорректном параметре.
+     */
+    static UploadRoute parse(String type, String value) {
+        long max = DEFAULT_MAX;
+        String digest = null;
+        File store = null;
+        for (String token : value.trim().split("[\\s;]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            int equals = token.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Invalid " + type + " parameter: \"" + token + "\".");
+            }
+            String argument = token.substring(equals + 1);
+            switch (token.substring(0, equals).toLowerCase(Locale.US)) {
+                case "max":
+                    max = SyntheticPayload.parseSize(argument);
+                    break;
+                case "digest":
+                    digest = argument.toUpperCase(Locale.US);
+                    break;
+                case "store":
+                    store = new File(argument);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown " + type + " parameter: \"" + token + "\".");
+            }
+        }
+        return new UploadRoute(type.equals("echo"), max, digest, store);
+    }
+
+    /**
+     * Принимает тело POST либо PUT запроса.
+     */
+    void receive(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        long length = -1;
+        if (contentLength != null) {
+            try {
+                length = Long.parseLong(contentLength.trim());
+            }
+            catch (NumberFormatException ignored) {
+            }
+        }
+        requests.incrementAndGet();
+        if (length > max) {
+            reject(exchange);
+            return;
+        }
+        if (isEcho) {
+            echo(exchange, length);
+        }
+        else {
+            sink(exchange);
+        }
+    }
+
+    private void reject(HttpExchange exchange) throws IOException {
+        rejected.incrementAndGet();
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(413, -1);
+        exchange.close();
+    }
+
+    private void sink(HttpExchange exchange) throws IOException {
+        MessageDigest messageDigest = null;
+        if (digest != null) {
+            try {
+                messageDigest = MessageDigest.getInstance(digest);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+        File file = store == null ? null : Files.createTempFile(store.toPath(), "upload-", ".bin").toFile();
+        byte[] buffer = BUFFER.get();
+        long total = 0;
+        long start = System.nanoTime();
+        try (InputStream in = exchange.getRequestBody();
+             OutputStream out = file == null ? null : new FileOutputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > max) {
+                    break;
+                }
+                if (messageDigest != null) {
+                    messageDigest.update(buffer, 0, read);
+                }
+                if (out != null) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes.addAndGet(Math.min(total, max));
+        nanos.addAndGet(elapsed);
+        if (total > max) {
+            if (file != null) {
+                file.delete();
+            }
+            reject(exchange);
+            return;
+        }
+
+        StringBuilder report = new StringBuilder(128);
+        report.append("{\"bytes\": ").append(total)
+            .append(", \"millis\": ").append(String.format(Locale.US, "%.3f", elapsed / 1e6))
+            .append(", \"bytesPerSecond\": ").append(rate(total, elapsed));
+        if (messageDigest != null) {
+            report.append(", \"").append(digest.toLowerCase(Locale.US)).append("\": \"")
+                .append(toHex(messageDigest.digest())).append('"');
+        }
+        if (file != null) {
+            report.append(", \"file\": \"").append(file.getName()).append('"');
+        }
+        writeJson(exchange, report.append("}").toString());
+    }
+
+    /**
+     * Передает тело запроса обратно: с той же длиной, если она известна, иначе chunked.
+     * При превышении max после начала ответа соединение разрывается.
+     */
+    private void echo(HttpExchange exchange, long length) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        exchange.getResponseHeaders().set("Content-Type", contentType == null ? "application/octet-stream" : contentType);
+        exchange.sendResponseHeaders(200, length > 0 ? length : (length == 0 ? -1 : 0));
+        byte[] buffer = BUFFER.get();
+        long total = 0;
+        long start = System.nanoTime();
+        try (InputStream in = exchange.getRequestBody(); OutputStream out = exchange.getResponseBody()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > max) {
+                    rejected.incrementAndGet();
+                    throw new IOException("Request body is larger than " + max + " bytes.");
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            bytes.addAndGet(Math.min(total, max));
+            nanos.addAndGet(System.nanoTime() - start);
+        }
+        exchange.close();
+    }
+
+    /**
+     * Передает общую статистику приема: число запросов (включая отклоненные), отклоненных
+     * запросов, байт и среднюю скорость приема тела.
+     */
+    void writeReport(HttpExchange exchange) throws IOException {
+        long totalBytes = bytes.get();
+        writeJson(exchange, "{\"requests\": " + requests.get() + ", \"rejected\": " + rejected.get() +
+            ", \"bytes\": " + totalBytes + ", \"bytesPerSecond\": " + rate(totalBytes, nanos.get()) + "}");
+    }
+
+    private static void writeJson(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        exchange.close();
+    }
+
+    private static long rate(long bytes, long nanos) {
+        return nanos == 0 ? 0 : Math.round(bytes * 1e9 / nanos);
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    boolean isEcho() {
+        return isEcho;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,174 @@
+package me.chichikov.simplehttp.server;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UpstreamPool - ограниченный пул keep-alive соединений с одним вышестоящим сервером
+ * (upstream). Число одновременно открытых соединений не превышает maxConnections:
+ * соединение занимает разрешение пула с момента получения до возврата, простаивающие
+ * соединения хранятся не дольше idleTimeout.
+ *
+ * @since 1.7
+ */
+class UpstreamPool {
+
+    private final String host;
+    private final int port;
+    private final boolean isSecure;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long idleTimeoutNanos;
+    private final Semaphore permits;
+    private final Deque<Connection> idle = new ArrayDeque<>();
+    private volatile boolean isClosed = false;
+
+    /**
+     * Соединение с вышестоящим сервером.
+     */
+    static class Connection {
+        private final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        private long idleSince;
+        private boolean isReused;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new BufferedInputStream(socket.getInputStream(), 8192);
+            out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        }
+
+        /**
+         * Возвращает true, если соединение было получено из числа простаивающих (и могло
+         * быть закрыто вышестоящим сервером за время простоя).
+         */
+        boolean isReused() {
+            return isReused;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    UpstreamPool(String host, int port, boolean isSecure, int maxConnections, int connectTimeout, int readTimeout,
+                 int idleTimeout) {
+        this.host = host;
+        this.port = port;
+        this.isSecure = isSecure;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Выдает простаивающее соединение, либо открывает новое. Ожидание свободного места
+     * в пуле ограничено connectTimeout.
+     *
+     * @throws SocketTimeoutException возбуждается если пул исчерпан либо истекло время соединения.
+     */
+    Connection acquire() throws IOException {
+        try {
+            if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("Upstream pool " + host + ":" + port + " is exhausted.");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        long now = System.nanoTime();
+        Connection connection;
+        while ((connection = pollIdle()) != null) {
+            if ((now - connection.idleSince < idleTimeoutNanos) && !connection.socket.isClosed()) {
+                connection.isReused = true;
+                return connection;
+            }
+            connection.close();
+        }
+
+        try {
+            return open();
+        }
+        catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Возвращает соединение в пул.
+     *
+     * @param isReusable true если ответ прочитан полностью и соединение может быть использовано повторно.
+     */
+    void release(Connection connection, boolean isReusable) {
+        if (isReusable && !isClosed) {
+            connection.idleSince = System.nanoTime();
+            synchronized (idle) {
+                idle.push(connection);
+            }
+        }
+        else {
+            connection.close();
+        }
+        permits.release();
+    }
+
+    /**
+     * Закрывает все простаивающие соединения, после чего пул перестает сохранять соединения.
+     */
+    void close() {
+        isClosed = true;
+        Connection connection;
+        while ((connection = pollIdle()) != null) {
+            connection.close();
+        }
+    }
+
+    private Connection pollIdle() {
+        synchronized (idle) {
+            return idle.poll();
+        }
+    }
+
+    private Connection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            if (isSecure) {
+                socket = ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+            }
+            socket.setSoTimeout(readTimeout);
+            return new Connection(socket);
+        }
+        catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+}
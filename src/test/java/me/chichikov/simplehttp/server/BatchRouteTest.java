@@ -0,0 +1,220 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.*;
+
+/**
+ * BatchRouteTest - юнит тесты (JUnit 4.11) для логики класса BatchRoute
+ *
+ * @since 1.7
+ */
+public class BatchRouteTest {
+
+    private static final String SETTINGS = "target/test-resources/settings-batch.xml";
+
+    /**
+     * Тест разбора значения ответа
+     */
+    @Test
+    public void parsing() {
+        assertEquals(BatchRoute.DEFAULT_MAX, BatchRoute.parse("").getMax());
+        BatchRoute batch = BatchRoute.parse("max=3; format=frames");
+        assertEquals(3, batch.getMax());
+        assertEquals(BatchRoute.Format.FRAMES, batch.getFormat());
+        for (String invalid : new String[]{"max=0", "max=x", "format=json", "16"}) {
+            try {
+                BatchRoute.parse(invalid);
+                fail(invalid);
+            }
+            catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Тест пакета multipart/mixed: ответы inplace, binary (с диска), template и коды частей
+     */
+    @Test
+    public void multipart() throws Exception {
+        final byte[] xml = Files.readAllBytes(Paths.get("target/test-resources/testdata/xml1.xml"));
+        TestServers.inEachMode(SETTINGS, new TestServers.ServerCheck() {
+            @Override
+            public void run(SimpleHttpServer server) throws Exception {
+                HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003/batch?" +
+                    keys("/text", "/xml1", "/orders/42?note=a", "/none", "/payload")).openConnection();
+                assertEquals(200, conn.getResponseCode());
+                String contentType = conn.getContentType();
+                assertTrue(contentType, contentType.startsWith("multipart/mixed; boundary="));
+                String boundary = contentType.substring(contentType.indexOf('=') + 1);
+                String body = new String(TestServers.readAll(conn.getInputStream()), StandardCharsets.UTF_8);
+
+                String[] parts = body.split("--" + boundary);
+                assertEquals(7, parts.length);
+                assertEquals("--\r\n", parts[6]);
+                assertEquals("\r\nContent-Type: text/xml; charset=utf-8\r\nContent-Location: /text\r\n" +
+                    "Content-Length: 17\r\nX-Status: 200\r\n\r\n<text>text</text>\r\n", parts[1]);
+                assertTrue(parts[2].contains("Content-Type: application/xml\r\n"));
+                assertTrue(parts[2].endsWith("\r\n\r\n" + new String(xml, StandardCharsets.UTF_8) + "\r\n"));
+                assertTrue(parts[3].contains("X-Status: 200\r\n"));
+                assertTrue(parts[3].contains("<order id=\"42\">"));
+                assertTrue(parts[3].contains("<note>a</note>"));
+                assertTrue(parts[4].contains("Content-Location: /none\r\nContent-Length: 0\r\nX-Status: 404\r\n"));
+                assertTrue(parts[5].contains("X-Status: 501\r\n"));
+            }
+        });
+    }
+
+    /**
+     * Тест пакета кадров, переданного POST запросом
+     */
+    @Test
+    public void frames() throws Exception {
+        byte[] image = Files.readAllBytes(Paths.get("target/test-resources/testdata/image1.png"));
+        SimpleHttpServer server = TestServers.createServer(SETTINGS, 2);
+        server.start();
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003/frames").openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write("/image1\r\n/text\n\n/image1\n".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(BatchRoute.FRAMES_CONTENT_TYPE, conn.getContentType());
+            byte[] body = TestServers.readAll(conn.getInputStream());
+
+            List<String> heads = new ArrayList<>();
+            List<byte[]> bodies = new ArrayList<>();
+            int offset = 0;
+            while (offset < body.length) {
+                int end = offset;
+                while (body[end] != '\n') {
+                    end++;
+                }
+                String head = new String(body, offset, end - offset - 1, StandardCharsets.UTF_8);
+                int length = Integer.parseInt(head.split(" ")[1]);
+                heads.add(head);
+                bodies.add(Arrays.copyOfRange(body, end + 1, end + 1 + length));
+                offset = end + 1 + length + 2;
+            }
+            assertEquals(Arrays.asList("200 " + image.length + " image/png /image1", "200 17 text/xml;charset=utf-8 /text",
+                "200 " + image.length + " image/png /image1"), heads);
+            assertArrayEquals(image, bodies.get(0));
+            assertArrayEquals("<text>text</text>".getBytes(StandardCharsets.UTF_8), bodies.get(1));
+            assertArrayEquals(image, bodies.get(2));
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Тест ограничения размера пакета
+     */
+    @Test
+    public void limits() throws Exception {
+        SimpleHttpServer server = TestServers.createServer(SETTINGS, 0);
+        server.start();
+        try {
+            assertEquals(413, TestServers.getResponseCode("/batch?" + keys("/text", "/text", "/text", "/text", "/text", "/text")));
+            assertEquals(200, TestServers.getResponseCode("/batch?" + keys("/text", "/text", "/text", "/text", "/text")));
+            assertEquals(400, TestServers.getResponseCode("/batch"));
+            assertEquals(400, TestServers.getResponseCode("/batch?other=1"));
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Тест передачи файлов частей из кэша открытых файлов: каждый файл освобождается после
+     * передачи, а при обрыве соединения освобождаются и файлы непереданных частей
+     */
+    @Test
+    public void streamedFiles() throws Exception {
+        OpenFileCache cache = new OpenFileCache(0, 0);
+        final byte[] image = Files.readAllBytes(Paths.get("target/test-resources/testdata/image1.png"));
+        BatchRoute batch = BatchRoute.parse("format=frames");
+
+        List<FutureTask<OpenFileCache.OpenFile>> files = openFiles(cache, 3);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        batch.write(exchange(output), parts(files), cache);
+        assertTrue(output.size() > 3 * image.length);
+        for (FutureTask<OpenFileCache.OpenFile> file : files) {
+            assertFalse(file.get().channel.isOpen());
+        }
+
+        files = openFiles(cache, 3);
+        OutputStream broken = new OutputStream() {
+            private int size = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++size > image.length / 2) {
+                    throw new IOException("Broken pipe");
+                }
+            }
+        };
+        try {
+            batch.write(exchange(broken), parts(files), cache);
+            fail();
+        }
+        catch (IOException ignored) {
+        }
+        for (FutureTask<OpenFileCache.OpenFile> file : files) {
+            assertFalse(file.get().channel.isOpen());
+        }
+    }
+
+    private static List<FutureTask<OpenFileCache.OpenFile>> openFiles(final OpenFileCache cache, int count) {
+        List<FutureTask<OpenFileCache.OpenFile>> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            FutureTask<OpenFileCache.OpenFile> file = new FutureTask<>(new Callable<OpenFileCache.OpenFile>() {
+                @Override
+                public OpenFileCache.OpenFile call() throws IOException {
+                    return cache.acquire("target/test-resources/testdata/image1.png");
+                }
+            });
+            file.run();
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static List<BatchRoute.Part> parts(List<FutureTask<OpenFileCache.OpenFile>> files) {
+        List<BatchRoute.Part> parts = new ArrayList<>();
+        for (FutureTask<OpenFileCache.OpenFile> file : files) {
+            parts.add(new BatchRoute.Part("/image1", "image/png", file));
+        }
+        return parts;
+    }
+
+    private static StreamHttpExchange exchange(OutputStream output) throws IOException {
+        return StreamHttpExchange.read(new ByteArrayInputStream("GET /batch HTTP/1.1\r\n\r\n"
+            .getBytes(StandardCharsets.ISO_8859_1)), output, null, null);
+    }
+
+    private static String keys(String... keys) throws IOException {
+        StringBuilder query = new StringBuilder();
+        for (String key : keys) {
+            query.append(query.length() == 0 ? "" : "&").append("key=").append(URLEncoder.encode(key, "UTF-8"));
+        }
+        return query.toString();
+    }
+}
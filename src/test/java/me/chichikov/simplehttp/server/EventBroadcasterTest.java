@@ -0,0 +1,283 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * EventBroadcasterTest - юнит тесты (JUnit 4.11) для логики класса EventBroadcaster
+ *
+ * @since 1.7
+ */
+public class EventBroadcasterTest {
+
+    private static final String SETTINGS = "target/test-resources/settings-sse.xml";
+
+    /**
+     * Подписчик, читающий поток событий через сокет.
+     */
+    private static class Client implements AutoCloseable {
+        final Socket socket;
+        final StringBuilder text = new StringBuilder();
+
+        Client(String lastEventId) throws IOException {
+            this("/events", lastEventId);
+        }
+
+        Client(String path, String lastEventId) throws IOException {
+            socket = new Socket("127.0.0.1", 5003);
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: x\r\n" +
+                (lastEventId == null ? "" : "Last-Event-ID: " + lastEventId + "\r\n") + "\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            read("\r\n\r\n");
+        }
+
+        /**
+         * Проверяет, что сервер закрыл соединение.
+         */
+        void assertClosed() throws IOException {
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                while (in.read(buffer) >= 0) {
+                }
+            }
+            catch (SocketTimeoutException e) {
+                fail("Evicted connection isn't closed.");
+            }
+            catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * Читает поток, пока в нем не встретится marker.
+         */
+        String read(String marker) throws IOException {
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[4096];
+            while (!text.toString().contains(marker)) {
+                int read = in.read(buffer);
+                if (read < 0) {
+                    fail("Stream closed before \"" + marker + "\": " + text);
+                }
+                text.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+            }
+            return text.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Тест сериализации событий
+     */
+    @Test
+    public void serialization() {
+        assertEquals("id: 7\ndata: one\ndata: two\ndata: \n\n",
+            new String(EventBroadcaster.serialize(7, null, "one\r\ntwo\n"), StandardCharsets.UTF_8));
+        assertEquals("id: 1\nevent: update\ndata: значение\n\n",
+            new String(EventBroadcaster.serialize(1, "update", "значение"), StandardCharsets.UTF_8));
+        try {
+            new EventBroadcaster(1, 1, 0, 1).publish("bad\nname", "");
+            fail();
+        }
+        catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Тест разбора значения ответа
+     */
+    @Test
+    public void parsing() {
+        EventBroadcaster.parse("");
+        EventBroadcaster.parse("replay=1 queue=1; heartbeat=0 timeout=100");
+        for (String invalid : new String[]{"replay=0", "queue=-1", "heartbeat=x", "timeout=0", "ring=5", "16"}) {
+            try {
+                EventBroadcaster.parse(invalid);
+                fail(invalid);
+            }
+            catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Тест рассылки, публикации POST запросом, повторной передачи и heartbeat
+     */
+    @Test
+    public void broadcasting() throws Exception {
+        TestServers.inEachMode(SETTINGS, new TestServers.ServerCheck() {
+            @Override
+            public void run(SimpleHttpServer server) throws Exception {
+                try (Client first = new Client(null); Client second = new Client(null)) {
+                    String head = first.text.toString().toLowerCase();
+                    assertTrue(head.contains("content-type: text/event-stream"));
+                    assertTrue(head.contains("cache-control: no-cache"));
+                    waitForSubscribers(server, 2);
+
+                    assertEquals(1, server.publish("/events", "update", "first"));
+                    first.read("data: first\n\n");
+                    second.read("id: 1\nevent: update\ndata: first\n\n");
+
+                    HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003/events?event=post").openConnection();
+                    conn.setRequestMethod("POST");
+                    conn.setDoOutput(true);
+                    try (OutputStream out = conn.getOutputStream()) {
+                        out.write("second".getBytes(StandardCharsets.UTF_8));
+                    }
+                    assertEquals(200, conn.getResponseCode());
+                    conn.getInputStream().close();
+                    first.read("id: 2\nevent: post\ndata: second\n\n");
+
+                    for (int i = 3; i <= 7; i++) {
+                        server.publish("/events", null, "event" + i);
+                    }
+                    first.read("data: event7");
+                    first.read(":\n\n");
+                }
+                try (Client resumed = new Client("5")) {
+                    String text = resumed.read("data: event7\n\n");
+                    assertFalse(text.contains("event5"));
+                    assertTrue(text.contains("id: 6\ndata: event6"));
+                }
+                try (Client lagging = new Client("1")) {
+                    String text = lagging.read("data: event7\n\n");
+                    assertFalse(text.contains("data: second"));
+                    assertTrue(text.contains("id: 4\ndata: event4"));
+                }
+            }
+        });
+    }
+
+    /**
+     * Тест рассылки большому числу подписчиков при двух потоках обработки
+     */
+    @Test
+    public void manySubscribers() throws Exception {
+        SimpleHttpServer server = TestServers.createServer(SETTINGS, 2);
+        server.start();
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < 500; i++) {
+                clients.add(new Client(null));
+            }
+            waitForSubscribers(server, 500);
+            server.publish("/events", null, "hello");
+            for (Client client : clients) {
+                client.read("data: hello\n\n");
+            }
+        }
+        finally {
+            for (Client client : clients) {
+                client.close();
+            }
+            server.stop();
+        }
+    }
+
+    /**
+     * Тест отключения подписчика, который не читает события, при переполнении его очереди
+     */
+    @Test
+    public void slowConsumerEviction() throws Exception {
+        TestServers.inEachMode(SETTINGS, new TestServers.ServerCheck() {
+            @Override
+            public void run(SimpleHttpServer server) throws Exception {
+                try (Client slow = new Client(null); Client fast = new Client(null)) {
+                    waitForSubscribers(server, "/events", 2);
+                    String event = largeEvent();
+                    EventBroadcaster broadcaster = server.getBroadcaster("/events");
+                    long first = broadcaster.getLastId() + 1;
+                    for (long i = first; (i < first + 2000) && (broadcaster.getEvictedCount() == 0); i++) {
+                        server.publish("/events", null, event);
+                        fast.text.setLength(0);
+                        fast.read("id: " + i + "\n");
+                    }
+                    assertEquals(1, broadcaster.getEvictedCount());
+                    assertEquals(1, broadcaster.getSubscriberCount());
+                    slow.assertClosed();
+                }
+            }
+        });
+    }
+
+    /**
+     * Тест отключения подписчиков, запись которым длится дольше timeout: заблокированные
+     * записи (их больше, чем потоков рассылки) не останавливают рассылку другим подписчикам
+     */
+    @Test
+    public void stalledWriters() throws Exception {
+        TestServers.inEachMode(SETTINGS, new TestServers.ServerCheck() {
+            @Override
+            public void run(SimpleHttpServer server) throws Exception {
+                List<Client> stalled = new ArrayList<>();
+                try {
+                    for (int i = 0; i < 3; i++) {
+                        stalled.add(new Client("/stalled", null));
+                    }
+                    waitForSubscribers(server, "/stalled", 3);
+                    String event = largeEvent();
+                    EventBroadcaster broadcaster = server.getBroadcaster("/stalled");
+                    for (int i = 0; i < 200; i++) {
+                        server.publish("/stalled", null, event);
+                    }
+                    for (int i = 0; (i < 500) && (broadcaster.getEvictedCount() < 3); i++) {
+                        Thread.sleep(10);
+                    }
+                    assertEquals(3, broadcaster.getEvictedCount());
+                    assertEquals(0, broadcaster.getSubscriberCount());
+                    for (Client client : stalled) {
+                        client.assertClosed();
+                    }
+
+                    try (Client fast = new Client(null)) {
+                        waitForSubscribers(server, "/events", 1);
+                        server.publish("/events", null, "delivered");
+                        fast.read("data: delivered\n\n");
+                    }
+                }
+                finally {
+                    for (Client client : stalled) {
+                        client.close();
+                    }
+                }
+            }
+        });
+    }
+
+    private static String largeEvent() {
+        char[] data = new char[64 * 1024];
+        Arrays.fill(data, 'x');
+        return new String(data);
+    }
+
+    private static void waitForSubscribers(SimpleHttpServer server, int count) throws InterruptedException {
+        waitForSubscribers(server, "/events", count);
+    }
+
+    private static void waitForSubscribers(SimpleHttpServer server, String query, int count)
+        throws InterruptedException {
+        EventBroadcaster broadcaster = server.getBroadcaster(query);
+        for (int i = 0; (i < 500) && (broadcaster.getSubscriberCount() < count); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, broadcaster.getSubscriberCount());
+    }
+}
@@ -0,0 +1,49 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * FastStartTest - юнит тесты (JUnit 4.11) для логики класса FastStart
+ *
+ * @since 1.7
+ */
+public class FastStartTest {
+
+    private static final String SETTINGS = "target/test-resources/settings-batch.xml";
+
+    /**
+     * Тест тренировочного запуска: ответ получен на каждый запрос прогрева и служебные запросы
+     */
+    @Test
+    public void training() throws Exception {
+        SimpleHttpServer server = new ServerFactory().getServerByXML(SETTINGS);
+        List<String> queries = server.getTrainingQueries();
+        assertTrue(queries.containsAll(Arrays.asList("/", "/live", "/ready", "/text", "/xml1", "/orders/warmup")));
+        assertEquals(queries.size(), FastStart.train(SETTINGS));
+        assertEquals(-1, FastStart.train("target/test-resources/settings-broken.xml"));
+    }
+
+    /**
+     * Тест измерения времени до первого ответа: сервер запускается в отдельной JVM и
+     * останавливается по окончании измерения
+     */
+    @Test
+    public void startup() throws Exception {
+        long nanos = FastStart.measureStartup(Collections.<String>emptyList(), SETTINGS, 5003, "/text");
+        assertTrue(nanos > 0);
+        try {
+            new Socket("127.0.0.1", 5003).close();
+            fail();
+        }
+        catch (ConnectException ignored) {
+        }
+    }
+}
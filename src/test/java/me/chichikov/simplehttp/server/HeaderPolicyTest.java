@@ -0,0 +1,95 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * HeaderPolicyTest - юнит тесты (JUnit 4.11) для логики класса HeaderPolicy
+ *
+ * @since 1.7
+ */
+public class HeaderPolicyTest {
+
+    private static HeaderPolicy policy(long expiresSeconds, String... pairs) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            headers.put(pairs[i], pairs[i + 1]);
+        }
+        return new HeaderPolicy(headers, expiresSeconds);
+    }
+
+    /**
+     * Тест сериализации набора заголовков
+     */
+    @Test
+    public void serialization() {
+        HeaderPolicy policy = policy(-1, "Cache-Control", "max-age=60", "X-Test", " value ");
+        assertArrayEquals(new String[]{"Cache-Control", "max-age=60", "X-Test", "value"}, policy.getPairs());
+        assertEquals("Cache-Control: max-age=60\r\nX-Test: value\r\n",
+            new String(policy.getBlock(), StandardCharsets.ISO_8859_1));
+        assertEquals("max-age=60", policy.get("cache-control"));
+        assertFalse(policy.isEmpty());
+        assertTrue(HeaderPolicy.EMPTY.isEmpty());
+    }
+
+    /**
+     * Тест объединения заголовков типа и ответа
+     */
+    @Test
+    public void merging() {
+        HeaderPolicy type = policy(60, "Cache-Control", "max-age=60", "X-Type", "1");
+        HeaderPolicy merged = type.merge(policy(-1, "cache-control", "no-store", "Expires", "0"));
+        assertArrayEquals(new String[]{"X-Type", "1", "cache-control", "no-store", "Expires", "0"}, merged.getPairs());
+        assertEquals(-1, merged.getExpiresSeconds());
+
+        merged = policy(-1, "Expires", "0").merge(policy(30));
+        assertEquals(0, merged.getPairs().length);
+        assertEquals(30, merged.getExpiresSeconds());
+
+        HeaderPolicy typed = merged.withContentType("image/png");
+        assertArrayEquals(new String[]{"Content-Type", "image/png"}, typed.getPairs());
+        assertSame(typed, typed.withContentType("text/plain"));
+    }
+
+    /**
+     * Тест вычисляемого заголовка Expires
+     */
+    @Test
+    public void relativeExpires() {
+        HeaderPolicy policy = policy(3600);
+        assertEquals("Thu, 01 Jan 1970 01:00:01 GMT", policy.getExpires(1500));
+        assertSame(policy.getExpires(1500), policy.getExpires(1999));
+        assertEquals("Thu, 01 Jan 1970 01:00:02 GMT", policy.getExpires(2000));
+    }
+
+    /**
+     * Тест заголовков, формируемых сервером, и недопустимых символов
+     */
+    @Test
+    public void invalidHeaders() {
+        for (String[] pair : new String[][]{{"Content-Length", "1"}, {"connection", "close"}, {"X-Test", "a\r\nb"}, {"", "a"}}) {
+            try {
+                policy(-1, pair[0], pair[1]);
+                fail(pair[0]);
+            }
+            catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Тест восстановления набора из блока
+     */
+    @Test
+    public void parsing() {
+        HeaderPolicy policy = HeaderPolicy.parse("Content-Type: image/png\r\nCache-Control: max-age=1, immutable\r\n", 5);
+        assertArrayEquals(new String[]{"Content-Type", "image/png", "Cache-Control", "max-age=1, immutable"}, policy.getPairs());
+        assertEquals(5, policy.getExpiresSeconds());
+        assertTrue(HeaderPolicy.parse("", -1).isEmpty());
+    }
+}
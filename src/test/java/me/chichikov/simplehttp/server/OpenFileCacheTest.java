@@ -0,0 +1,224 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * OpenFileCacheTest - юнит тесты (JUnit 4.11) для логики класса OpenFileCache
+ *
+ * @since 1.7
+ */
+public class OpenFileCacheTest {
+
+    private static String createFile(String name, String text) throws IOException {
+        File file = new File("target/file-cache", name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    /**
+     * Тест попаданий и вытеснения давно не использованных записей
+     */
+    @Test
+    public void eviction() throws IOException {
+        String a = createFile("a.txt", "a");
+        String b = createFile("b.txt", "bb");
+        String c = createFile("c.json", "ccc");
+        OpenFileCache cache = new OpenFileCache(2, 60000);
+
+        OpenFileCache.OpenFile first = cache.acquire(a);
+        cache.release(first);
+        OpenFileCache.OpenFile second = cache.acquire(a);
+        assertSame(first, second);
+        assertEquals(1, first.size);
+        assertEquals("text/plain", first.contentType);
+        cache.release(second);
+        cache.release(cache.acquire(b));
+        cache.release(cache.acquire(a));
+        assertEquals(2, cache.getHits());
+
+        OpenFileCache.OpenFile json = cache.acquire(c);
+        assertEquals("application/json", json.contentType);
+        cache.release(json);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(first.channel.isOpen());
+        cache.release(cache.acquire(b));
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+        assertFalse(first.channel.isOpen());
+    }
+
+    /**
+     * Тест подсчета ссылок: канал вытесненной записи закрывается после последней передачи
+     */
+    @Test
+    public void references() throws IOException {
+        String a = createFile("refs-a.txt", "referenced");
+        String b = createFile("refs-b.txt", "b");
+        OpenFileCache cache = new OpenFileCache(1, 60000);
+        OpenFileCache.OpenFile held = cache.acquire(a);
+        cache.release(cache.acquire(b));
+        assertEquals(1, cache.getEvictions());
+        assertTrue(held.channel.isOpen());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        held.transferTo(Channels.newChannel(out));
+        assertEquals("referenced", out.toString("UTF-8"));
+        assertEquals("referenced", new String(held.read().array(), StandardCharsets.UTF_8));
+        cache.release(held);
+        assertFalse(held.channel.isOpen());
+
+        OpenFileCache passThrough = new OpenFileCache(0, 0);
+        OpenFileCache.OpenFile entry = passThrough.acquire(a);
+        assertEquals(0, passThrough.size());
+        passThrough.release(entry);
+        assertFalse(entry.channel.isOpen());
+
+        try {
+            cache.acquire("target/file-cache/missing.txt");
+            fail();
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Тест проверки актуальности записей по интервалу, а не при каждом запросе
+     */
+    @Test
+    public void revalidation() throws Exception {
+        String a = createFile("changed.txt", "old");
+        OpenFileCache cache = new OpenFileCache(4, 200);
+        OpenFileCache.OpenFile old = cache.acquire(a);
+        cache.release(old);
+
+        Files.write(Paths.get(a), "new text".getBytes(StandardCharsets.UTF_8));
+        new File(a).setLastModified(old.modified + 5000);
+        OpenFileCache.OpenFile cached = cache.acquire(a);
+        assertSame(old, cached);
+        cache.release(cached);
+        assertEquals(0, cache.getRevalidations());
+
+        Thread.sleep(250);
+        OpenFileCache.OpenFile fresh = cache.acquire(a);
+        assertNotSame(old, fresh);
+        assertEquals(8, fresh.size);
+        assertEquals(1, cache.getRevalidations());
+        assertFalse(old.channel.isOpen());
+        cache.release(fresh);
+
+        Thread.sleep(250);
+        cache.release(cache.acquire(a));
+        assertEquals(2, cache.getRevalidations());
+        assertEquals(2, cache.getMisses());
+        cache.clear();
+        assertFalse(fresh.channel.isOpen());
+    }
+
+    /**
+     * Тест открытия файла вне блокировки кэша: пока открытие одного файла (FIFO без
+     * пишущей стороны) не завершено, другие файлы выдаются без ожидания
+     */
+    @Test(timeout = 10000)
+    public void slowOpen() throws Exception {
+        final String fifo = new File("target/file-cache", "slow.fifo").getPath();
+        new File(fifo).delete();
+        new File(fifo).getParentFile().mkdirs();
+        Process mkfifo;
+        try {
+            mkfifo = new ProcessBuilder("mkfifo", fifo).start();
+        }
+        catch (IOException e) {
+            mkfifo = null;
+        }
+        Assume.assumeTrue((mkfifo != null) && (mkfifo.waitFor() == 0));
+
+        final OpenFileCache cache = new OpenFileCache(4, 1000);
+        String a = createFile("fast.txt", "fast");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<OpenFileCache.OpenFile> slow = executor.submit(new Callable<OpenFileCache.OpenFile>() {
+                @Override
+                public OpenFileCache.OpenFile call() throws IOException {
+                    return cache.acquire(fifo);
+                }
+            });
+            Thread.sleep(100);
+            assertFalse(slow.isDone());
+            OpenFileCache.OpenFile fast = cache.acquire(a);
+            assertEquals(4, fast.size);
+            cache.release(fast);
+
+            new RandomAccessFile(fifo, "rw").close();
+            OpenFileCache.OpenFile opened = slow.get(5, TimeUnit.SECONDS);
+            assertSame(opened, cache.acquire(fifo));
+            cache.release(opened);
+            cache.release(opened);
+            assertEquals(2, cache.getMisses());
+        }
+        finally {
+            executor.shutdownNow();
+            new RandomAccessFile(fifo, "rw").close();
+            cache.clear();
+            new File(fifo).delete();
+        }
+    }
+
+    /**
+     * Тест чтения в память файла больше MAX_READ_SIZE
+     */
+    @Test
+    public void tooLargeToRead() throws IOException {
+        File file = new File("target/file-cache", "large.bin");
+        file.getParentFile().mkdirs();
+        try (RandomAccessFile sparse = new RandomAccessFile(file, "rw")) {
+            sparse.setLength(OpenFileCache.MAX_READ_SIZE + 1);
+        }
+        OpenFileCache cache = new OpenFileCache(4, 1000);
+        OpenFileCache.OpenFile entry = cache.acquire(file.getPath());
+        try {
+            entry.read();
+            fail();
+        }
+        catch (IOException ignored) {
+        }
+        finally {
+            cache.release(entry);
+            cache.clear();
+            assertTrue(file.delete());
+        }
+    }
+
+    /**
+     * Тест передачи ответов типа binary сервером через кэш открытых файлов
+     */
+    @Test
+    public void binaryResponses() throws Exception {
+        final byte[] image = Files.readAllBytes(Paths.get("target/test-resources/testdata/image1.png"));
+        TestServers.inEachMode("target/test-resources/settings-batch.xml", new TestServers.ServerCheck() {
+            @Override
+            public void run(SimpleHttpServer server) throws Exception {
+                for (int i = 0; i < 3; i++) {
+                    assertArrayEquals(image, TestServers.readAll(new URL("http://localhost:5003/image1").openStream()));
+                }
+                assertEquals(1, server.getFileCache().getMisses());
+                assertEquals(2, server.getFileCache().getHits());
+            }
+        });
+    }
+}
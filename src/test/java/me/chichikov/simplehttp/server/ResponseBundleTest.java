@@ -0,0 +1,117 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResponseBundleTest - юнит тесты (JUnit 4.11) для логики класса ResponseBundle
+ *
+ * @since 1.7
+ */
+public class ResponseBundleTest {
+
+    ResponseBundle bundle;
+
+    @Before
+    public void initTests() throws IOException {
+        assertTrue(new ServerFactory().packBundle("target/test-resources/settings.xml", "target/test-resources/settings.bundle"));
+        bundle = ResponseBundle.open("target/test-resources/settings.bundle");
+    }
+
+    /**
+     * Тест восстановления параметров сервера из заголовка
+     */
+    @Test
+    public void parametersFromHeader() {
+        Map<ConfigurationParameters, Object> parameters = bundle.getParameters();
+        assertEquals(5003, parameters.get(ConfigurationParameters.PORT));
+        assertTrue((Boolean) parameters.get(ConfigurationParameters.IS_ANY_HAS_ACCESS));
+        assertEquals("user", parameters.get(ConfigurationParameters.USER));
+        assertEquals("password", parameters.get(ConfigurationParameters.PASSWORD));
+    }
+
+    /**
+     * Тест поиска запросов в индексе
+     */
+    @Test
+    public void routeLookup() {
+        assertEquals(3, bundle.getRouteCount());
+        assertTrue(bundle.find("/xml1") >= 0);
+        assertTrue(bundle.find("/image1") >= 0);
+        assertTrue(bundle.find("/text") >= 0);
+        assertEquals(-1, bundle.find("/text1"));
+        assertEquals(-1, bundle.find("/tex"));
+        assertEquals(-1, bundle.find("/unknown"));
+        assertEquals(-1, bundle.find("/ф😀"));
+    }
+
+    /**
+     * Тест тел и заголовков ответов
+     */
+    @Test
+    public void bodiesAndHeaders() throws IOException {
+        int route = bundle.find("/xml1");
+        assertEquals(ResponseBundle.TYPE_BINARY, bundle.getType(route));
+        assertArrayEquals(new String[]{"Content-Type", "application/xml"}, bundle.getHeaders(route));
+        ByteBuffer body = bundle.getBody(route);
+        byte[] expected = Files.readAllBytes(Paths.get("target/test-resources/testdata/xml1.xml"));
+        byte[] actual = new byte[body.remaining()];
+        body.get(actual);
+        assertArrayEquals(expected, actual);
+
+        route = bundle.find("/text");
+        assertEquals(ResponseBundle.TYPE_INPLACE, bundle.getType(route));
+        assertEquals(0, bundle.getHeaders(route).length);
+        body = bundle.getBody(route);
+        assertEquals("<text>text</text>", StandardCharsets.UTF_8.decode(body).toString());
+
+        body = bundle.getBody(bundle.find("/image1"));
+        assertEquals(Files.size(Paths.get("target/test-resources/testdata/image1.png")), body.remaining());
+    }
+
+    /**
+     * Тест сравнения строки с байтами UTF-8
+     */
+    @Test
+    public void utf8Comparison() {
+        String string = "/ф😀";
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        assertEquals(0, ResponseBundle.compareUtf8(ByteBuffer.wrap(bytes), 0, bytes.length, string));
+        assertTrue(ResponseBundle.compareUtf8(ByteBuffer.wrap(bytes), 0, bytes.length - 1, string) < 0);
+        assertTrue(ResponseBundle.compareUtf8(ByteBuffer.wrap(bytes), 0, bytes.length, "/ф") > 0);
+    }
+
+    /**
+     * Тест файла, не являющегося набором ответов
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBundle() throws IOException {
+        ResponseBundle.open("target/test-resources/settings.xml");
+    }
+
+    /**
+     * Тест упаковки заданных в настройках http заголовков
+     */
+    @Test
+    public void packedHeaders() throws IOException {
+        assertTrue(new ServerFactory().packBundle("target/test-resources/settings-headers.xml", "target/test-resources/headers.bundle"));
+        ResponseBundle headersBundle = ResponseBundle.open("target/test-resources/headers.bundle");
+        HeaderPolicy policy = headersBundle.getHeaderPolicy(headersBundle.find("/image1"));
+        assertEquals("image/png", policy.get("Content-Type"));
+        assertEquals("max-age=31536000, immutable", policy.get("Cache-Control"));
+        assertEquals(600, policy.getExpiresSeconds());
+        policy = headersBundle.getHeaderPolicy(headersBundle.find("/text"));
+        assertEquals("application/xml", policy.get("Content-Type"));
+        assertEquals(-1, policy.getExpiresSeconds());
+        assertEquals(-1, bundle.getHeaderPolicy(bundle.find("/text")).getExpiresSeconds());
+    }
+}
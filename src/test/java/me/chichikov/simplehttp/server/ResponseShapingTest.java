@@ -0,0 +1,97 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResponseShapingTest - юнит тесты (JUnit 4.11) для логики класса ResponseShaping
+ *
+ * @since 1.7
+ */
+public class ResponseShapingTest {
+
+    Random random = new Random(17);
+
+    /**
+     * Тест распределений задержки
+     */
+    @Test
+    public void distributions() {
+        assertEquals(0, new ResponseShaping(null, null, 0, 0, 500).nextDelay(random));
+        assertEquals(250, new ResponseShaping(ResponseShaping.Distribution.FIXED, new double[]{250}, 0, 0, 500).nextDelay(random));
+
+        ResponseShaping uniform = new ResponseShaping(ResponseShaping.Distribution.UNIFORM, new double[]{50, 150}, 0, 0, 500);
+        ResponseShaping normal = new ResponseShaping(ResponseShaping.Distribution.NORMAL, new double[]{10, 50}, 0, 0, 500);
+        long sum = 0;
+        for (int i = 0; i < 10000; i++) {
+            long delay = uniform.nextDelay(random);
+            assertTrue((delay >= 50) && (delay <= 150));
+            sum += delay;
+            assertTrue(normal.nextDelay(random) >= 0);
+        }
+        assertEquals(100, sum / 10000.0, 2);
+    }
+
+    /**
+     * Тест таблицы перцентилей
+     */
+    @Test
+    public void percentileTable() {
+        ResponseShaping table = new ResponseShaping(ResponseShaping.Distribution.TABLE,
+            new double[]{50, 20, 90, 100, 99, 300}, 0, 0, 500);
+        assertEquals(10, table.percentile(25), 1e-9);
+        assertEquals(20, table.percentile(50), 1e-9);
+        assertEquals(60, table.percentile(70), 1e-9);
+        assertEquals(300, table.percentile(99.5), 1e-9);
+
+        long[] delays = new long[10000];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = table.nextDelay(random);
+        }
+        java.util.Arrays.sort(delays);
+        assertEquals(20, delays[5000], 2);
+        assertEquals(100, delays[9000], 5);
+    }
+
+    /**
+     * Тест внесения ошибок
+     */
+    @Test
+    public void errors() {
+        assertFalse(new ResponseShaping(null, null, 0, 0, 500).nextIsError(random));
+        ResponseShaping always = new ResponseShaping(null, null, 0, 1, 503);
+        assertTrue(always.nextIsError(random));
+        assertEquals(503, always.getErrorStatus());
+    }
+
+    /**
+     * Тест некорректных параметров
+     */
+    @Test
+    public void invalidParameters() {
+        double[][] tables = {{150, 50}, {-1, 10}, {50}};
+        for (double[] parameters : tables) {
+            try {
+                new ResponseShaping(ResponseShaping.Distribution.UNIFORM, parameters, 0, 0, 500);
+                fail();
+            }
+            catch (IllegalArgumentException ignored) {
+            }
+        }
+        try {
+            new ResponseShaping(ResponseShaping.Distribution.TABLE, new double[]{90, 20, 50, 30}, 0, 0, 500);
+            fail();
+        }
+        catch (IllegalArgumentException ignored) {
+        }
+        try {
+            new ResponseShaping(null, null, 0, 1.5, 500);
+            fail();
+        }
+        catch (IllegalArgumentException ignored) {
+        }
+    }
+}
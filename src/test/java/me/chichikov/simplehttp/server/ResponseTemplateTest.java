@@ -0,0 +1,92 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * ResponseTemplateTest - юнит тесты (JUnit 4.11) для логики класса ResponseTemplate
+ *
+ * @since 1.7
+ */
+public class ResponseTemplateTest {
+
+    private String render(ResponseTemplate template, String uri) {
+        URI requestUri = URI.create(uri);
+        assertTrue(template.matches(requestUri.getRawPath()));
+        ResponseTemplate.Output output = template.render(requestUri);
+        return new String(output.getBytes(), 0, output.getSize(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Тест соответствия пути запроса шаблону
+     */
+    @Test
+    public void pathMatching() {
+        ResponseTemplate template = ResponseTemplate.compile("/orders/{id}", new byte[0], null);
+        assertTrue(template.matches("/orders/42"));
+        assertFalse(template.matches("/orders/"));
+        assertFalse(template.matches("/orders"));
+        assertFalse(template.matches("/orders/42/items"));
+        assertFalse(template.matches("/order/42"));
+    }
+
+    /**
+     * Тест подстановок с экранированием для xml
+     */
+    @Test
+    public void xmlSubstitution() {
+        ResponseTemplate template = ResponseTemplate.compile("/orders/{id}",
+            "<order id=\"{{path.id}}\">{{query.note}}</order>".getBytes(StandardCharsets.UTF_8), "application/xml");
+        assertEquals(ResponseTemplate.Escaping.XML, template.getEscaping());
+        assertEquals("<order id=\"42\">a &lt;b&gt; &amp; ф</order>",
+            render(template, "/orders/42?x=1&note=a+%3Cb%3E+%26+%D1%84"));
+        assertEquals("<order id=\"&quot;7&quot;\"></order>", render(template, "/orders/%227%22"));
+    }
+
+    /**
+     * Тест подстановок с экранированием для json
+     */
+    @Test
+    public void jsonSubstitution() {
+        ResponseTemplate template = ResponseTemplate.compile("/orders/{id}/json",
+            "{\"id\": \"{{ path.id }}\", \"note\": \"{{query.note}}\"}".getBytes(StandardCharsets.UTF_8), "application/json");
+        assertEquals("{\"id\": \"42\", \"note\": \"say \\\"hi\\\"\\u000a\"}",
+            render(template, "/orders/42/json?note=say%20%22hi%22%0A"));
+    }
+
+    /**
+     * Тест декодирования символов вне ASCII и замены некорректных последовательностей UTF-8
+     * символом U+FFFD
+     */
+    @Test
+    public void utf8Decoding() {
+        ResponseTemplate template = ResponseTemplate.compile("/orders/{id}",
+            "<order id=\"{{path.id}}\">{{query.note}}</order>".getBytes(StandardCharsets.UTF_8), "application/xml");
+        assertEquals("<order id=\"ф€\">\uD834\uDD1E &amp; ф</order>", render(template, "/orders/ф€?note=\uD834\uDD1E+%26+%D1%84"));
+        assertEquals("<order id=\"a\uFFFDb\">\uFFFD&lt;</order>", render(template, "/orders/a%FFb?note=%D1%3C"));
+        assertEquals("<order id=\"\uFFFD\uFFFD\uFFFD\">\uFFFD</order>", render(template, "/orders/%C0%AF%ED%A0%80?note=%E2%82"));
+    }
+
+    /**
+     * Тест шаблона из файла
+     */
+    @Test
+    public void fileTemplate() throws IOException {
+        ResponseTemplate template = ResponseTemplate.compile("/orders/{id}", "target/test-resources/testdata/order.xml");
+        assertEquals("application/xml", template.getContentType());
+        assertTrue(render(template, "/orders/5?note=n").contains("<order id=\"5\">\n    <note>n</note>"));
+    }
+
+    /**
+     * Тест подстановки, не определенной в запросе шаблона
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPlaceholder() {
+        ResponseTemplate.compile("/orders/{id}", "{{path.name}}".getBytes(StandardCharsets.UTF_8), null);
+    }
+}
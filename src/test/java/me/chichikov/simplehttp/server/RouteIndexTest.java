@@ -0,0 +1,114 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * RouteIndexTest - юнит тесты (JUnit 4.11) для логики класса RouteIndex
+ *
+ * @since 1.7
+ */
+public class RouteIndexTest {
+
+    private static RouteIndex index(boolean isDirect, String... routes) {
+        Map<String, String> values = new HashMap<>();
+        Map<String, String> types = new HashMap<>();
+        for (int i = 0; i < routes.length; i += 3) {
+            values.put(routes[i], routes[i + 1]);
+            types.put(routes[i], routes[i + 2]);
+        }
+        return RouteIndex.build(values, types, isDirect);
+    }
+
+    /**
+     * Тест поиска ответов, значений и типов
+     */
+    @Test
+    public void lookup() {
+        for (boolean isDirect : new boolean[]{false, true}) {
+            RouteIndex index = index(isDirect,
+                "/text", "<text>text</text>", "inplace",
+                "/image", "image1.png", "binary",
+                "/документ", "значение", "inplace",
+                "/emoji/😀", "", "inplace");
+            assertEquals(4, index.size());
+
+            int route = index.find("/text");
+            assertEquals("/text", index.getKey(route));
+            assertEquals("<text>text</text>", index.getValue(route));
+            assertEquals("inplace", index.getType(route));
+            assertEquals("binary", index.getType(index.find("/image")));
+            assertEquals("значение", index.getValue(index.find(new StringBuilder("/документ"))));
+            assertEquals("", index.getValue(index.find("/emoji/😀")));
+
+            assertEquals(-1, index.find("/tex"));
+            assertEquals(-1, index.find("/texts"));
+            assertEquals(-1, index.find("/emoji/😁"));
+            assertEquals(-1, index.find(""));
+        }
+        assertEquals(-1, index(false).find("/text"));
+    }
+
+    /**
+     * Тест поиска в большом индексе
+     */
+    @Test
+    public void largeIndex() {
+        Map<String, String> values = new HashMap<>();
+        Map<String, String> types = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            values.put("/items/" + i, "item" + i);
+            types.put("/items/" + i, i % 2 == 0 ? "inplace" : "binary");
+        }
+        RouteIndex index = RouteIndex.build(values, types, false);
+        for (int i = 0; i < 100000; i += 7) {
+            int route = index.find("/items/" + i);
+            assertEquals("item" + i, index.getValue(route));
+            assertEquals(i % 2 == 0 ? "inplace" : "binary", index.getType(route));
+        }
+        assertEquals(-1, index.find("/items/100000"));
+        assertEquals(-1, index.find("/items/-1"));
+    }
+
+    /**
+     * Тест значения ответа в виде среза буфера
+     */
+    @Test
+    public void valueBytes() {
+        RouteIndex index = index(true, "/a", "первый", "inplace", "/b", "second", "inplace");
+        ByteBuffer value = index.getValueBytes(index.find("/a"));
+        assertTrue(value.isReadOnly());
+        byte[] bytes = new byte[value.remaining()];
+        value.get(bytes);
+        assertEquals("первый", new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(6, index.getValueBytes(index.find("/b")).remaining());
+        assertEquals(-1, index.find("/missing"));
+    }
+
+    /**
+     * Тест атрибутов ответов: одинаковые значения хранятся однократно
+     */
+    @Test
+    public void attributes() {
+        RouteIndex index = index(false, "/a", "a", "inplace", "/b", "b", "inplace", "/c", "c", "inplace");
+        HeaderPolicy policy = HeaderPolicy.parse("Cache-Control: no-store\r\n", -1);
+        Map<String, HeaderPolicy> headers = new HashMap<>();
+        headers.put("/a", policy);
+        headers.put("/b", policy);
+        headers.put("/unknown", HeaderPolicy.EMPTY);
+        RouteIndex.Attribute<HeaderPolicy> attribute = index.createAttribute(headers);
+        assertSame(policy, attribute.get(index.find("/a")));
+        assertSame(policy, attribute.get(index.find("/b")));
+        assertNull(attribute.get(index.find("/c")));
+        assertNull(attribute.get(-1));
+        assertEquals(1, attribute.getDistinctCount());
+        assertFalse(attribute.isEmpty());
+        assertTrue(index.createAttribute(new HashMap<String, HeaderPolicy>()).isEmpty());
+    }
+}
@@ -0,0 +1,129 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * RouteLanesTest - юнит тесты (JUnit 4.11) для логики класса RouteLanes
+ *
+ * @since 1.7
+ */
+public class RouteLanesTest {
+
+    private static final String SETTINGS = "target/test-resources/settings-lanes.xml";
+
+    /**
+     * Тест определения полос и назначения их ответам
+     */
+    @Test
+    public void definitions() {
+        RouteLanes lanes = new RouteLanes();
+        lanes.define(RouteLanes.SYSTEM, 4, 16);
+        lanes.define("bulk", 2, 8);
+        lanes.assign("/file", "bulk");
+        assertEquals(4, lanes.getLane(RouteLanes.SYSTEM).getThreads());
+        assertEquals(RouteLanes.DEFAULT_QUEUE, lanes.getLane(RouteLanes.DEFAULT).getCapacity());
+        assertEquals("system(4), default(THREADS), bulk(2)", lanes.toString());
+        for (String[] invalid : new String[][]{{"bulk", "1", "1"}, {"", "1", "1"}, {"slow", "-1", "1"}, {"slow", "1", "0"}}) {
+            try {
+                lanes.define(invalid[0], Integer.parseInt(invalid[1]), Integer.parseInt(invalid[2]));
+                fail(invalid[0]);
+            }
+            catch (IllegalArgumentException ignored) {
+            }
+        }
+        try {
+            lanes.assign("/other", "unknown");
+            fail();
+        }
+        catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Тест изоляции полос: занятая полоса bulk не задерживает ответы полос default и system,
+     * переполнение ее очереди отклоняется кодом 503, отчет содержит загрузку и насыщение полосы
+     */
+    @Test
+    public void isolation() throws Exception {
+        TestServers.inEachMode(SETTINGS, new TestServers.ServerCheck() {
+            @Override
+            public void run(SimpleHttpServer server) throws Exception {
+                List<Socket> uploads = new ArrayList<>();
+                try {
+                    RouteLanes.Lane bulk = server.getLanes().getLane("bulk");
+                    uploads.add(startUpload());
+                    waitFor(bulk, 1, 0);
+                    uploads.add(startUpload());
+                    waitFor(bulk, 1, 1);
+
+                    assertEquals(503, TestServers.getResponseCode("/xml1"));
+                    assertEquals(1, bulk.getRejected());
+                    long start = System.nanoTime();
+                    assertEquals(200, TestServers.getResponseCode("/text"));
+                    assertEquals(200, TestServers.getResponseCode("/ready"));
+                    assertTrue((System.nanoTime() - start) < 2000000000L);
+
+                    HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003" + RouteLanes.REPORT_QUERY).openConnection();
+                    assertEquals("application/json", conn.getContentType());
+                    String report = new String(TestServers.readAll(conn.getInputStream()), StandardCharsets.UTF_8);
+                    assertTrue(report, report.contains("{\"name\": \"bulk\", \"threads\": 1, \"queue\": 1, \"active\": 1, " +
+                        "\"queued\": 1, \"utilization\": 1.000, \"saturation\": 1.000, \"accepted\": 2, \"rejected\": 1"));
+                    assertTrue(report, report.contains("{\"name\": \"default\", \"threads\": 4, "));
+
+                    for (Socket upload : uploads) {
+                        upload.getOutputStream().write("12345".getBytes(StandardCharsets.ISO_8859_1));
+                        String response = new String(TestServers.readAll(upload.getInputStream()), StandardCharsets.ISO_8859_1);
+                        assertTrue(response, response.startsWith("HTTP/1.1 200"));
+                    }
+                    assertEquals(200, TestServers.getResponseCode("/xml1"));
+                    waitFor(bulk, 0, 0);
+                    for (int i = 0; (i < 500) && (bulk.getCompleted() < 3); i++) {
+                        Thread.sleep(10);
+                    }
+                    assertEquals(3, bulk.getCompleted());
+                    assertTrue(bulk.getMaxWait() > 0);
+                    assertTrue(bulk.getWaitPercentile(99) <= bulk.getMaxWait());
+                    assertTrue(server.getLanes().getLane(RouteLanes.SYSTEM).getCompleted() >= 2);
+                }
+                finally {
+                    for (Socket upload : uploads) {
+                        upload.close();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Открывает соединение и передает запрос к полосе bulk без тела: поток полосы ожидает тело.
+     */
+    private static Socket startUpload() throws IOException {
+        Socket socket = new Socket("localhost", 5003);
+        socket.setSoTimeout(10000);
+        OutputStream out = socket.getOutputStream();
+        out.write(("POST /upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        return socket;
+    }
+
+    private static void waitFor(RouteLanes.Lane lane, int active, int queued) throws InterruptedException {
+        long deadline = System.nanoTime() + 5000000000L;
+        while (((lane.getActive() != active) || (lane.getQueued() != queued)) && (System.nanoTime() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(active, lane.getActive());
+        assertEquals(queued, lane.getQueued());
+    }
+}
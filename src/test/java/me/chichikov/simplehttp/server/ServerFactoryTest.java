@@ -58,6 +58,73 @@ public class ServerFactoryTest {
         assertEquals("user", parameters.get(ConfigurationParameters.USER));
     }
 
+    /**
+     * Тест парсинга необязательных параметров
+     */
+    @Test
+    public void optionalParametersXMLParsing() throws IOException, SAXException, ParserConfigurationException, XPathExpressionException {
+        factory.parseXML("target/test-resources/settings-proxy.xml");
+        parameters = factory.getParameters();
+        assertEquals(16, parameters.get(ConfigurationParameters.THREADS));
+        assertEquals(4, parameters.get(ConfigurationParameters.PROXY_CONNECTIONS));
+        assertEquals(2000, parameters.get(ConfigurationParameters.PROXY_READ_TIMEOUT));
+        assertEquals(65536, parameters.get(ConfigurationParameters.PROXY_CACHE_ENTRY_SIZE));
+        assertEquals("proxy", factory.getResponses().get(1).get("/api/*"));
+
+        factory = new ServerFactory();
+        factory.parseXML("target/test-resources/settings.xml");
+        assertFalse(factory.getParameters().containsKey(ConfigurationParameters.THREADS));
+    }
+
+    /**
+     * Тест парсинга http заголовков ответов
+     */
+    @Test
+    public void headersXMLParsing() throws IOException, SAXException, ParserConfigurationException, XPathExpressionException {
+        factory = new ServerFactory();
+        factory.parseXML("target/test-resources/settings-headers.xml");
+        Map<String, HeaderPolicy> headers = factory.getHeaders();
+        assertEquals(3, headers.size());
+        assertArrayEquals(new String[]{"Cache-Control", "max-age=3600", "X-Served-By", "simple-http"},
+            headers.get("/xml1").getPairs());
+        assertEquals("max-age=31536000, immutable", headers.get("/image1").get("Cache-Control"));
+        assertEquals("simple-http", headers.get("/image1").get("X-Served-By"));
+        assertEquals(600, headers.get("/image1").getExpiresSeconds());
+        assertEquals("no-store", headers.get("/text").get("Cache-Control"));
+        assertEquals(-1, headers.get("/text").getExpiresSeconds());
+
+        factory = new ServerFactory();
+        factory.parseXML("target/test-resources/settings.xml");
+        assertTrue(factory.getHeaders().isEmpty());
+    }
+
+    /**
+     * Тест парсинга параметров задержки ответов
+     */
+    @Test
+    public void shapingXMLParsing() throws IOException, SAXException, ParserConfigurationException, XPathExpressionException {
+        factory = new ServerFactory();
+        factory.parseXML("target/test-resources/settings-shaping.xml");
+        Map<String, ResponseShaping> shaping = factory.getShaping();
+        assertEquals(4, shaping.size());
+        assertEquals(ResponseShaping.Distribution.FIXED, shaping.get("/slow").getDistribution());
+        assertEquals(ResponseShaping.Distribution.TABLE, shaping.get("/jitter").getDistribution());
+        assertEquals(ResponseShaping.Distribution.UNIFORM, shaping.get("/throttled").getDistribution());
+        assertEquals(65536, shaping.get("/throttled").getBandwidth());
+        assertEquals(1, shaping.get("/flaky").getErrorRate(), 0);
+        assertEquals(503, shaping.get("/flaky").getErrorStatus());
+        assertFalse(shaping.containsKey("/text"));
+        assertFalse(new ServerFactory().packBundle("target/test-resources/settings-shaping.xml", "target/test-resources/shaping.bundle"));
+    }
+
+    /**
+     * Тест задержки ответа типа proxy, передаваемого потоком
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shapedProxyXMLParsing() throws ParserConfigurationException, SAXException, XPathExpressionException, IOException {
+        factory.parseXML("target/test-resources/settings-shaping-proxy.xml");
+    }
+
     /**
      * Тест поврежденного .xml файла
      */
@@ -0,0 +1,90 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * ServerWarmUpTest - юнит тесты (JUnit 4.11) для логики класса ServerWarmUp
+ *
+ * @since 1.7
+ */
+public class ServerWarmUpTest {
+
+    private static final String SETTINGS = "target/test-resources/settings-warmup.xml";
+
+    /**
+     * Тест прогрева при запуске и запросов состояния сервера без аутентификации
+     */
+    @Test
+    public void warmUp() throws Exception {
+        long fileBytes = new File("target/test-resources/testdata/xml1.xml").length() +
+            new File("target/test-resources/testdata/image1.png").length();
+        for (int shards : TestServers.SHARD_COUNTS) {
+            SimpleHttpServer server = TestServers.createServer(SETTINGS, shards);
+            assertFalse(server.isReady());
+            server.start();
+            try {
+                assertTrue(server.isReady());
+                ServerWarmUp warmUp = server.getWarmUp();
+                assertEquals(0, warmUp.getFailures());
+                assertEquals(50 * 5, warmUp.getExchanges());
+                assertEquals(fileBytes, warmUp.getTouchedBytes());
+                assertEquals(0, server.getBroadcaster("/events").getSubscriberCount());
+
+                assertEquals(200, TestServers.getResponseCode("/live"));
+                assertEquals(200, TestServers.getResponseCode("/ready"));
+                assertEquals(401, TestServers.getResponseCode("/text"));
+            }
+            finally {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * Тест ответа /ready во время прогрева
+     */
+    @Test
+    public void readiness() throws Exception {
+        final SimpleHttpServer server = TestServers.createServer(SETTINGS, 2,
+            Collections.<ConfigurationParameters, Object>singletonMap(ConfigurationParameters.WARMUP, 50000));
+        final IOException[] error = new IOException[1];
+        Thread starter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.start();
+                }
+                catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        });
+        starter.start();
+        try {
+            int live = -1;
+            for (int i = 0; (i < 500) && (live != 200); i++) {
+                Thread.sleep(10);
+                try {
+                    live = TestServers.getResponseCode("/live");
+                }
+                catch (IOException ignored) {
+                }
+            }
+            assertEquals(200, live);
+            assertEquals(503, TestServers.getResponseCode("/ready"));
+            assertFalse(server.isReady());
+        }
+        finally {
+            starter.join();
+            server.stop();
+        }
+        assertNull(error[0]);
+        assertTrue(server.isReady());
+    }
+}
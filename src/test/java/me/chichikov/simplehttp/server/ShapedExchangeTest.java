@@ -0,0 +1,135 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * ShapedExchangeTest - юнит тесты (JUnit 4.11) для логики класса ShapedExchange
+ *
+ * @since 1.7
+ */
+public class ShapedExchangeTest {
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    TimerWheel wheel;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Before
+    public void startWheel() {
+        wheel = new TimerWheel(1, 64, executor);
+        wheel.start();
+    }
+
+    @After
+    public void stopWheel() {
+        wheel.stop();
+        executor.shutdownNow();
+    }
+
+    private StreamHttpExchange read(String request) throws IOException {
+        return StreamHttpExchange.read(new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1)),
+            output, null, null);
+    }
+
+    /**
+     * Тест ограничения скорости передачи тела больше 2 МБ
+     */
+    @Test
+    public void largeBodyBandwidth() throws Exception {
+        StreamHttpExchange exchange = read("GET / HTTP/1.1\r\n\r\n");
+        ShapedExchange shaped = new ShapedExchange(exchange, new ResponseShaping(null, null, 20000000, 0, 500), wheel);
+        byte[] body = new byte[8000000];
+        shaped.sendResponseHeaders(200, body.length);
+        OutputStream out = shaped.getResponseBody();
+        out.write(body);
+        out.close();
+
+        long start = System.nanoTime();
+        shaped.close();
+        while (!exchange.isClosed() && (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5))) {
+            Thread.sleep(5);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(exchange.isClosed());
+        assertTrue(output.size() > body.length);
+        assertTrue("elapsed " + elapsed + " ms", elapsed >= 350);
+    }
+
+    /**
+     * Тест передачи файла ответа порциями: содержимое передается полностью, в том числе
+     * с ограничением скорости, а файл освобождается по окончании передачи
+     */
+    @Test
+    public void fileBody() throws Exception {
+        byte[] content = new byte[3 * ShapedExchange.SLICE_SIZE + 17];
+        new Random(5).nextBytes(content);
+        Path path = Files.createTempFile(Paths.get("target"), "shaped-", ".bin");
+        Files.write(path, content);
+        try {
+            OpenFileCache fileCache = new OpenFileCache(0, 0);
+            for (long bandwidth : new long[]{0, 2000000}) {
+                output.reset();
+                StreamHttpExchange exchange = read("GET / HTTP/1.1\r\n\r\n");
+                ShapedExchange shaped = new ShapedExchange(exchange, new ResponseShaping(null, null, bandwidth, 0, 500), wheel);
+                OpenFileCache.OpenFile file = fileCache.acquire(path.toString());
+                shaped.sendFile(200, file, fileCache);
+                shaped.close();
+                long start = System.nanoTime();
+                while (!exchange.isClosed() && (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5))) {
+                    Thread.sleep(5);
+                }
+                assertTrue(exchange.isClosed());
+                assertFalse(file.channel.isOpen());
+                byte[] response = output.toByteArray();
+                assertArrayEquals(content, Arrays.copyOfRange(response, response.length - content.length, response.length));
+                if (bandwidth > 0) {
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    assertTrue("elapsed " + elapsed + " ms", elapsed >= 50);
+                }
+            }
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Тест ограничения размера тела, накапливаемого в памяти
+     */
+    @Test
+    public void bodySizeLimit() throws IOException {
+        ShapedExchange shaped = new ShapedExchange(read("GET / HTTP/1.1\r\n\r\n"),
+            new ResponseShaping(null, null, 0, 0, 500), wheel);
+        shaped.sendResponseHeaders(200, 0);
+        OutputStream out = shaped.getResponseBody();
+        byte[] block = new byte[1024 * 1024];
+        int written = 0;
+        try {
+            while (written <= ShapedExchange.MAX_BODY_SIZE) {
+                out.write(block);
+                written += block.length;
+            }
+            fail();
+        }
+        catch (IOException ignored) {
+        }
+        assertEquals(ShapedExchange.MAX_BODY_SIZE, written);
+    }
+}
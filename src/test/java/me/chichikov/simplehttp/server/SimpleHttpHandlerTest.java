@@ -26,6 +26,6 @@ public class SimpleHttpHandlerTest {
      */
     @Test
     public void testContentTypeExtracting() {
-        Assert.assertEquals("application/xml", handler.extractContentTypeByExtension("/document.xml"));
+        Assert.assertEquals("application/xml", SimpleHttpHandler.extractContentTypeByExtension("/document.xml"));
     }
 }
@@ -4,12 +4,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -169,7 +171,7 @@ public class SimpleHttpServerTest {
                     allPage.append((char) n);
                 }
             }
-            assertEquals("Unsupported request type. Only GET requests supported.", allPage.toString());
+            assertEquals("Unsupported request type.", allPage.toString());
         }
         finally {
             server.stop();
@@ -253,6 +255,203 @@ public class SimpleHttpServerTest {
         }
     }
 
+    /**
+     * Тестирование ответов сервера, запущенного из упакованного набора ответов
+     */
+    @Test
+    public void bundleResponseTest() throws IOException {
+        assertTrue(new ServerFactory().packBundle("target/test-resources/settings.xml", "target/test-resources/settings.bundle"));
+        server = new ServerFactory().getServerByBundle("target/test-resources/settings.bundle");
+        server.start();
+
+        try {
+            URL url = new URL("http://localhost:5003/xml1");
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            StringBuilder allPage = new StringBuilder();
+            try (InputStreamReader in = new InputStreamReader(conn.getInputStream())) {
+                int n;
+                while ((n = in.read()) != -1) {
+                    allPage.append((char) n);
+                }
+            }
+            assertEquals("application/xml", conn.getContentType());
+            assertEquals("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<somedata>\n" +
+                "    <somesubdata>\n" +
+                "        content\n" +
+                "    </somesubdata>\n" +
+                "</somedata>", allPage.toString());
+
+            url = new URL("http://localhost:5003/text");
+            conn = (HttpURLConnection) url.openConnection();
+            allPage = new StringBuilder();
+            try (InputStreamReader in = new InputStreamReader(conn.getInputStream())) {
+                int n;
+                while ((n = in.read()) != -1) {
+                    allPage.append((char) n);
+                }
+            }
+            assertEquals("<text>text</text>", allPage.toString());
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Тестирование ответа типа template
+     */
+    @Test
+    public void templateResponseTest() throws IOException {
+        server = new ServerFactory().getServerByXML("target/test-resources/settings-templates.xml");
+        server.start();
+
+        try {
+            URL url = new URL("http://localhost:5003/orders/17/json?note=%3Cb%3E%22");
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            StringBuilder allPage = new StringBuilder();
+            try (InputStreamReader in = new InputStreamReader(conn.getInputStream())) {
+                int n;
+                while ((n = in.read()) != -1) {
+                    allPage.append((char) n);
+                }
+            }
+            assertEquals("application/json", conn.getContentType());
+            assertEquals("{\"id\": \"17\", \"note\": \"<b>\\\"\"}", allPage.toString());
+
+            // маршрут совпадает по запросу целиком, но путь без строки запроса не соответствует шаблону
+            conn = (HttpURLConnection) new URL("http://localhost:5003/report?v=1").openConnection();
+            conn.setReadTimeout(5000);
+            allPage = new StringBuilder();
+            try (InputStreamReader in = new InputStreamReader(conn.getInputStream())) {
+                int n;
+                while ((n = in.read()) != -1) {
+                    allPage.append((char) n);
+                }
+            }
+            assertEquals("Unknown resource.", allPage.toString());
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Тестирование заданных в настройках http заголовков ответов
+     */
+    @Test
+    public void headersResponseTest() throws IOException {
+        server = new ServerFactory().getServerByXML("target/test-resources/settings-headers.xml");
+        server.start();
+
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003/image1").openConnection();
+            assertEquals("image/png", conn.getContentType());
+            assertEquals("max-age=31536000, immutable", conn.getHeaderField("Cache-Control"));
+            assertEquals("simple-http", conn.getHeaderField("X-Served-By"));
+            long expires = conn.getHeaderFieldDate("Expires", 0);
+            assertTrue(Math.abs(expires - System.currentTimeMillis() - 600000) < 5000);
+            conn.getInputStream().close();
+
+            conn = (HttpURLConnection) new URL("http://localhost:5003/text").openConnection();
+            assertEquals("application/xml", conn.getContentType());
+            assertEquals("no-store", conn.getHeaderField("Cache-Control"));
+            conn.getInputStream().close();
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Тестирование задержки, ограничения скорости и внесения ошибок
+     */
+    @Test
+    public void shapingResponseTest() throws IOException {
+        server = new ServerFactory().getServerByXML("target/test-resources/settings-shaping.xml");
+        server.start();
+
+        try {
+            long start = System.nanoTime();
+            HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003/slow").openConnection();
+            assertEquals(200, conn.getResponseCode());
+            conn.getInputStream().close();
+            assertTrue(System.nanoTime() - start >= 300000000L);
+
+            conn = (HttpURLConnection) new URL("http://localhost:5003/flaky").openConnection();
+            assertEquals(503, conn.getResponseCode());
+
+            start = System.nanoTime();
+            conn = (HttpURLConnection) new URL("http://localhost:5003/throttled").openConnection();
+            assertEquals("image/png", conn.getContentType());
+            assertEquals(31353, conn.getContentLength());
+            try (InputStream in = conn.getInputStream()) {
+                int total = 0;
+                while (in.read() != -1) {
+                    total++;
+                }
+                assertEquals(31353, total);
+            }
+            assertTrue(System.nanoTime() - start >= 400000000L);
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Тестирование ответов типа synthetic
+     */
+    @Test
+    public void syntheticResponseTest() throws IOException {
+        server = new ServerFactory().getServerByXML("target/test-resources/settings-synthetic.xml");
+        server.start();
+
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003/fixed").openConnection();
+            assertEquals("application/octet-stream", conn.getContentType());
+            assertEquals(102400, conn.getContentLength());
+            assertEquals(102400, readAll(conn.getInputStream()));
+
+            conn = (HttpURLConnection) new URL("http://localhost:5003/payload").openConnection();
+            assertEquals(1024, conn.getContentLength());
+            conn = (HttpURLConnection) new URL("http://localhost:5003/payload?x=1&size=300000").openConnection();
+            assertEquals(300000, conn.getContentLength());
+            try (InputStream in = conn.getInputStream()) {
+                assertEquals(' ', in.read());
+                assertEquals('!', in.read());
+            }
+            conn = (HttpURLConnection) new URL("http://localhost:5003/payload?size=2g").openConnection();
+            assertEquals(1048576, conn.getContentLength());
+            assertEquals(1048576, readAll(conn.getInputStream()));
+            conn = (HttpURLConnection) new URL("http://localhost:5003/payload?size=abc").openConnection();
+            assertEquals(400, conn.getResponseCode());
+
+            conn = (HttpURLConnection) new URL("http://localhost:5003/stream").openConnection();
+            assertEquals("application/x-test", conn.getContentType());
+            assertEquals("chunked", conn.getHeaderField("Transfer-Encoding"));
+            assertEquals(200000, readAll(conn.getInputStream()));
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    private static long readAll(InputStream in) throws IOException {
+        long total = 0;
+        byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        }
+        finally {
+            in.close();
+        }
+        return total;
+    }
+
     /**
      * Тестирование ответа на запрос с ограниченным доступом
      */
@@ -356,4 +555,48 @@ public class SimpleHttpServerTest {
         server.initialize(parameters, responses);
         server.stop();
     }
+
+    /**
+     * Запуск на занятом порту: исключение и остановка всех запущенных потоков (колесо таймеров,
+     * рассылка событий, чтение пакетов), после освобождения порта сервер запускается
+     */
+    @Test
+    public void occupiedPortStart() throws Exception {
+        for (String settings : new String[]{"target/test-resources/settings-sse.xml",
+            "target/test-resources/settings-batch.xml", "target/test-resources/settings-shaping.xml"}) {
+            for (int shards : TestServers.SHARD_COUNTS) {
+                Set<Thread> before = Thread.getAllStackTraces().keySet();
+                SimpleHttpServer occupied = TestServers.createServer(settings, shards);
+                ServerSocket socket = new ServerSocket(5003);
+                try {
+                    occupied.start();
+                    fail(settings + ", shards " + shards);
+                }
+                catch (BindException ignored) {
+                }
+                finally {
+                    socket.close();
+                }
+                assertFalse(occupied.isRunning());
+                List<Thread> leaked = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    leaked.clear();
+                    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                        if (!before.contains(thread) && thread.isAlive()) {
+                            leaked.add(thread);
+                        }
+                    }
+                    if (leaked.isEmpty()) {
+                        break;
+                    }
+                    Thread.sleep(10);
+                }
+                assertEquals(settings + ", shards " + shards, "[]", leaked.toString());
+
+                occupied.start();
+                assertEquals(200, TestServers.getResponseCode("/text"));
+                occupied.stop();
+            }
+        }
+    }
 }
@@ -0,0 +1,154 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * StreamHttpExchangeTest - юнит тесты (JUnit 4.11) для логики класса StreamHttpExchange
+ *
+ * @since 1.7
+ */
+public class StreamHttpExchangeTest {
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private StreamHttpExchange read(String request) throws IOException {
+        return StreamHttpExchange.read(new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1)),
+            output, null, null);
+    }
+
+    private String written() {
+        return new String(output.toByteArray(), StandardCharsets.ISO_8859_1).replaceAll("Date: [^\r]*\r\n", "");
+    }
+
+    /**
+     * Тест разбора строки запроса и заголовков
+     */
+    @Test
+    public void requestParsing() throws IOException {
+        StreamHttpExchange exchange = read("GET /orders/1?x=2 HTTP/1.1\r\nHost: localhost\r\nX-Test:  value \r\n\r\n");
+        assertEquals("GET", exchange.getRequestMethod());
+        assertEquals("/orders/1", exchange.getRequestURI().getPath());
+        assertEquals("x=2", exchange.getRequestURI().getQuery());
+        assertEquals("HTTP/1.1", exchange.getProtocol());
+        assertEquals("value", exchange.getRequestHeaders().getFirst("x-test"));
+        assertTrue(exchange.isKeepAlive());
+        assertEquals(-1, exchange.getRequestBody().read());
+    }
+
+    /**
+     * Тест пустого соединения и некорректного запроса
+     */
+    @Test
+    public void emptyAndBadRequests() throws IOException {
+        assertNull(read(""));
+        try {
+            read("GARBAGE\r\n\r\n");
+            fail();
+        }
+        catch (StreamHttpExchange.BadRequestException ignored) {
+        }
+        try {
+            read("POST / HTTP/1.1\r\nContent-Length: -5\r\n\r\n");
+            fail();
+        }
+        catch (StreamHttpExchange.BadRequestException ignored) {
+        }
+        StreamHttpExchange exchange = read("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n-5\r\nhello\r\n0\r\n\r\n");
+        try {
+            exchange.getRequestBody().read(new byte[16]);
+            fail();
+        }
+        catch (StreamHttpExchange.BadRequestException ignored) {
+        }
+    }
+
+    /**
+     * Тест ответов без тела: 204 и 304 передаются без Content-Length
+     */
+    @Test
+    public void noContentResponse() throws IOException {
+        StreamHttpExchange exchange = read("GET / HTTP/1.1\r\n\r\n");
+        exchange.sendResponseHeaders(204, -1);
+        exchange.close();
+        assertEquals("HTTP/1.1 204 No Content\r\n\r\n", written());
+
+        output.reset();
+        exchange = read("GET / HTTP/1.1\r\n\r\n");
+        exchange.sendResponseHeaders(304, 100);
+        exchange.close();
+        assertFalse(written().contains("Content-length"));
+
+        output.reset();
+        exchange = read("GET / HTTP/1.1\r\n\r\n");
+        exchange.sendResponseHeaders(404, -1);
+        exchange.close();
+        assertTrue(written().contains("Content-length: 0\r\n"));
+    }
+
+    /**
+     * Тест ответа фиксированной длины
+     */
+    @Test
+    public void fixedLengthResponse() throws IOException {
+        StreamHttpExchange exchange = read("GET / HTTP/1.1\r\nConnection: close\r\n\r\n");
+        exchange.getResponseHeaders().add("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(200, 5);
+        OutputStream out = exchange.getResponseBody();
+        out.write("hello".getBytes(StandardCharsets.ISO_8859_1));
+        out.close();
+        exchange.close();
+        String response = written();
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response.contains("Content-length: 5\r\n"));
+        assertTrue(response.contains("Connection: close\r\n"));
+        assertTrue(response.endsWith("\r\n\r\nhello"));
+        assertFalse(exchange.isKeepAlive());
+    }
+
+    /**
+     * Тест chunked ответа
+     */
+    @Test
+    public void chunkedResponse() throws IOException {
+        StreamHttpExchange exchange = read("GET / HTTP/1.1\r\n\r\n");
+        exchange.sendResponseHeaders(200, 0);
+        PrintWriter out = new PrintWriter(exchange.getResponseBody());
+        out.print("Greetings");
+        out.close();
+        exchange.close();
+        String response = written();
+        assertTrue(response.contains("Transfer-encoding: chunked\r\n"));
+        assertTrue(response.endsWith("\r\n\r\n9\r\nGreetings\r\n0\r\n\r\n"));
+        assertTrue(exchange.isKeepAlive());
+    }
+
+    /**
+     * Тест chunked тела запроса
+     */
+    @Test
+    public void chunkedRequestBody() throws IOException {
+        StreamHttpExchange exchange = read("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" +
+            "5\r\nhello\r\n6;ext=1\r\n world\r\n0\r\n\r\n");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        assertEquals("hello world", reader.readLine());
+    }
+
+    /**
+     * Тест тела запроса с Content-Length, не прочитанного обработчиком
+     */
+    @Test
+    public void unreadRequestBody() throws IOException {
+        InputStream in = new ByteArrayInputStream(("POST / HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc" +
+            "GET /next HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        StreamHttpExchange exchange = StreamHttpExchange.read(in, output, null, null);
+        exchange.sendResponseHeaders(204, -1);
+        exchange.close();
+        assertTrue(exchange.isKeepAlive());
+        assertEquals("/next", StreamHttpExchange.read(in, output, null, null).getRequestURI().getPath());
+    }
+}
@@ -0,0 +1,65 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/**
+ * SyntheticPayloadTest - юнит тесты (JUnit 4.11) для логики класса SyntheticPayload
+ *
+ * @since 1.7
+ */
+public class SyntheticPayloadTest {
+
+    /**
+     * Тест разбора значения ответа
+     */
+    @Test
+    public void parsing() {
+        SyntheticPayload payload = SyntheticPayload.parse("64k");
+        assertEquals(65536, payload.getSize());
+        assertEquals(65536, payload.getMax());
+        assertNull(payload.getParameter());
+        assertEquals(SyntheticPayload.Mode.FIXED, payload.getMode());
+
+        payload = SyntheticPayload.parse(" size=0; param=bytes  mode=chunked;fill=pattern ");
+        assertEquals(0, payload.getSize());
+        assertEquals(SyntheticPayload.DEFAULT_MAX, payload.getMax());
+        assertEquals("bytes", payload.getParameter());
+        assertEquals(SyntheticPayload.Mode.CHUNKED, payload.getMode());
+        assertEquals(' ', payload.getBytes()[0]);
+        assertEquals(SyntheticPayload.BUFFER_SIZE, payload.getBytes().length);
+        assertSame(payload.getBytes(), SyntheticPayload.parse("size=1 fill=pattern").getBytes());
+
+        for (String invalid : new String[]{"", "-1", "1x", "size=2k max=1k", "mode=stream", "color=red", "param=",
+            "size=17179869184g"}) {
+            try {
+                SyntheticPayload.parse(invalid);
+                fail(invalid);
+            }
+            catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Тест определения размера тела по строке запроса
+     */
+    @Test
+    public void sizeFromQuery() {
+        SyntheticPayload payload = SyntheticPayload.parse("size=10 param=size max=1m");
+        assertEquals(10, payload.getSize(URI.create("/payload")));
+        assertEquals(10, payload.getSize(URI.create("/payload?other=5")));
+        assertEquals(5, payload.getSize(URI.create("/payload?other=1&size=5")));
+        assertEquals(2048, payload.getSize(URI.create("/payload?size=2K")));
+        assertEquals(1048576, payload.getSize(URI.create("/payload?size=5g")));
+        assertEquals(-1, payload.getSize(URI.create("/payload?size=")));
+        assertEquals(-1, payload.getSize(URI.create("/payload?size=1.5")));
+        assertEquals(1048576, payload.getSize(URI.create("/payload?size=8589934591g")));
+        assertEquals(-1, payload.getSize(URI.create("/payload?size=8589934592g")));
+        assertEquals(-1, payload.getSize(URI.create("/payload?size=17179869184g")));
+        assertEquals(10, SyntheticPayload.parse("10").getSize(URI.create("/payload?size=5")));
+    }
+}
@@ -0,0 +1,109 @@
+package me.chichikov.simplehttp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TestServers - общие средства юнит тестов (JUnit 4.11) для запуска сервера по файлу
+ * настроек в нужном режиме
+ *
+ * @since 1.7
+ */
+class TestServers {
+
+    /**
+     * Число шардов в каждом режиме сервера: HttpServer JDK и ShardedListener.
+     */
+    static final int[] SHARD_COUNTS = {0, 2};
+
+    /**
+     * Проверка, выполняемая на запущенном сервере.
+     */
+    interface ServerCheck {
+        void run(SimpleHttpServer server) throws Exception;
+    }
+
+    private TestServers() {
+    }
+
+    /**
+     * Запускает сервер по файлу настроек в каждом режиме (см. SHARD_COUNTS), выполняет
+     * проверку и останавливает сервер.
+     */
+    static void inEachMode(String settings, ServerCheck check) throws Exception {
+        for (int shards : SHARD_COUNTS) {
+            SimpleHttpServer server = createServer(settings, shards);
+            server.start();
+            try {
+                check.run(server);
+            }
+            finally {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * Создает сервер по файлу настроек, переопределяя число шардов (0 - HttpServer JDK).
+     */
+    static SimpleHttpServer createServer(String settings, int shards) throws Exception {
+        return createServer(settings, shards, Collections.<ConfigurationParameters, Object>emptyMap());
+    }
+
+    /**
+     * Создает сервер по файлу настроек, переопределяя число шардов (0 - HttpServer JDK)
+     * и указанные параметры.
+     */
+    static SimpleHttpServer createServer(String settings, int shards, Map<ConfigurationParameters, Object> overrides)
+        throws Exception {
+        ServerFactory factory = new ServerFactory();
+        factory.parseXML(settings);
+        Map<ConfigurationParameters, Object> parameters = new HashMap<>(factory.getParameters());
+        if (shards > 0) {
+            parameters.put(ConfigurationParameters.SHARDS, shards);
+        }
+        else {
+            parameters.remove(ConfigurationParameters.SHARDS);
+        }
+        parameters.putAll(overrides);
+        SimpleHttpServer server = new SimpleHttpServer();
+        server.initialize(parameters, new ArrayList<>(factory.getResponses()), factory.getHeaders(), factory.getShaping(),
+            factory.getLanes());
+        return server;
+    }
+
+    /**
+     * Выполняет GET запрос к серверу на localhost:5003 и возвращает код ответа.
+     */
+    static int getResponseCode(String path) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003" + path).openConnection();
+        int code = conn.getResponseCode();
+        conn.disconnect();
+        return code;
+    }
+
+    /**
+     * Читает поток до конца и закрывает его.
+     */
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
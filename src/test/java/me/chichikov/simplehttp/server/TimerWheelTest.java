@@ -0,0 +1,94 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * TimerWheelTest - юнит тесты (JUnit 4.11) для логики класса TimerWheel
+ *
+ * @since 1.7
+ */
+public class TimerWheelTest {
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    TimerWheel wheel;
+
+    @After
+    public void stopWheel() {
+        wheel.stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Тест времени срабатывания задачи
+     */
+    @Test
+    public void delayedTask() throws InterruptedException {
+        wheel = new TimerWheel(1, 64, executor);
+        wheel.start();
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicLong fired = new AtomicLong();
+        long start = System.nanoTime();
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.set(System.nanoTime());
+                done.countDown();
+            }
+        }, 150);
+        assertEquals(1, wheel.getPendingCount());
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(fired.get() - start);
+        assertTrue(String.valueOf(elapsed), (elapsed >= 149) && (elapsed < 1000));
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    /**
+     * Тест задачи с задержкой больше оборота колеса
+     */
+    @Test
+    public void severalRounds() throws InterruptedException {
+        wheel = new TimerWheel(1, 16, executor);
+        wheel.start();
+        final CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, 100);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 99);
+    }
+
+    /**
+     * Тест большого числа одновременно ожидающих задач
+     */
+    @Test
+    public void manyTasks() throws InterruptedException {
+        wheel = new TimerWheel(1, 512, executor);
+        wheel.start();
+        int count = 50000;
+        final CountDownLatch done = new CountDownLatch(count);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < count; i++) {
+            wheel.schedule(task, 100 + i % 900);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, wheel.getPendingCount());
+    }
+}
@@ -0,0 +1,215 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.BindException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * UnixSocketListenerTest - юнит тесты (JUnit 4.11) для Unix domain сокета сервера
+ * (ShardedListener с адресом UnixDomainSocketAddress)
+ *
+ * @since 1.7
+ */
+public class UnixSocketListenerTest {
+
+    private static final String SETTINGS = "target/test-resources/settings-unix.xml";
+    private static final Path SOCKET = Paths.get("target/simplehttp-test.sock");
+
+    /**
+     * Тест разбора прав доступа к файлу сокета
+     */
+    @Test
+    public void mode() {
+        assertEquals(PosixFilePermissions.fromString("rw-rw----"), ShardedListener.parseMode("660"));
+        assertEquals(PosixFilePermissions.fromString("rwxr-x--x"), ShardedListener.parseMode("751"));
+        for (String invalid : new String[]{"", "66", "6600", "680", "rw-"}) {
+            try {
+                ShardedListener.parseMode(invalid);
+                fail(invalid);
+            }
+            catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Тест отказа в упаковке настроек с Unix domain сокетом
+     */
+    @Test
+    public void bundle() throws IOException {
+        Files.deleteIfExists(Paths.get("target/test-resources/unix.bundle"));
+        assertFalse(new ServerFactory().packBundle(SETTINGS, "target/test-resources/unix.bundle"));
+        assertFalse(Files.exists(Paths.get("target/test-resources/unix.bundle")));
+    }
+
+    /**
+     * Тест ответов через Unix domain сокет (keep-alive) наряду с TCP портом, прав доступа и
+     * удаления файла сокета при остановке
+     */
+    @Test
+    public void requests() throws Exception {
+        byte[] xml = Files.readAllBytes(Paths.get("target/test-resources/testdata/xml1.xml"));
+        for (int shards : TestServers.SHARD_COUNTS) {
+            SimpleHttpServer server = TestServers.createServer(SETTINGS, shards);
+            server.start();
+            try {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(SOCKET));
+                assertTrue(server.toString().contains("unix socket: target/simplehttp-test.sock"));
+                try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET))) {
+                    InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+                    for (String path : new String[]{"/text", "/xml1", "/none", "/text"}) {
+                        channel.write(ByteBuffer.wrap(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                            .getBytes(StandardCharsets.ISO_8859_1)));
+                        assertEquals(path, 200, readResponse(in));
+                    }
+                }
+                SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET));
+                channel.write(ByteBuffer.wrap(("GET /xml1 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1)));
+                String response = readAll(channel);
+                assertTrue(response.startsWith("HTTP/1.1 200"));
+                assertTrue(response.endsWith(new String(xml, StandardCharsets.UTF_8)));
+
+                for (int i = 0; i < 20; i++) {
+                    assertEquals(200, TestServers.getResponseCode("/text"));
+                }
+            }
+            finally {
+                server.stop();
+            }
+            assertFalse(Files.exists(SOCKET));
+        }
+    }
+
+    /**
+     * Тест удаления файла сокета, оставшегося от завершившегося процесса, и отказа запуска
+     * на сокете, принимающем соединения
+     */
+    @Test
+    public void staleSocket() throws Exception {
+        ServerSocketChannel stale = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        Files.deleteIfExists(SOCKET);
+        stale.bind(UnixDomainSocketAddress.of(SOCKET));
+        SimpleHttpServer server = TestServers.createServer(SETTINGS, 0);
+        try {
+            server.start();
+            fail();
+        }
+        catch (BindException ignored) {
+        }
+        assertTrue(Files.exists(SOCKET));
+        stale.close();
+        assertTrue(Files.exists(SOCKET));
+
+        server = TestServers.createServer(SETTINGS, 0);
+        server.start();
+        try {
+            try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET))) {
+                channel.write(ByteBuffer.wrap("GET /text HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+                assertEquals(200, readResponse(Channels.newInputStream(channel)));
+            }
+        }
+        finally {
+            server.stop();
+        }
+
+        Files.write(SOCKET, new byte[]{1});
+        server = TestServers.createServer(SETTINGS, 0);
+        try {
+            server.start();
+            fail();
+        }
+        catch (IOException ignored) {
+        }
+        finally {
+            Files.delete(SOCKET);
+        }
+    }
+
+    /**
+     * Читает ответ keep-alive соединения (тело по Content-Length либо chunked) и возвращает
+     * код ответа.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String status = readLine(in);
+        long length = 0;
+        boolean isChunked = false;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            String header = line.toLowerCase(Locale.US);
+            if (header.startsWith("content-length:")) {
+                length = Long.parseLong(header.substring(15).trim());
+            }
+            else if (header.startsWith("transfer-encoding:") && header.contains("chunked")) {
+                isChunked = true;
+            }
+        }
+        if (isChunked) {
+            while ((length = Long.parseLong(readLine(in).split(";")[0].trim(), 16)) > 0) {
+                skip(in, length);
+                readLine(in);
+            }
+            while (!readLine(in).isEmpty()) {
+            }
+        }
+        else {
+            skip(in, length);
+        }
+        return Integer.parseInt(status.substring(9, 12));
+    }
+
+    private static void skip(InputStream in, long count) throws IOException {
+        for (long i = 0; i < count; i++) {
+            if (in.read() < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            line.append((char) c);
+        }
+        int end = line.length();
+        return ((end > 0) && (line.charAt(end - 1) == '\r')) ? line.substring(0, end - 1) : line.toString();
+    }
+
+    private static String readAll(SocketChannel channel) throws IOException {
+        StringBuilder text = new StringBuilder();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        try {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                text.append(StandardCharsets.UTF_8.decode(buffer));
+                buffer.clear();
+            }
+        }
+        finally {
+            channel.close();
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,190 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * UploadRouteTest - юнит тесты (JUnit 4.11) для логики класса UploadRoute
+ *
+ * @since 1.7
+ */
+public class UploadRouteTest {
+
+    private static final String SETTINGS = "target/test-resources/settings-upload.xml";
+
+    /**
+     * Тест разбора значения ответа
+     */
+    @Test
+    public void parsing() {
+        UploadRoute sink = UploadRoute.parse("sink", "max=2k; digest=sha-256");
+        assertFalse(sink.isEcho());
+        assertEquals(2048, sink.getMax());
+        assertEquals(UploadRoute.DEFAULT_MAX, UploadRoute.parse("echo", "").getMax());
+        for (String invalid : new String[]{"max=x", "digest=none-such", "size=1", "16"}) {
+            try {
+                UploadRoute.parse("sink", invalid);
+                fail(invalid);
+            }
+            catch (IllegalArgumentException ignored) {
+            }
+        }
+        try {
+            UploadRoute.parse("echo", "digest=md5");
+            fail();
+        }
+        catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * Тест приема тела ответом sink (хеш, запись в файл, статистика) и ответом echo
+     */
+    @Test
+    public void sinkAndEcho() throws Exception {
+        final byte[] body = new byte[100000];
+        new Random(7).nextBytes(body);
+        final File previous = new File("target/uploads", "upload-1.bin");
+        previous.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(previous)) {
+            out.write("previous".getBytes(StandardCharsets.UTF_8));
+        }
+        TestServers.inEachMode(SETTINGS, new TestServers.ServerCheck() {
+            @Override
+            public void run(SimpleHttpServer server) throws Exception {
+                HttpURLConnection conn = post("/sink", "hello".getBytes(StandardCharsets.UTF_8), false);
+                assertEquals(200, conn.getResponseCode());
+                String report = new String(TestServers.readAll(conn.getInputStream()), StandardCharsets.UTF_8);
+                assertTrue(report, report.startsWith("{\"bytes\": 5, "));
+                assertTrue(report, report.contains("\"sha-256\": \"2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824\""));
+
+                conn = post("/stored", Arrays.copyOf(body, 50000), true);
+                report = new String(TestServers.readAll(conn.getInputStream()), StandardCharsets.UTF_8);
+                assertTrue(report, report.contains("\"bytes\": 50000"));
+                String name = report.substring(report.indexOf("\"file\": \"") + 9, report.lastIndexOf('"'));
+                File file = new File("target/uploads", name);
+                assertEquals(50000, file.length());
+                assertTrue(file.delete());
+                assertEquals(8, previous.length());
+
+                conn = (HttpURLConnection) new URL("http://localhost:5003/sink").openConnection();
+                report = new String(TestServers.readAll(conn.getInputStream()), StandardCharsets.UTF_8);
+                assertTrue(report, report.startsWith("{\"requests\": 1, \"rejected\": 0, \"bytes\": 5, "));
+
+                for (boolean isChunked : new boolean[]{false, true}) {
+                    conn = post("/echo", body, isChunked);
+                    assertEquals("application/x-test", conn.getContentType());
+                    assertEquals(isChunked ? -1 : body.length, conn.getContentLength());
+                    assertArrayEquals(body, TestServers.readAll(conn.getInputStream()));
+                }
+                assertEquals(2L * body.length, server.getUpload("/echo").getBytes());
+            }
+        });
+        assertTrue(previous.delete());
+    }
+
+    /**
+     * Тест отклонения тела больше max кодом 413 (известной и неизвестной заранее длины)
+     */
+    @Test
+    public void tooLarge() throws Exception {
+        final byte[] body = new byte[100000];
+        TestServers.inEachMode(SETTINGS, new TestServers.ServerCheck() {
+            @Override
+            public void run(SimpleHttpServer server) throws Exception {
+                assertEquals(413, post("/stored", body, false).getResponseCode());
+                assertEquals(413, post("/stored", body, true).getResponseCode());
+                UploadRoute stored = server.getUpload("/stored");
+                assertEquals(2, stored.getRejected());
+                assertEquals(2, stored.getRequests());
+                assertEquals(200, post("/stored", Arrays.copyOf(body, 100), false).getResponseCode());
+                assertEquals(2, stored.getRejected());
+                assertEquals(3, stored.getRequests());
+                File[] files = new File("target/uploads").listFiles();
+                assertEquals(1, files.length);
+                assertTrue(files[0].delete());
+            }
+        });
+    }
+
+    /**
+     * Тест Expect: 100-continue в режиме шардов: тело больше max отклоняется до его передачи
+     * клиентом, допустимое тело принимается после ответа 100 Continue
+     */
+    @Test
+    public void expectContinue() throws Exception {
+        SimpleHttpServer server = TestServers.createServer(SETTINGS, 2);
+        server.start();
+        try {
+            try (Socket socket = new Socket("127.0.0.1", 5003)) {
+                socket.setSoTimeout(5000);
+                write(socket, "POST /stored HTTP/1.1\r\nHost: x\r\nContent-Length: 1000000\r\nExpect: 100-continue\r\n\r\n");
+                String response = new String(TestServers.readAll(socket.getInputStream()), StandardCharsets.ISO_8859_1);
+                assertTrue(response, response.startsWith("HTTP/1.1 413 "));
+                assertFalse(response, response.contains("100 Continue"));
+            }
+            try (Socket socket = new Socket("127.0.0.1", 5003)) {
+                socket.setSoTimeout(5000);
+                write(socket, "POST /sink HTTP/1.1\r\nHost: x\r\nContent-Length: 5\r\nExpect: 100-continue\r\n\r\n");
+                InputStream in = socket.getInputStream();
+                byte[] head = new byte["HTTP/1.1 100 Continue\r\n\r\n".length()];
+                for (int offset = 0; offset < head.length; ) {
+                    int read = in.read(head, offset, head.length - offset);
+                    assertTrue(read > 0);
+                    offset += read;
+                }
+                assertEquals("HTTP/1.1 100 Continue\r\n\r\n", new String(head, StandardCharsets.ISO_8859_1));
+                write(socket, "hello");
+                StringBuilder response = new StringBuilder();
+                byte[] buffer = new byte[4096];
+                while (!response.toString().endsWith("}")) {
+                    int read = in.read(buffer);
+                    assertTrue(read > 0);
+                    response.append(new String(buffer, 0, read, StandardCharsets.ISO_8859_1));
+                }
+                assertTrue(response.toString(), response.toString().startsWith("HTTP/1.1 200 "));
+                assertTrue(response.toString(), response.toString().contains("\"bytes\": 5, "));
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    private static HttpURLConnection post(String path, byte[] body, boolean isChunked) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:5003" + path).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/x-test");
+        conn.setDoOutput(true);
+        if (isChunked) {
+            conn.setChunkedStreamingMode(8192);
+        }
+        else {
+            conn.setFixedLengthStreamingMode(body.length);
+        }
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+        catch (IOException ignored) {
+            // сервер может отклонить запрос и закрыть соединение до окончания передачи тела
+        }
+        return conn;
+    }
+
+    private static void write(Socket socket, String text) throws IOException {
+        socket.getOutputStream().write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
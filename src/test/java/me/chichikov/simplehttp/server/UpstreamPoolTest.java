@@ -0,0 +1,111 @@
+package me.chichikov.simplehttp.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * UpstreamPoolTest - юнит тесты (JUnit 4.11) для логики класса UpstreamPool
+ *
+ * @since 1.7
+ */
+public class UpstreamPoolTest {
+
+    ServerSocket listener;
+    Thread acceptor;
+    List<Socket> accepted = new ArrayList<>();
+
+    @Before
+    public void initTests() throws IOException {
+        listener = new ServerSocket();
+        listener.setReuseAddress(true);
+        listener.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 5004), 50);
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = listener.accept();
+                        synchronized (accepted) {
+                            accepted.add(socket);
+                        }
+                    }
+                }
+                catch (IOException ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Порт освобождается, когда поток приема выйдет из accept(), поэтому его завершение
+     * ожидается до запуска следующего теста.
+     */
+    @After
+    public void stopListener() throws Exception {
+        listener.close();
+        acceptor.join(5000);
+        synchronized (accepted) {
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Тест повторного использования соединения
+     */
+    @Test
+    public void connectionReuse() throws IOException {
+        UpstreamPool pool = new UpstreamPool("127.0.0.1", 5004, false, 2, 500, 500, 10000);
+        UpstreamPool.Connection first = pool.acquire();
+        assertFalse(first.isReused());
+        pool.release(first, true);
+        assertEquals(1, pool.getIdleCount());
+        UpstreamPool.Connection second = pool.acquire();
+        assertSame(first, second);
+        assertTrue(second.isReused());
+        pool.release(second, false);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(2, pool.getAvailablePermits());
+        pool.close();
+    }
+
+    /**
+     * Тест ограничения числа соединений
+     */
+    @Test(expected = SocketTimeoutException.class)
+    public void exhaustedPool() throws IOException {
+        UpstreamPool pool = new UpstreamPool("127.0.0.1", 5004, false, 1, 200, 500, 10000);
+        pool.acquire();
+        pool.acquire();
+    }
+
+    /**
+     * Тест истечения времени простоя соединения
+     */
+    @Test
+    public void idleTimeout() throws Exception {
+        UpstreamPool pool = new UpstreamPool("127.0.0.1", 5004, false, 1, 500, 500, 50);
+        UpstreamPool.Connection first = pool.acquire();
+        pool.release(first, true);
+        Thread.sleep(100);
+        UpstreamPool.Connection second = pool.acquire();
+        assertNotSame(first, second);
+        assertFalse(second.isReused());
+        pool.release(second, false);
+    }
+}